@@ -22,8 +22,11 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 
 /**
@@ -60,7 +63,37 @@ public interface ChangeVisitable <R extends Revision> {
       return visitor.visit(input, ImmutableMap.copyOf(copy));
     });
   }
-  
+
+  /**
+   * Finds the changes that contain any of the {@code labels} with any of the {@code values},
+   * looking for all of them in a single visit. If several changes have the same label value, the
+   * most recent one wins.
+   *
+   * <p>The visit stops once all the {@code values} have been found or after visiting
+   * {@code maxChanges} changes with the labels.
+   *
+   * @return the ref of the change for each label value seen in the visit. It contains the
+   *     {@code values} that were found, and it might contain other values, that callers can keep
+   *     for later lookups.
+   */
+  default ImmutableMap<String, String> findChangesWithLabelValues(Set<String> values,
+      ImmutableCollection<String> labels, int maxChanges)
+      throws RepoException, ValidationException {
+    Map<String, String> found = new HashMap<>();
+    Set<String> missing = new HashSet<>(values);
+    AtomicInteger visited = new AtomicInteger();
+    visitChangesWithAnyLabel(null, labels, (input, matchedLabels) -> {
+      for (String labelValue : matchedLabels.values()) {
+        found.putIfAbsent(labelValue, input.getRef());
+        missing.remove(labelValue);
+      }
+      return missing.isEmpty() || visited.incrementAndGet() > maxChanges
+          ? VisitResult.TERMINATE
+          : VisitResult.CONTINUE;
+    });
+    return ImmutableMap.copyOf(found);
+  }
+
   /**
    * A visitor of changes. An implementation of this interface is provided to {@see
    * visitChanges} methods to visit changes in Origin or
@@ -1085,6 +1085,7 @@ public class Core implements LabelsAwareModule, StarlarkValue {
         mapping,
         defaultString,
         workflowOptions.parallelizer(),
+        workflowOptions.transformationCache(),
         regexIgnorelist);
   }
 
@@ -1322,7 +1323,8 @@ public class Core implements LabelsAwareModule, StarlarkValue {
         convertFromNoneable(paths, Glob.ALL_FILES),
         verifyNoMatch,
         alsoOnReversal,
-        workflowOptions.parallelizer());
+        workflowOptions.parallelizer(),
+        workflowOptions.transformationCache());
   }
 
   @SuppressWarnings("unused")
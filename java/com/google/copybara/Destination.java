@@ -83,6 +83,38 @@ public interface Destination<R extends Revision> extends ConfigItemDescription,
     ImmutableList<DestinationEffect> write(TransformResult transformResult, Glob destinationFiles,
         Console console) throws ValidationException, RepoException, IOException;
 
+    /**
+     * Finishes the writes that the writer deferred, for example by pushing the commits that
+     * previous calls to {@link #write(TransformResult, Glob, Console)} only created locally.
+     *
+     * <p>Called once after the last change of a migration has been written, including when a
+     * later change failed to be migrated.
+     *
+     * @throws ValidationException if an user attributable error happens during the write
+     * @throws RepoException if there was an issue with the destination repository
+     */
+    default void flush(Console console) throws ValidationException, RepoException {
+    }
+
+    /**
+     * Returns the number of changes that {@link #write(TransformResult, Glob, Console)} accepted
+     * but didn't write to the destination yet. They are written together by a later write or
+     * {@link #flush(Console)}, or discarded together if that fails.
+     *
+     * <p>The effects returned for a pending change are only final once it is written.
+     */
+    default int getPendingWrites() {
+      return 0;
+    }
+
+    /**
+     * Returns the number of pending changes that this writer discarded because writing them
+     * failed.
+     */
+    default int getDiscardedWrites() {
+      return 0;
+    }
+
     /**
      * Utility endpoint for accessing and adding feedback data.
      * @param console console to use for reporting information to the user
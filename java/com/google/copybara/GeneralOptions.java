@@ -30,6 +30,7 @@ import com.google.common.flogger.StackSize;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.jcommander.DurationConverter;
+import com.google.copybara.jcommander.GreaterThanZeroValidator;
 import com.google.copybara.jcommander.MapConverter;
 import com.google.copybara.monitor.ConsoleEventMonitor;
 import com.google.copybara.monitor.EventMonitor;
@@ -69,6 +70,7 @@ public final class GeneralOptions implements Option {
   public static final String OUTPUT_LIMIT_FLAG = "--output-limit";
   public static final String DRY_RUN_FLAG = "--dry-run";
   public static final String SQUASH_FLAG = "--squash";
+  public static final String NOCLEANUP = "--nocleanup";
   static final Duration DEFAULT_CONSOLE_FILE_FLUSH_INTERVAL = Duration.ofSeconds(30);
 
   private Map<String, String> environment;
@@ -77,6 +79,8 @@ public final class GeneralOptions implements Option {
   private EventMonitor eventMonitor;
   private Path configRootPath;
   private Path outputRootPath;
+  // The temp directory of a server request, or null to use the one in the output root
+  @Nullable private Path tmpRoot;
 
   private Profiler profiler = new Profiler(Ticker.systemTicker());
 
@@ -105,13 +109,25 @@ public final class GeneralOptions implements Option {
   }
 
   public GeneralOptions withForce(boolean force) throws ValidationException {
-    return new GeneralOptions(environment, fileSystem, verbose, console, getConfigRoot(),
-        getOutputRoot(), noCleanup, disableReversibleCheck, force, outputLimit);
+    GeneralOptions result = new GeneralOptions(environment, fileSystem, verbose, console,
+        getConfigRoot(), getOutputRoot(), noCleanup, disableReversibleCheck, force, outputLimit);
+    result.tmpRoot = tmpRoot;
+    return result;
   }
 
   public GeneralOptions withConsole(Console console) throws ValidationException {
-    return new GeneralOptions(environment, fileSystem, verbose, console, getConfigRoot(),
-        getOutputRoot(), noCleanup, disableReversibleCheck, force, outputLimit);
+    GeneralOptions result = new GeneralOptions(environment, fileSystem, verbose, console,
+        getConfigRoot(), getOutputRoot(), noCleanup, disableReversibleCheck, force, outputLimit);
+    result.tmpRoot = tmpRoot;
+    return result;
+  }
+
+  /**
+   * Creates the temp directories of this run in {@code tmpRoot}. Used by the requests of the
+   * 'server' command, so that each request only cleans its own temp directories.
+   */
+  void setTmpRoot(Path tmpRoot) {
+    this.tmpRoot = Preconditions.checkNotNull(tmpRoot);
   }
 
   public Map<String, String> getEnvironment() {
@@ -130,6 +146,11 @@ public final class GeneralOptions implements Option {
     return fileSystem;
   }
 
+  /** Maximum number of requests that the 'server' command runs concurrently. */
+  public int getServerMaxConcurrentRequests() {
+    return serverMaxConcurrentRequests;
+  }
+
   public boolean isNoCleanup() {
     return noCleanup;
   }
@@ -230,10 +251,10 @@ public final class GeneralOptions implements Option {
    */
   public DirFactory getDirFactory() {
     if (getOutputRoot() != null) {
-      return new DirFactory(getOutputRoot());
+      return new DirFactory(getOutputRoot(), tmpRoot);
     } else {
       String home = checkNotNull(environment.get("HOME"), "$HOME environment var is not set");
-      return new DirFactory(fileSystem.getPath(home).resolve("copybara"));
+      return new DirFactory(fileSystem.getPath(home).resolve("copybara"), tmpRoot);
     }
   }
 
@@ -337,7 +358,7 @@ public final class GeneralOptions implements Option {
   int outputLimit = 0;
 
   @Parameter(
-      names = "--nocleanup",
+      names = NOCLEANUP,
       description =
           "Cleanup the output directories. This includes the workdir, scratch clones of Git"
               + " repos, etc. By default is set to false and directories will be cleaned prior to"
@@ -346,6 +367,12 @@ public final class GeneralOptions implements Option {
               + " usage.")
   boolean noCleanup = false;
 
+  @Parameter(
+      names = "--server-max-concurrent-requests",
+      description = "Maximum number of requests that the 'server' command runs concurrently.",
+      validateWith = GreaterThanZeroValidator.class)
+  int serverMaxConcurrentRequests = 4;
+
   @Parameter(
       names = "--nologging",
       description =
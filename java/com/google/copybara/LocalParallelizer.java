@@ -21,59 +21,85 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
 import com.google.copybara.exception.ValidationException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * A class that allows to run a list of things in parallel batches.
+ *
+ * <p>The elements are split in many more batches than threads, so that a batch with expensive
+ * elements doesn't leave the rest of the threads idle: whenever a thread finishes a batch it
+ * takes the next pending one. Batches run in a work-stealing pool shared by all the instances
+ * with the same number of threads, so that we don't create (and leak) a pool per instance.
  */
 public class LocalParallelizer {
 
+  /** Number of batches per thread. Higher values balance better but have more overhead. */
+  private static final int BATCHES_PER_THREAD = 8;
+
+  private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
   private final int threads;
   private final int minSize;
-  private final ListeningExecutorService executor;
 
   public LocalParallelizer(int threads, int minSize) {
     this.threads = threads;
     this.minSize = minSize;
     Preconditions.checkState(threads >= 1, "Threads need to be positive");
     Preconditions.checkState(threads < 1000, "Too many threads (max: 1000)");
-    executor = threads == 1
-        ? null
-        : MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
   }
 
   /**
    * Run a list of things in batches, calling {@code func} for each batch.
+   *
+   * @throws InterruptedIOException if the thread is interrupted while waiting for the batches.
+   *     Pending batches are cancelled and the interrupted flag is set.
    */
   public <K, V> List<V> run(Iterable<K> list, TransformFunc<K, V> func)
       throws IOException, ValidationException {
-    if (threads == 1 || Iterables.size(list) < minSize) {
+    int size = Iterables.size(list);
+    if (threads == 1 || size < minSize) {
       return ImmutableList.of(func.run(list));
     }
-    List<ListenableFuture<V>> results = new ArrayList<>(threads);
+    ForkJoinPool pool = POOLS.computeIfAbsent(threads, ForkJoinPool::new);
     List<K> newList = Lists.newArrayList(list);
-    for (List<K> batch : Lists.partition(newList, Math.max(1, newList.size() / threads))) {
-      results.add(executor.submit(() -> func.run(batch)));
+    int batchSize = Math.max(1, Math.max(minSize / threads,
+        (size + threads * BATCHES_PER_THREAD - 1) / (threads * BATCHES_PER_THREAD)));
+    List<Future<V>> results = new ArrayList<>();
+    for (List<K> batch : Lists.partition(newList, batchSize)) {
+      // FutureTask keeps the original exception, ForkJoinPool.submit wraps checked ones.
+      FutureTask<V> task = new FutureTask<>(() -> func.run(batch));
+      pool.execute(task);
+      results.add(task);
     }
     try {
-      return Futures.allAsList(results).get();
+      List<V> values = new ArrayList<>(results.size());
+      for (Future<V> result : results) {
+        values.add(result.get());
+      }
+      return values;
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
-      //TODO We cannot do much here. We might expose InterruptedException all the way up to Main...
-      throw new RuntimeException("Interrupted", e);
+      InterruptedIOException interrupted =
+          new InterruptedIOException("Interrupted while running batches in parallel");
+      interrupted.initCause(e);
+      throw interrupted;
     } catch (ExecutionException e) {
       Throwables.propagateIfPossible(e.getCause(), IOException.class, ValidationException.class);
       throw new RuntimeException("Unhandled error", e.getCause());
-
+    } finally {
+      for (Future<V> result : results) {
+        result.cancel(/*mayInterruptIfRunning=*/ true);
+      }
     }
   }
 
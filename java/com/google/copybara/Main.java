@@ -49,6 +49,7 @@ import com.google.copybara.util.console.AnsiConsole;
 import com.google.copybara.util.console.Console;
 import com.google.copybara.util.console.FileConsole;
 import com.google.copybara.util.console.LogConsole;
+import com.google.copybara.util.console.PrefixConsole;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -119,7 +120,7 @@ public class Main {
 
     console.startupMessage(getVersion());
 
-    CommandResult result = runInternal(args, console, fs);
+    CommandResult result = runInternal(args, console, fs, /*serverRequestTmpRoot=*/null);
     try {
       shutdown(result);
     } catch (InterruptedException e) {
@@ -195,8 +196,14 @@ public class Main {
    * Runs the command and returns the {@link ExitCode}.
    *
    * <p>This method is also responsible for the exception handling/logging.
+   *
+   * @param serverRequestTmpRoot the temp directory of the request if the command is a request
+   *     of the 'server' command, or null. Requests run concurrently, so they don't update the
+   *     fields of this class.
    */
-  private CommandResult runInternal(String[] args, Console console, FileSystem fs) {
+  private CommandResult runInternal(String[] args, Console console, FileSystem fs,
+      @Nullable Path serverRequestTmpRoot) {
+    boolean serverRequest = serverRequestTmpRoot != null;
     CommandEnv commandEnv = null;
     CopybaraCmd subcommand = null;
 
@@ -205,10 +212,13 @@ public class Main {
 
       final MainArguments mainArgs = new MainArguments();
       Options options = moduleSet.getOptions();
-      jCommander = new JCommander(ImmutableList.builder()
+      JCommander jCommander = new JCommander(ImmutableList.builder()
           .addAll(options.getAll())
           .add(mainArgs)
           .build());
+      if (!serverRequest) {
+        this.jCommander = jCommander;
+      }
       jCommander.setProgramName("copybara");
 
       String version = getVersion();
@@ -229,9 +239,14 @@ public class Main {
       CommandWithArgs cmdToRun = mainArgs.parseCommand(commands, commands.get("migrate"));
       subcommand = cmdToRun.getSubcommand();
 
+      GeneralOptions generalOptions = options.get(GeneralOptions.class);
+      if (serverRequest) {
+        generalOptions.setTmpRoot(serverRequestTmpRoot);
+      } else {
+        profiler = generalOptions.profiler();
+      }
       initEnvironment(options, cmdToRun.getSubcommand(), ImmutableList.copyOf(args));
 
-      GeneralOptions generalOptions = options.get(GeneralOptions.class);
       Path baseWorkdir = mainArgs.getBaseWorkdir(generalOptions, generalOptions.getFileSystem());
 
       commandEnv = new CommandEnv(baseWorkdir, options, cmdToRun.getArgs());
@@ -288,7 +303,25 @@ public class Main {
         new InfoCmd(configLoaderProvider, newInfoContextProvider()),
         new ValidateCmd(validator, consumer, configLoaderProvider),
         new HelpCmd(jcommander),
-        new VersionCmd());
+        new VersionCmd(),
+        new ServerCmd(this::runServerRequest, System.in, System.out));
+  }
+
+  /**
+   * Runs a request of the 'server' command. Requests run concurrently, each one with its own
+   * options, console and profiler.
+   */
+  private ExitCode runServerRequest(String id, ImmutableList<String> requestArgs,
+      Path tmpRoot) {
+    String[] args = requestArgs.toArray(new String[0]);
+    logger.atInfo().log("Running request %s: %s", id, Joiner.on(' ').join(args));
+    Console console = getServerRequestConsole(id, args);
+    CommandResult result = runInternal(args, console, FileSystems.getDefault(), tmpRoot);
+    console.close();
+    if (result.getCommandEnv() != null) {
+      result.getCommandEnv().getOptions().get(GeneralOptions.class).profiler().stop();
+    }
+    return result.getExitCode();
   }
 
   /**
@@ -387,6 +420,21 @@ public class Main {
     } else {
       console = new AnsiConsole(System.in, System.err, verbose);
     }
+    return withConsoleFile(console, args);
+  }
+
+  /**
+   * Returns the console for a request of the 'server' command. Requests run concurrently, so the
+   * messages are prefixed by the request id.
+   */
+  protected Console getServerRequestConsole(String id, String[] args) {
+    return withConsoleFile(
+        new PrefixConsole(
+            "[" + id + "] ", LogConsole.writeOnlyConsole(System.err, isVerbose(args))),
+        args);
+  }
+
+  private Console withConsoleFile(Console console, String[] args) {
     Optional<String> maybeConsoleFilePath = findFlagValue(args, GeneralOptions.CONSOLE_FILE_PATH);
     if (!maybeConsoleFilePath.isPresent()) {
       return console;
@@ -442,7 +490,7 @@ public class Main {
       ImmutableList<String> rawArgs)
       throws ValidationException, IOException, RepoException {
     GeneralOptions generalOptions = options.get(GeneralOptions.class);
-    profiler = generalOptions.profiler();
+    Profiler profiler = generalOptions.profiler();
     ImmutableList.Builder<Listener> profilerListeners = ImmutableList.builder();
     profilerListeners.add(
         new LogProfilerListener(), new ConsoleProfilerListener(generalOptions.console()));
@@ -98,6 +98,22 @@ public interface Origin<R extends Revision> extends ConfigItemDescription, Starl
      */
     void checkout(R ref, Path workdir) throws RepoException, ValidationException;
 
+    /**
+     * Same as {@link #checkout} but {@code workdir} might contain the result of a previous call
+     * to this method for another revision, and only the files that differ between the two
+     * revisions are updated.
+     *
+     * <p>The reader might store additional state next to {@code workdir}, but not inside it.
+     * Callers must not modify the contents of {@code workdir}.
+     *
+     * @return false if this reader doesn't support incremental checkouts, without touching
+     *     {@code workdir}
+     */
+    default boolean checkoutIncremental(R ref, Path workdir)
+        throws RepoException, ValidationException {
+      return false;
+    }
+
     /**
      * Returns the changes that happen in the interval (fromRef, toRef].
      *
@@ -26,6 +26,7 @@ import com.google.common.base.Preconditions;
 import com.google.copybara.Destination.Writer;
 import com.google.copybara.Origin.Reader;
 import com.google.copybara.WorkflowRunHelper.ChangeMigrator;
+import com.google.copybara.WorkflowRunHelper.PendingMigrations;
 import com.google.copybara.config.Config;
 import com.google.copybara.config.ConfigValidator;
 import com.google.copybara.config.Migration;
@@ -177,7 +178,9 @@ public class ReadConfigFromChangeWorkflow<O extends Revision, D extends Revision
           writer,
           getResolvedRef(),
           rawSourceRef,
-          getMigrationFinishedMonitor());
+          getMigrationFinishedMonitor(),
+          getPristineCheckoutDir(),
+          getPendingMigrations());
     }
   }
 
@@ -189,9 +192,10 @@ public class ReadConfigFromChangeWorkflow<O extends Revision, D extends Revision
     ReloadingChangeMigrator(Workflow<O, D> headWorkflow, Workflow<O, D> changeWorkflow,
         Path workdir, Reader<O> reader,
         Writer<D> writer, O resolvedRef, @Nullable String rawSourceRef,
-        Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor) {
+        Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor,
+        @Nullable Path pristineCheckoutDir, PendingMigrations pendingMigrations) {
       super(headWorkflow, workdir, reader, writer, resolvedRef, rawSourceRef,
-          migrationFinishedMonitor);
+          migrationFinishedMonitor, pristineCheckoutDir, pendingMigrations);
       this.changeWorkflow = Preconditions.checkNotNull(changeWorkflow);
     }
 
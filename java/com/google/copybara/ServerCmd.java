@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.beust.jcommander.Parameters;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.copybara.exception.CommandLineException;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.util.ExitCode;
+import com.google.copybara.util.FileUtil;
+import com.google.copybara.util.console.Console;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs Copybara as a long-running process that reads requests from stdin, so that callers that
+ * run many migrations don't pay for the JVM startup and the initialization of the repositories in
+ * every run.
+ *
+ * <p>Each request is a line with tab-separated fields: a request id chosen by the caller, the
+ * command (migrate, info or validate) and the arguments and flags of the command, exactly like in
+ * the command line. When the request finishes, a line with the tab-separated request id, exit
+ * code and exit code name is written to stdout, like {@code "1\t0\tSUCCESS"}. The output of the
+ * request is written to stderr, prefixed by the request id, and to {@code --console-file-path} if
+ * the request sets it.
+ *
+ * <p>Requests run concurrently, each one with its own options, console, profiler and temp
+ * directory, that is deleted when the request finishes. The server exits after running the
+ * pending requests when stdin is closed or an empty line is read.
+ */
+@Parameters(separators = "=",
+    commandDescription = "Runs a server that reads migrate, info and validate requests from"
+        + " stdin, one per line.")
+public class ServerCmd implements CopybaraCmd {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final ImmutableSet<String> COMMANDS =
+      ImmutableSet.of("migrate", "info", "validate");
+
+  private final RequestRunner requestRunner;
+  private final InputStream input;
+  private final PrintStream output;
+
+  ServerCmd(RequestRunner requestRunner, InputStream input, PrintStream output) {
+    this.requestRunner = checkNotNull(requestRunner);
+    this.input = checkNotNull(input);
+    this.output = checkNotNull(output);
+  }
+
+  @Override
+  public ExitCode run(CommandEnv commandEnv)
+      throws ValidationException, IOException, RepoException {
+    if (!commandEnv.getArgs().isEmpty()) {
+      throw new CommandLineException(
+          "'server' doesn't take arguments. Pass the arguments in each request.");
+    }
+    GeneralOptions generalOptions = commandEnv.getOptions().get(GeneralOptions.class);
+    Console console = generalOptions.console();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(generalOptions.getServerMaxConcurrentRequests());
+    console.info("Waiting for requests");
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+      for (String line = reader.readLine(); line != null && !line.isEmpty();
+          line = reader.readLine()) {
+        List<String> fields = Splitter.on('\t').splitToList(line);
+        String id = fields.get(0);
+        if (fields.size() < 2 || !COMMANDS.contains(fields.get(1))) {
+          console.errorFmt("Invalid request '%s'. Expected: id<TAB>%s<TAB>args...", line,
+              String.join("|", COMMANDS));
+          respond(id, ExitCode.COMMAND_LINE_ERROR);
+          continue;
+        }
+        ImmutableList<String> args = ImmutableList.copyOf(fields.subList(1, fields.size()));
+        executor.execute(() -> runRequest(id, args, generalOptions));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        console.progress("Waiting for the running requests to finish");
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      return ExitCode.INTERRUPTED;
+    }
+    return ExitCode.SUCCESS;
+  }
+
+  private void runRequest(String id, ImmutableList<String> args, GeneralOptions generalOptions) {
+    ExitCode exitCode = ExitCode.INTERNAL_ERROR;
+    Path tmpRoot = null;
+    try {
+      // Each request cleans only its own temp directory, since others might be running
+      tmpRoot = generalOptions.getDirFactory().newTempDir("request");
+      exitCode = requestRunner.run(id, args, tmpRoot);
+    } catch (IOException | RuntimeException e) {
+      logger.atSevere().withCause(e).log("Request %s failed", id);
+      generalOptions.console().errorFmt("Request %s failed: %s", id, e);
+    } finally {
+      if (tmpRoot != null && !generalOptions.isNoCleanup()) {
+        try {
+          FileUtil.deleteRecursively(tmpRoot);
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("Cannot delete %s", tmpRoot);
+        }
+      }
+      respond(id, exitCode);
+    }
+  }
+
+  private void respond(String id, ExitCode exitCode) {
+    synchronized (output) {
+      output.println(id + "\t" + exitCode.getCode() + "\t" + exitCode);
+      output.flush();
+    }
+  }
+
+  @Override
+  public String name() {
+    return "server";
+  }
+
+  /** Runs a request received by the server in the current thread. */
+  interface RequestRunner {
+
+    /**
+     * Runs the command and arguments in {@code args}, like they were passed in the command line.
+     * The temp directories of the request must be created in {@code tmpRoot}, that is deleted when
+     * the request finishes.
+     */
+    ExitCode run(String id, ImmutableList<String> args, Path tmpRoot) throws IOException;
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.copybara.exception.ValidationException;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * A content-addressed cache of the results of path-local transformations.
+ *
+ * <p>A path-local transformation computes the new content of a file only from its current
+ * content (for example {@code core.replace}). When several changes are migrated in the same run,
+ * most of the files are identical between changes, so we can reuse the result computed for the
+ * previous change instead of transforming the file again.
+ *
+ * <p>Entries are keyed by a fingerprint of the transformation and the hash of the input content.
+ * Fingerprints are usually the transformation instances, so the cache is only valid for the
+ * current run and it is never persisted.
+ */
+public final class TransformationCache {
+
+  private static final TransformationCache DISABLED = new TransformationCache(null);
+
+  /** Approximate memory used by the header of an object or array, in bytes. */
+  private static final int OBJECT_OVERHEAD = 16;
+  /** Approximate memory used by a cache key and its entry, without the value. */
+  private static final int ENTRY_OVERHEAD = 128;
+
+  @Nullable private final Cache<Key, Entry> cache;
+
+  private TransformationCache(@Nullable Cache<Key, Entry> cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Creates a cache that keeps results that use up to approximately {@code maxBytes} of memory.
+   */
+  public static TransformationCache create(long maxBytes) {
+    return new TransformationCache(
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((Key key, Entry entry) -> entry.weight)
+            .build());
+  }
+
+  /** A cache that doesn't store anything and always runs the transformation. */
+  public static TransformationCache disabled() {
+    return DISABLED;
+  }
+
+  public boolean isEnabled() {
+    return cache != null;
+  }
+
+  /**
+   * Returns the result of {@code loader} for {@code content}, reusing the result computed before
+   * for the same {@code fingerprint} and content if it is still cached.
+   *
+   * @param fingerprint identifies the transformation. Two transformations with equal
+   *     fingerprints must compute the same result for the same content.
+   * @param content the content of the file before the transformation
+   * @param loader computes the result. Failures are not cached.
+   */
+  public <T> T get(Object fingerprint, byte[] content, Loader<T> loader)
+      throws ValidationException {
+    if (cache == null) {
+      return loader.load(content);
+    }
+    Key key = new Key(fingerprint, Hashing.sha256().hashBytes(content));
+    Entry cached = cache.getIfPresent(key);
+    if (cached != null) {
+      @SuppressWarnings("unchecked")
+      T result = (T) cached.value;
+      return result;
+    }
+    T result = loader.load(content);
+    cache.put(key, new Entry(result, (int) Math.min(ENTRY_OVERHEAD + weigh(result),
+        Integer.MAX_VALUE)));
+    return result;
+  }
+
+  /**
+   * Returns the approximate memory used by {@code value}, in bytes. Strings, optionals and
+   * collections are measured, and {@link Weighted} results report their own weight.
+   */
+  public static long weigh(@Nullable Object value) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof Weighted) {
+      return ((Weighted) value).weight();
+    }
+    if (value instanceof CharSequence) {
+      // Java strings are UTF-16
+      return OBJECT_OVERHEAD * 2 + 2L * ((CharSequence) value).length();
+    }
+    if (value instanceof Optional) {
+      return OBJECT_OVERHEAD + weigh(((Optional<?>) value).orElse(null));
+    }
+    if (value instanceof Collection) {
+      long weight = OBJECT_OVERHEAD * 2;
+      for (Object element : (Collection<?>) value) {
+        weight += weigh(element) + 8;
+      }
+      return weight;
+    }
+    return OBJECT_OVERHEAD;
+  }
+
+  /** A cached result that computes how much memory it uses. */
+  public interface Weighted {
+
+    /** Approximate memory used by this object, in bytes. See {@link #weigh(Object)}. */
+    long weight();
+  }
+
+  /** Computes the result of a path-local transformation for a file content. */
+  public interface Loader<T> {
+
+    /** Returns the result for {@code content}. Must be immutable and not null. */
+    T load(byte[] content) throws ValidationException;
+  }
+
+  private static final class Key {
+
+    private final Object fingerprint;
+    private final HashCode contentHash;
+
+    private Key(Object fingerprint, HashCode contentHash) {
+      this.fingerprint = checkNotNull(fingerprint);
+      this.contentHash = checkNotNull(contentHash);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return fingerprint.equals(key.fingerprint) && contentHash.equals(key.contentHash);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(fingerprint, contentHash);
+    }
+  }
+
+  private static final class Entry {
+
+    private final Object value;
+    private final int weight;
+
+    private Entry(Object value, int weight) {
+      this.value = checkNotNull(value);
+      this.weight = weight;
+    }
+  }
+}
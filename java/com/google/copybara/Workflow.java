@@ -276,7 +276,18 @@ public class Workflow<O extends Revision, D extends Revision> implements Migrati
             eventMonitor().onChangeMigrationFinished(event);
           });
       try (ProfilerTask ignored = profiler().start(mode.toString().toLowerCase())) {
-        mode.run(helper);
+        try {
+          mode.run(helper);
+        } catch (ValidationException | RepoException | IOException | RuntimeException e) {
+          // Changes migrated before the failure are still written, like without deferred writes.
+          try {
+            helper.flushDestination(console);
+          } catch (ValidationException | RepoException | RuntimeException flushException) {
+            e.addSuppressed(flushException);
+          }
+          throw e;
+        }
+        helper.flushDestination(console);
       } finally {
         if (!getGeneralOptions().dryRunMode) {
           try (ProfilerTask ignored = profiler().start("after_all_migration")) {
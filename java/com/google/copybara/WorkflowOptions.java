@@ -27,6 +27,7 @@ import com.google.copybara.exception.VoidOperationException;
 import com.google.copybara.jcommander.AuthorConverter;
 import com.google.copybara.jcommander.GlobConverter;
 import com.google.copybara.jcommander.GreaterThanZeroListValidator;
+import com.google.copybara.jcommander.GreaterThanZeroValidator;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
 import java.util.List;
@@ -126,6 +127,28 @@ public class WorkflowOptions implements Option {
       description = "Minimum size of the lists to process to run them in parallel")
   public int threadsMinSize = 100;
 
+  @Parameter(names = "--experiment-incremental-checkout",
+      description = "If set, and the origin supports it, Copybara keeps a pristine checkout of the"
+          + " origin between changes and only updates the files that differ, instead of doing a"
+          + " full checkout for every change. It is only used when the filesystem of the workdir"
+          + " supports copy-on-write clones (for example Btrfs or XFS), since otherwise copying"
+          + " the pristine checkout costs as much as a full checkout. Note that this is"
+          + " experimental.")
+  public boolean incrementalCheckout = false;
+
+  @Parameter(names = "--experiment-transformation-cache",
+      description = "If set, path-local transformations (core.replace, core.filter_replace,"
+          + " core.verify_match and core.todo_replace) reuse the result computed for a file"
+          + " content in a previous change of the same run, instead of transforming it again."
+          + " Note that this is experimental.")
+  public boolean experimentTransformationCache = false;
+
+  @Parameter(names = "--experiment-transformation-cache-size-mb",
+      description = "Approximate maximum memory used by the results cached by"
+          + " --experiment-transformation-cache, in MB.",
+      validateWith = GreaterThanZeroValidator.class)
+  public int transformationCacheSizeMb = 256;
+
   @Parameter(names = "--notransformation-join",
       description = "By default Copybara tries to join certain transformations in one so that it"
           + " is more efficient. This disables the feature.")
@@ -219,6 +242,16 @@ public class WorkflowOptions implements Option {
     return parallelizerSupplier.get();
   }
 
+  private final Supplier<TransformationCache> transformationCacheSupplier =
+      Suppliers.memoize(() -> experimentTransformationCache
+          ? TransformationCache.create(transformationCacheSizeMb * 1024L * 1024L)
+          : TransformationCache.disabled());
+
+  /** The cache for the results of path-local transformations in this run. */
+  public TransformationCache transformationCache() {
+    return transformationCacheSupplier.get();
+  }
+
   public boolean joinTransformations() {
     return !noTransformationJoin;
   }
@@ -18,7 +18,6 @@ package com.google.copybara;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.copybara.GeneralOptions.OUTPUT_ROOT_FLAG;
-import static com.google.copybara.util.FileUtil.CopySymlinkStrategy.FAIL_OUTSIDE_SYMLINKS;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
@@ -27,6 +26,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.copybara.Destination.DestinationStatus;
 import com.google.copybara.Destination.Writer;
+import com.google.copybara.DestinationEffect.OriginRef;
 import com.google.copybara.DestinationEffect.Type;
 import com.google.copybara.Origin.Baseline;
 import com.google.copybara.Origin.Reader;
@@ -44,6 +44,7 @@ import com.google.copybara.monitor.EventMonitor.ChangeMigrationFinishedEvent;
 import com.google.copybara.monitor.EventMonitor.ChangeMigrationStartedEvent;
 import com.google.copybara.profiler.Profiler;
 import com.google.copybara.profiler.Profiler.ProfilerTask;
+import com.google.copybara.util.AbsoluteSymlinksNotAllowed;
 import com.google.copybara.util.DiffUtil;
 import com.google.copybara.util.DiffUtil.DiffFile;
 import com.google.copybara.util.FileUtil;
@@ -59,6 +60,9 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
 import javax.annotation.Nullable;
@@ -75,6 +79,8 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
   protected final Destination.Writer<D> writer;
   @Nullable final String rawSourceRef;
   private final Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor;
+  private final PendingMigrations pendingMigrations = new PendingMigrations();
+  @Nullable private Path pristineCheckoutDir;
 
   WorkflowRunHelper(
       Workflow<O, D> workflow,
@@ -112,15 +118,56 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
   ChangeMigrator<O, D> getMigratorForChangeAndWriter(Change<?> change, Writer<D> writer)
       throws ValidationException, RepoException {
     return new ChangeMigrator<>(workflow, workdir, originReader, writer, resolvedRef, rawSourceRef,
-        migrationFinishedMonitor);
+        migrationFinishedMonitor, getPristineCheckoutDir(), pendingMigrations);
   }
 
   /**
    * Get a default migrator for the current writer
    */
-  ChangeMigrator<O, D> getDefaultMigrator() {
+  ChangeMigrator<O, D> getDefaultMigrator() throws RepoException {
     return new ChangeMigrator<>(workflow, workdir, originReader, writer, resolvedRef, rawSourceRef,
-        migrationFinishedMonitor);
+        migrationFinishedMonitor, getPristineCheckoutDir(), pendingMigrations);
+  }
+
+  /** Changes migrated by this helper whose write is still pending in the destination writer. */
+  PendingMigrations getPendingMigrations() {
+    return pendingMigrations;
+  }
+
+  /**
+   * Finishes the writes that the destination writer deferred, and then the migrations of the
+   * changes that were waiting for them.
+   */
+  void flushDestination(Console console) throws ValidationException, RepoException {
+    int discardedBefore = writer.getDiscardedWrites();
+    try {
+      writer.flush(console);
+    } catch (ValidationException | RepoException | RuntimeException e) {
+      pendingMigrations.finish(/*written=*/ false, e);
+      throw e;
+    }
+    pendingMigrations.finish(writer.getDiscardedWrites() == discardedBefore, /*failure=*/ null);
+  }
+
+  /**
+   * Directory that keeps the origin checkout between the changes migrated by this helper, or null
+   * if incremental checkouts are disabled. It lives outside of the workdir, since the workdir is
+   * cleaned for every change.
+   */
+  @Nullable
+  synchronized Path getPristineCheckoutDir() throws RepoException {
+    if (!workflowOptions().incrementalCheckout) {
+      return null;
+    }
+    if (pristineCheckoutDir == null) {
+      try {
+        pristineCheckoutDir = workflow.getGeneralOptions().getDirFactory()
+            .newTempDir("pristine_checkout");
+      } catch (IOException e) {
+        throw new RepoException("Cannot create the pristine checkout directory", e);
+      }
+    }
+    return pristineCheckoutDir;
   }
 
   public Profiler profiler() {
@@ -276,10 +323,13 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     @Nullable
     private final String rawSourceRef;
     private final Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor;
+    @Nullable private final Path pristineCheckoutDir;
+    private final PendingMigrations pendingMigrations;
 
     ChangeMigrator(Workflow<O, D> workflow, Path workdir, Reader<O> reader,
         Writer<D> writer, O resolvedRef, @Nullable String rawSourceRef,
-        Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor) {
+        Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor,
+        @Nullable Path pristineCheckoutDir, PendingMigrations pendingMigrations) {
       this.workflow = checkNotNull(workflow);
       this.workdir = checkNotNull(workdir);
       this.resolvedRef = checkNotNull(resolvedRef);
@@ -287,6 +337,8 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
       this.writer = checkNotNull(writer);
       this.rawSourceRef = rawSourceRef;
       this.migrationFinishedMonitor = checkNotNull(migrationFinishedMonitor);
+      this.pristineCheckoutDir = pristineCheckoutDir;
+      this.pendingMigrations = checkNotNull(pendingMigrations);
     }
 
     /**
@@ -395,6 +447,8 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
         @Nullable O changeIdentityRevision)
         throws IOException, RepoException, ValidationException {
       ImmutableList<DestinationEffect> effects = ImmutableList.of();
+      Exception failure = null;
+      int discardedBefore = writer.getDiscardedWrites();
       try {
         workflow.eventMonitor().onChangeMigrationStarted(new ChangeMigrationStartedEvent());
         effects =
@@ -415,38 +469,53 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
                         empty.getMessage()),
                     changes.getCurrent(),
                     /*destinationRef=*/ null));
+        failure = empty;
         throw empty;
       } catch (ValidationException | IOException | RepoException | RuntimeException e) {
-        boolean userError = e instanceof ValidationException;
-        effects =
-            ImmutableList.of(
-                new DestinationEffect(
-                    userError ? Type.ERROR : Type.TEMPORARY_ERROR,
-                    "Errors happened during the migration",
-                    changes.getCurrent(),
-                    /*destinationRef=*/ null,
-                    ImmutableList.of(e.getMessage() != null ? e.getMessage() : e.toString())));
+        effects = errorEffects(changes.getCurrent(), e);
+        failure = e;
         throw e;
       } finally {
-        try {
-          if (!workflow.getGeneralOptions().dryRunMode) {
-            try (ProfilerTask ignored = profiler().start("after_migration")) {
-              effects = workflow.runHooks(effects, workflow.getAfterMigrationActions(),
-                  // Only do this once for all the actions
-                  LazyResourceLoader.memoized(reader::getFeedbackEndPoint),
-                  // Only do this once for all the actions
-                  LazyResourceLoader.memoized(writer::getFeedbackEndPoint),
-                  resolvedRef);
-            }
-          } else if (!workflow.getAfterMigrationActions().isEmpty()) {
-            workflow.getConsole()
-                .infoFmt(
-                    "Not calling 'after_migration' actions because of %s mode",
-                    GeneralOptions.DRY_RUN_FLAG);
+        // If the write of this change is pending, it was written together with the previous
+        // pending changes or they were discarded.
+        boolean pending = failure == null && writer.getPendingWrites() > 0;
+        if (writer.getPendingWrites() <= (pending ? 1 : 0)) {
+          pendingMigrations.finish(writer.getDiscardedWrites() == discardedBefore, failure);
+        }
+        if (pending) {
+          pendingMigrations.add(
+              ImmutableList.copyOf(changes.getCurrent()), effects, this::finishMigration);
+        } else {
+          effects = finishMigration(effects);
+        }
+      }
+      return effects;
+    }
+
+    /**
+     * Runs the 'after_migration' actions for the {@code effects} of a change and notifies that its
+     * migration finished. Returns the effects, including the ones created by the actions.
+     */
+    private ImmutableList<DestinationEffect> finishMigration(
+        ImmutableList<DestinationEffect> effects) throws ValidationException, RepoException {
+      try {
+        if (!workflow.getGeneralOptions().dryRunMode) {
+          try (ProfilerTask ignored = profiler().start("after_migration")) {
+            effects = workflow.runHooks(effects, workflow.getAfterMigrationActions(),
+                // Only do this once for all the actions
+                LazyResourceLoader.memoized(reader::getFeedbackEndPoint),
+                // Only do this once for all the actions
+                LazyResourceLoader.memoized(writer::getFeedbackEndPoint),
+                resolvedRef);
           }
-        } finally {
-          migrationFinishedMonitor.accept(new ChangeMigrationFinishedEvent(effects));
+        } else if (!workflow.getAfterMigrationActions().isEmpty()) {
+          workflow.getConsole()
+              .infoFmt(
+                  "Not calling 'after_migration' actions because of %s mode",
+                  GeneralOptions.DRY_RUN_FLAG);
         }
+      } finally {
+        migrationFinishedMonitor.accept(new ChangeMigrationFinishedEvent(effects));
       }
       return effects;
     }
@@ -517,7 +586,7 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
       processConsole.progress("Checking out the change");
       boolean isShowDiffInOrigin = showDiffInOrigin(rev, lastRev, processConsole);
 
-      checkout(rev, processConsole, checkoutDir, "origin.checkout");
+      checkout(rev, processConsole, checkoutDir, "origin.checkout", /*incremental=*/ true);
 
       Path originCopy = null;
       if (getReverseTransformForCheck() != null) {
@@ -525,7 +594,8 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
           workflow.getConsole().progress("Making a copy or the workdir for reverse checking");
           originCopy = Files.createDirectories(workdir.resolve("origin"));
           try {
-            FileUtil.copyFilesRecursively(checkoutDir, originCopy, FAIL_OUTSIDE_SYMLINKS);
+            FileUtil.snapshotFilesRecursively(checkoutDir, originCopy,
+                workflow.getGeneralOptions().getEnvironment());
           } catch (NoSuchFileException e) {
             throw new ValidationException(String.format(""
                 + "Failed to perform reversible check of transformations due to symlink '%s' "
@@ -566,7 +636,8 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
         try (ProfilerTask ignored = profiler().start("reverse_copy")) {
           reverse = Files.createDirectories(workdir.resolve("reverse"));
           try {
-            FileUtil.copyFilesRecursively(checkoutDir, reverse, FAIL_OUTSIDE_SYMLINKS);
+            FileUtil.snapshotFilesRecursively(checkoutDir, reverse,
+                workflow.getGeneralOptions().getEnvironment());
           } catch (NoSuchFileException e) {
             throw new ValidationException(""
                 + "Failed to perform reversible check of transformations due to a symlink that "
@@ -592,28 +663,31 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
                       originApi,
                       () -> DestinationReader.NOT_IMPLEMENTED));
         }
-        String diff;
-        try {
-          byte[] byteDiff =
-              DiffUtil.diff(
-                  originCopy,
-                  reverse,
-                  workflow.isVerbose(),
-                  workflow.getGeneralOptions().getEnvironment());
-
-          // This should be more optimal than parsing a potential huge diff file.
-          if (getReversibleCheckIgnoreFiles() != null) {
-            PathMatcher pathMatcher =
-                getReversibleCheckIgnoreFiles().relativeTo(Paths.get("origin"));
-            diff = DiffUtil.filterDiff(byteDiff, (s -> !pathMatcher.matches(Paths.get(s))));
-          } else {
-            diff = new String(byteDiff, StandardCharsets.UTF_8);
+        String diff = "";
+        // The textual diff requires running git, so we only compute it if the trees differ.
+        if (!DiffUtil.diffFiles(originCopy, reverse).isEmpty()) {
+          try {
+            byte[] byteDiff =
+                DiffUtil.diff(
+                    originCopy,
+                    reverse,
+                    workflow.isVerbose(),
+                    workflow.getGeneralOptions().getEnvironment());
+
+            // This should be more optimal than parsing a potential huge diff file.
+            if (getReversibleCheckIgnoreFiles() != null) {
+              PathMatcher pathMatcher =
+                  getReversibleCheckIgnoreFiles().relativeTo(Paths.get("origin"));
+              diff = DiffUtil.filterDiff(byteDiff, (s -> !pathMatcher.matches(Paths.get(s))));
+            } else {
+              diff = new String(byteDiff, StandardCharsets.UTF_8);
+            }
+          } catch (InsideGitDirException e) {
+            throw new ValidationException(String.format(
+                "Cannot use 'reversible_check = True' because Copybara temporary directory (%s) is"
+                    + " inside a git directory (%s). Please remove the git repository or use %s"
+                    + " flag.", e.getPath(), e.getGitDirPath(), OUTPUT_ROOT_FLAG));
           }
-        } catch (InsideGitDirException e) {
-          throw new ValidationException(String.format(
-              "Cannot use 'reversible_check = True' because Copybara temporary directory (%s) is"
-                  + " inside a git directory (%s). Please remove the git repository or use %s"
-                  + " flag.", e.getPath(), e.getGitDirPath(), OUTPUT_ROOT_FLAG));
         }
         if (!diff.trim().isEmpty()) {
           workflow.getConsole().error("Non reversible transformations:\n"
@@ -654,7 +728,7 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
           PrefixConsole baselineConsole = new PrefixConsole("Migrating baseline for diff: ",
               workflow.getConsole());
           checkout(destinationBaseline.getOriginRevision(), baselineConsole, baselineWorkdir,
-              "origin.baseline.checkout");
+              "origin.baseline.checkout", /*incremental=*/ false);
 
           TransformWork baselineTransformWork =
               new TransformWork(
@@ -679,15 +753,8 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
           try (ProfilerTask ignored = profiler().start("baseline_transforms")) {
             getTransformation().transform(baselineTransformWork);
           }
-          try {
-            ImmutableList<DiffFile> affectedFiles = DiffUtil
-                .diffFiles(baselineWorkdir, checkoutDir, workflow.getGeneralOptions().isVerbose(),
-                    workflow.getGeneralOptions().getEnvironment());
-            transformResult = transformResult.withAffectedFilesForSmartPrune(affectedFiles);
-          } catch (InsideGitDirException e) {
-            throw new ValidationException("Error computing diff for smart_prune: " + e.getMessage(),
-                e.getCause());
-          }
+          ImmutableList<DiffFile> affectedFiles = DiffUtil.diffFiles(baselineWorkdir, checkoutDir);
+          transformResult = transformResult.withAffectedFilesForSmartPrune(affectedFiles);
         }
       }
       transformResult = transformResult
@@ -707,12 +774,15 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     }
 
     private void checkout(
-        O rev, Console processConsole, Path checkoutDir, String profileDescription)
+        O rev, Console processConsole, Path checkoutDir, String profileDescription,
+        boolean incremental)
         throws RepoException, ValidationException, IOException {
       if (workflow.isCheckout() ) {
         try (ProfilerTask ignored = profiler().start(
             profileDescription, profiler().taskType(workflow.getOrigin().getType()))) {
-          reader.checkout(rev, checkoutDir);
+          if (!incremental || !checkoutIncremental(rev, checkoutDir)) {
+            reader.checkout(rev, checkoutDir);
+          }
         }
       }
 
@@ -727,6 +797,40 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
             "Removed %d files from workdir that do not match origin_files", deleted);
       }
     }
+
+    /**
+     * Updates the pristine checkout to {@code rev} and copies it to {@code checkoutDir}, so that
+     * only the files that changed since the previous change are checked out.
+     *
+     * @return false if incremental checkouts are disabled or not supported by the origin
+     */
+    private boolean checkoutIncremental(O rev, Path checkoutDir)
+        throws RepoException, ValidationException, IOException {
+      if (pristineCheckoutDir == null) {
+        return false;
+      }
+      Map<String, String> environment = workflow.getGeneralOptions().getEnvironment();
+      if (!FileUtil.supportsCheapSnapshots(pristineCheckoutDir, checkoutDir, environment)) {
+        // Copying the whole pristine tree costs as much as a regular checkout
+        workflow.getConsole().verboseFmt(
+            "Not using the pristine checkout: copy-on-write clones are not supported");
+        return false;
+      }
+      if (!reader.checkoutIncremental(rev, pristineCheckoutDir.resolve("checkout"))) {
+        return false;
+      }
+      try {
+        FileUtil.snapshotFilesRecursively(pristineCheckoutDir.resolve("checkout"), checkoutDir,
+            environment);
+      } catch (AbsoluteSymlinksNotAllowed e) {
+        // The regular checkout supports symlinks that point outside of the checkout.
+        workflow.getConsole().verboseFmt("Cannot use the pristine checkout: %s", e.getMessage());
+        FileUtil.deleteRecursively(checkoutDir);
+        Files.createDirectories(checkoutDir);
+        return false;
+      }
+      return true;
+    }
   }
 
   /**
@@ -809,4 +913,75 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     return workflow.eventMonitor();
   }
 
+  private static ImmutableList<DestinationEffect> errorEffects(
+      Iterable<? extends OriginRef> changes, Exception e) {
+    boolean userError = e instanceof ValidationException;
+    return ImmutableList.of(
+        new DestinationEffect(
+            userError ? Type.ERROR : Type.TEMPORARY_ERROR,
+            "Errors happened during the migration",
+            changes,
+            /*destinationRef=*/ null,
+            ImmutableList.of(e.getMessage() != null ? e.getMessage() : e.toString())));
+  }
+
+  /**
+   * Migrations of changes whose write the destination writer deferred, for example because their
+   * push is batched with the next changes.
+   *
+   * <p>Their 'after_migration' actions and finished events wait until the deferred writes are
+   * written or discarded, so that they never report a change that didn't reach the destination.
+   * Pending writes are written or discarded all together.
+   */
+  static final class PendingMigrations {
+
+    private final List<PendingMigration> pending = new ArrayList<>();
+
+    private void add(ImmutableList<? extends OriginRef> changes,
+        ImmutableList<DestinationEffect> effects, MigrationFinisher finisher) {
+      pending.add(new PendingMigration(changes, effects, finisher));
+    }
+
+    /**
+     * Finishes the pending migrations, with the effects of their write if {@code written} or with
+     * an error otherwise.
+     *
+     * @param failure the reason why they were not written, if known
+     */
+    private void finish(boolean written, @Nullable Exception failure)
+        throws ValidationException, RepoException {
+      List<PendingMigration> finished = new ArrayList<>(pending);
+      pending.clear();
+      for (PendingMigration migration : finished) {
+        if (written) {
+          migration.finisher.finish(migration.effects);
+        } else {
+          migration.finisher.finish(errorEffects(migration.changes, failure != null
+              ? failure
+              : new RepoException("The change was not written to the destination")));
+        }
+      }
+    }
+  }
+
+  private static final class PendingMigration {
+
+    private final ImmutableList<? extends OriginRef> changes;
+    private final ImmutableList<DestinationEffect> effects;
+    private final MigrationFinisher finisher;
+
+    private PendingMigration(ImmutableList<? extends OriginRef> changes,
+        ImmutableList<DestinationEffect> effects, MigrationFinisher finisher) {
+      this.changes = checkNotNull(changes);
+      this.effects = checkNotNull(effects);
+      this.finisher = checkNotNull(finisher);
+    }
+  }
+
+  /** Runs the actions and notifications of a finished change migration. */
+  private interface MigrationFinisher {
+
+    ImmutableList<DestinationEffect> finish(ImmutableList<DestinationEffect> effects)
+        throws ValidationException, RepoException;
+  }
 }
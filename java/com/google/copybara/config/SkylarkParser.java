@@ -21,10 +21,14 @@ import static com.google.copybara.exception.ValidationException.checkCondition;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.copybara.ModuleSet;
 import com.google.copybara.doc.annotations.Library;
 import com.google.copybara.exception.ValidationException;
@@ -35,6 +39,7 @@ import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.function.Supplier;
 import net.starlark.java.annot.StarlarkBuiltin;
@@ -58,6 +63,15 @@ public class SkylarkParser {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private static final String BARA_SKY = ".bara.sky";
+
+  /**
+   * Compiled config files, shared by all the parsers of the process. The 'server' command creates
+   * a parser for each request, but most requests load the same files, so we only need to evaluate
+   * them again.
+   */
+  private static final Cache<ProgramKey, Program> PROGRAMS =
+      CacheBuilder.newBuilder().maximumSize(1_000).softValues().build();
+
   // For now all the modules are namespaces. We don't use variables except for 'core'.
   private final Iterable<Class<?>> modules;
   private final StarlarkMode validation;
@@ -208,20 +222,28 @@ public class SkylarkParser {
       module = Module.withPredeclared(semantics, environment);
 
       // parse & compile
-      ParserInput input = ParserInput.fromUTF8(content.readContentBytes(), content.path());
+      byte[] bytes = content.readContentBytes();
       FileOptions options =
           validation == StarlarkMode.STRICT
               ? STARLARK_STRICT_FILE_OPTIONS
               : STARLARK_LOOSE_FILE_OPTIONS;
-      Program prog;
-      try {
-        prog = Program.compileFile(StarlarkFile.parse(input, options), module);
-      } catch (SyntaxError.Exception ex) {
-        for (SyntaxError error : ex.errors()) {
-          console.error(error.toString());
+      // The compiled program only depends on the names of the predeclared bindings, not on their
+      // values, so it can be executed in the new module.
+      ProgramKey key = new ProgramKey(content.path(), Hashing.sha256().hashBytes(bytes), options,
+          environment.keySet());
+      Program prog = PROGRAMS.getIfPresent(key);
+      if (prog == null) {
+        ParserInput input = ParserInput.fromUTF8(bytes, content.path());
+        try {
+          prog = Program.compileFile(StarlarkFile.parse(input, options), module);
+        } catch (SyntaxError.Exception ex) {
+          for (SyntaxError error : ex.errors()) {
+            console.error(error.toString());
+          }
+          checkCondition(false, "Error loading config file.");
+          return null; // unreachable
         }
-        checkCondition(false, "Error loading config file.");
-        return null; // unreachable
+        PROGRAMS.put(key, prog);
       }
 
       // process loads
@@ -266,6 +288,42 @@ public class SkylarkParser {
     }
   }
 
+  private static final class ProgramKey {
+
+    private final String path;
+    private final HashCode contentHash;
+    private final FileOptions options;
+    private final ImmutableSet<String> predeclared;
+
+    private ProgramKey(String path, HashCode contentHash, FileOptions options,
+        ImmutableSet<String> predeclared) {
+      this.path = checkNotNull(path);
+      this.contentHash = checkNotNull(contentHash);
+      this.options = checkNotNull(options);
+      this.predeclared = checkNotNull(predeclared);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ProgramKey)) {
+        return false;
+      }
+      ProgramKey that = (ProgramKey) o;
+      return path.equals(that.path)
+          && contentHash.equals(that.contentHash)
+          && options.equals(that.options)
+          && predeclared.equals(that.predeclared);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, contentHash, options, predeclared);
+    }
+  }
+
   // Even in strict mode, we allow top-level if and for statements.
   private static final FileOptions STARLARK_STRICT_FILE_OPTIONS =
       FileOptions.DEFAULT.toBuilder() //
@@ -21,17 +21,31 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.copybara.Change;
 import com.google.copybara.ChangeMessage;
+import com.google.copybara.ChangeVisitable.ChangesVisitor;
+import com.google.copybara.ChangeVisitable.VisitResult;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.authoring.Authoring;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitRepository.GitLogEntry;
 import com.google.copybara.git.GitRepository.LogCmd;
+import com.google.copybara.git.GitRepository.LogCmd.LogReader;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
@@ -68,6 +82,41 @@ class ChangeReader {
 
   ImmutableList<Change<GitRevision>> run(String refExpression)
       throws RepoException, ValidationException {
+    return parseChanges(createLogCmd(refExpression).run());
+  }
+
+  /**
+   * Visits the changes reachable from {@code refExpression}, newest first. Changes are read
+   * lazily from a single 'git log' process, that is killed as soon as the visitor returns
+   * {@link VisitResult#TERMINATE}.
+   *
+   * @return the number of changes visited
+   */
+  int visit(String refExpression, ChangesVisitor visitor)
+      throws RepoException, ValidationException {
+    int visited = 0;
+    try (LogReader reader = createLogCmd(refExpression).stream()) {
+      GitRevision last = null;
+      for (GitLogEntry e = reader.next(); e != null; e = reader.next()) {
+        // Keep the first commit if repeated (merge commits).
+        if (last != null && last.equals(e.getCommit())) {
+          continue;
+        }
+        last = e.getCommit();
+        visited++;
+        // Changes are visited one at a time, so each merge reads its own branch log
+        String branchCommitLog = includeBranchCommitLogs && e.getParents().size() > 1
+            ? branchCommitLog(branchCommits(e.getCommit(), e.getParents()))
+            : "";
+        if (visitor.visit(toChange(e, branchCommitLog)) == VisitResult.TERMINATE) {
+          break;
+        }
+      }
+    }
+    return visited;
+  }
+
+  private LogCmd createLogCmd(String refExpression) throws ValidationException {
     LogCmd logCmd = repository
         .log(refExpression)
         .firstParent(firstParent);
@@ -90,22 +139,102 @@ class ChangeReader {
     // Log command does not filter by roots here because of how git log works. Some commits (e.g.
     // fake merges) might not include the files in the log, and filtering here would return
     // incorrect results. We do filter later on the changes to match the actual glob.
-    return parseChanges(logCmd.includeFiles(true).includeMergeDiff(true).run());
+    return logCmd.includeFiles(true).includeMergeDiff(true);
   }
 
   static final String BRANCH_COMMIT_LOG_HEADING = "-- Branch commit log --";
 
-  private CharSequence branchCommitLog(GitRevision ref, List<GitRevision> parents)
+  /**
+   * Returns the branch commit log of each of the {@code merges}, that are sorted newest first.
+   *
+   * <p>Instead of a 'git log parent..merge' per merge, the history merged by all of them is read
+   * with a single 'git log' and each branch log is computed from its parents. Merges are visited
+   * oldest first and the commits reachable from the previous one are not visited again, so that
+   * the whole history is only walked once. Merges that are not covered by it (path limited
+   * roots, or merges that don't descend from the previous one) fall back to their own 'git log'.
+   */
+  private Map<GitRevision, String> branchCommitLogs(List<GitLogEntry> merges)
       throws RepoException {
-    if (parents.size() <= 1) {
-      // Not a merge commit, so don't bother showing full log of branch commits. This would only
-      // contain the raw commit of 'ref', which will be redundant.
-      return "";
+    Map<GitRevision, String> result = new HashMap<>();
+    if (merges.isEmpty()) {
+      return result;
     }
-    if (!includeBranchCommitLogs) {
-      return "";
+    // Commits merged by any of the merges, by sha, and their position in the log
+    Map<String, GitLogEntry> history = new HashMap<>();
+    Map<String, Integer> logOrder = new HashMap<>();
+    // Path limited logs simplify the history, so they cannot be computed from the whole graph
+    if (Glob.isEmptyRoot(roots)) {
+      String base = Iterables.getLast(merges).getParents().get(0).getSha1();
+      for (GitLogEntry e : repository
+          .log(base + ".." + merges.get(0).getCommit().getSha1())
+          .firstParent(false)
+          .run()) {
+        history.put(e.getCommit().getSha1(), e);
+        logOrder.put(e.getCommit().getSha1(), logOrder.size());
+      }
+      // The commits outside of the history are reachable from base
+      String previous = base;
+      // The commits reachable from 'previous', excluding itself
+      Set<String> visited = new HashSet<>();
+      for (GitLogEntry merge : Lists.reverse(merges)) {
+        String sha = merge.getCommit().getSha1();
+        if (!history.containsKey(sha)) {
+          continue;
+        }
+        List<String> excluded = walk(history, visited, merge.getParents().subList(0, 1));
+        if (!excluded.contains(previous)) {
+          // The first parent doesn't contain all the commits excluded so far
+          visited.removeAll(excluded);
+          continue;
+        }
+        List<String> merged = walk(history, visited,
+            merge.getParents().subList(1, merge.getParents().size()));
+        result.put(merge.getCommit(), branchCommitLog(merged.stream()
+            .filter(history::containsKey)
+            .sorted(Comparator.comparing(logOrder::get))
+            .map(history::get)
+            .collect(ImmutableList.toImmutableList())));
+        previous = sha;
+      }
+    }
+    for (GitLogEntry merge : merges) {
+      if (!result.containsKey(merge.getCommit())) {
+        result.put(merge.getCommit(),
+            branchCommitLog(branchCommits(merge.getCommit(), merge.getParents())));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds {@code commits} and their ancestors in {@code history} to {@code visited}, without
+   * following the commits that were already visited. Parents outside of the history are added
+   * but not followed.
+   *
+   * @return the commits that were added
+   */
+  private static List<String> walk(Map<String, GitLogEntry> history, Set<String> visited,
+      List<GitRevision> commits) {
+    List<String> added = new ArrayList<>();
+    Deque<GitRevision> pending = new ArrayDeque<>(commits);
+    while (!pending.isEmpty()) {
+      String sha = pending.pop().getSha1();
+      if (!visited.add(sha)) {
+        continue;
+      }
+      added.add(sha);
+      GitLogEntry entry = history.get(sha);
+      if (entry != null) {
+        pending.addAll(entry.getParents());
+      }
     }
+    return added;
+  }
 
+  /** Returns the commits merged by {@code ref}, excluding {@code ref} itself. */
+  @Nullable
+  private ImmutableList<GitLogEntry> branchCommits(GitRevision ref, List<GitRevision> parents)
+      throws RepoException {
     ImmutableList<GitLogEntry> entries =
         repository
             .log(parents.get(0).getSha1() + ".." + ref.getSha1())
@@ -116,11 +245,16 @@ class ChangeReader {
             .run();
 
     if (entries.isEmpty()) {
-      return "";
+      return null;
     }
     // Remove the merge commit. Since we already have that in the body.
-    entries = entries.subList(1, entries.size());
+    return entries.subList(1, entries.size());
+  }
 
+  private String branchCommitLog(@Nullable ImmutableList<GitLogEntry> entries) {
+    if (entries == null) {
+      return "";
+    }
     return "\n" + BRANCH_COMMIT_LOG_HEADING + "\n" +
         Joiner.on("\n").join(entries.stream()
             .map(e -> ""
@@ -134,8 +268,7 @@ class ChangeReader {
 
   private ImmutableList<Change<GitRevision>> parseChanges(ImmutableList<GitLogEntry> logEntries)
       throws RepoException {
-
-    ImmutableList.Builder<Change<GitRevision>> result = ImmutableList.builder();
+    List<GitLogEntry> entries = new ArrayList<>();
     GitRevision last = null;
     for (GitLogEntry e : logEntries) {
       // Keep the first commit if repeated (merge commits).
@@ -143,17 +276,33 @@ class ChangeReader {
         continue;
       }
       last = e.getCommit();
-      result.add(new Change<>(
-          e.getCommit().withUrl(url),
-          filterAuthor(e.getAuthor())
-          , e.getBody() + branchCommitLog(e.getCommit(), e.getParents()),
-          e.getAuthorDate(),
-          ChangeMessage.parseAllAsLabels(e.getBody()).labelsAsMultimap(),
-          e.getFiles(), e.getParents().size() > 1, e.getParents()));
+      entries.add(e);
+    }
+    // Don't bother showing full log of branch commits for non-merges. This would only contain the
+    // commit itself, which will be redundant.
+    Map<GitRevision, String> branchCommitLogs = includeBranchCommitLogs
+        ? branchCommitLogs(entries.stream()
+            .filter(e -> e.getParents().size() > 1)
+            .collect(Collectors.toList()))
+        : ImmutableMap.of();
+
+    ImmutableList.Builder<Change<GitRevision>> result = ImmutableList.builder();
+    for (GitLogEntry e : entries) {
+      result.add(toChange(e, branchCommitLogs.getOrDefault(e.getCommit(), "")));
     }
     return result.build().reverse();
   }
 
+  private Change<GitRevision> toChange(GitLogEntry e, String branchCommitLog) {
+    return new Change<>(
+        e.getCommit().withUrl(url),
+        filterAuthor(e.getAuthor()),
+        e.getBody() + branchCommitLog,
+        e.getAuthorDate(),
+        ChangeMessage.parseAllAsLabels(e.getBody()).labelsAsMultimap(),
+        e.getFiles(), e.getParents().size() > 1, e.getParents());
+  }
+
   private Author filterAuthor(Author author) {
     return authoring == null || authoring.useAuthor(author.getEmail())
         ? author
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.copybara.Destination.DestinationStatus;
+import com.google.copybara.DestinationStatusVisitor;
+import com.google.copybara.GeneralOptions;
+import com.google.copybara.exception.CannotResolveRevisionException;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.profiler.Profiler.ProfilerTask;
+import com.google.copybara.util.Glob;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Properties;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk index of the last {@link DestinationStatus} computed for a destination repository.
+ *
+ * <p>For each query (fetch ref, label name, destination files and first-parent mode) we store
+ * the tip of the destination branch that was used and the baseline found. When the destination
+ * branch only moved forward since then, we only need to look at the new commits, so that the
+ * lookup is O(new commits) instead of O(history). In first-parent mode the previous tip also
+ * needs to be in the first-parent chain of the new one, otherwise the new commits could hide
+ * changes that the first-parent walk would find. If the history was rewritten, or the previous
+ * tip is no longer in the repository, we fall back to walking the whole history.
+ *
+ * <p>The index lives inside the git directory of the destination repository, which for cached
+ * repositories is under {@link GitOptions#getRepoStorage()}.
+ */
+class DestinationStatusIndex {
+
+  private static final String INDEX_FILE = "copybara_destination_status.properties";
+
+  private static final String TIP = ".tip";
+  private static final String BASELINE = ".baseline";
+
+  private final GitRepository repo;
+
+  DestinationStatusIndex(GitRepository repo) {
+    this.repo = repo;
+  }
+
+  /**
+   * Returns the destination status for {@code tip}, or null if no change with {@code labelName}
+   * touching {@code destinationFiles} is reachable from it.
+   *
+   * @param fetchRef the destination reference that {@code tip} was fetched from
+   * @param changeReader a change reader configured to only return the commits that contain the
+   *     label
+   */
+  @Nullable
+  DestinationStatus getDestinationStatus(GitRevision tip, String fetchRef,
+      Glob destinationFiles, String labelName, boolean firstParent,
+      ChangeReader.Builder changeReader, GeneralOptions generalOptions)
+      throws RepoException, ValidationException {
+    String key = key(fetchRef, destinationFiles, labelName, firstParent);
+    Properties index = PropertiesIndexFile.read(repo, INDEX_FILE);
+    String cachedTip = index.getProperty(key + TIP);
+    String cachedBaseline = index.getProperty(key + BASELINE);
+    DestinationStatus cached = cachedBaseline == null
+        ? null
+        : new DestinationStatus(cachedBaseline, ImmutableList.of());
+
+    if (tip.getSha1().equals(cachedTip)) {
+      return cached;
+    }
+    PathMatcher pathMatcher = destinationFiles.relativeTo(Paths.get(""));
+    DestinationStatus result;
+    try (ProfilerTask ignore = generalOptions.profiler().start("destination_status_index")) {
+      if (cachedTip != null && (firstParent
+          ? PropertiesIndexFile.isFirstParentAncestor(repo, cachedTip, tip.getSha1())
+          : PropertiesIndexFile.isAncestor(repo, cachedTip, tip.getSha1()))) {
+        DestinationStatusVisitor visitor = new DestinationStatusVisitor(pathMatcher, labelName);
+        changeReader.build().visit(cachedTip + ".." + tip.getSha1(), visitor);
+        result = visitor.getDestinationStatus() != null ? visitor.getDestinationStatus() : cached;
+      } else {
+        DestinationStatusVisitor visitor = new DestinationStatusVisitor(pathMatcher, labelName);
+        try {
+          GitVisitorUtil.visitChanges(tip, visitor, changeReader, generalOptions,
+              "get_destination_status");
+        } catch (CannotResolveRevisionException e) {
+          return null;
+        }
+        result = visitor.getDestinationStatus();
+      }
+    }
+
+    index.setProperty(key + TIP, tip.getSha1());
+    if (result == null) {
+      index.remove(key + BASELINE);
+    } else {
+      index.setProperty(key + BASELINE, result.getBaseline());
+    }
+    PropertiesIndexFile.write(repo, INDEX_FILE, index, "Copybara destination status index");
+    return result;
+  }
+
+  private static String key(String fetchRef, Glob destinationFiles, String labelName,
+      boolean firstParent) {
+    return Hashing.sha1()
+        .newHasher()
+        .putString(fetchRef, UTF_8)
+        .putByte((byte) 0)
+        .putString(labelName, UTF_8)
+        .putByte((byte) 0)
+        .putString(destinationFiles.toString(), UTF_8)
+        .putBoolean(firstParent)
+        .hash()
+        .toString();
+  }
+}
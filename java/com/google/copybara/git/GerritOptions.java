@@ -37,6 +37,7 @@ import com.google.copybara.git.gerritapi.GerritApi;
 import com.google.copybara.git.gerritapi.GerritApiTransport;
 import com.google.copybara.git.gerritapi.GerritApiTransportImpl;
 import com.google.copybara.git.gerritapi.GerritApiTransportWithChecker;
+import com.google.copybara.http.RateLimitScheduler;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.regex.Pattern;
@@ -46,6 +47,11 @@ import javax.annotation.Nullable;
 @Parameters(separators = "=")
 public class GerritOptions implements Option {
 
+  // NetHttpTransport is thread-safe, so one instance is enough for all the runs in the process.
+  private static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
+  // Tracks the quota of each Gerrit host across runs.
+  private static final RateLimitScheduler RATE_LIMITS = new RateLimitScheduler();
+
   private static final Pattern CHANGE_ID_PATTERN = Pattern.compile("I[0-9a-f]{40}");
   protected final GeneralOptions generalOptions;
   protected GitOptions gitOptions;
@@ -157,7 +163,8 @@ public class GerritOptions implements Option {
    */
   protected GerritApiTransport newGerritApiTransport(URI uri)
       throws RepoException, ValidationException {
-    return new GerritApiTransportImpl(getCredentialsRepo(), uri, getHttpTransport());
+    return new GerritApiTransportImpl(getCredentialsRepo(), uri, getHttpTransport(),
+        RATE_LIMITS.requestInitializer(generalOptions.profiler()));
   }
 
   /**
@@ -175,7 +182,7 @@ public class GerritOptions implements Option {
 
   @VisibleForTesting
   protected HttpTransport getHttpTransport() {
-    return new NetHttpTransport();
+    return HTTP_TRANSPORT;
   }
 
 
@@ -28,7 +28,9 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
@@ -63,8 +65,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
 import javax.annotation.Nullable;
 import net.starlark.java.eval.Sequence;
 
@@ -167,13 +173,15 @@ public final class GitDestination implements Destination<GitRevision> {
         destinationOptions.nonFastForwardPush,
         integrates,
         destinationOptions.lastRevFirstParent,
+        !destinationOptions.noStatusIndex,
         destinationOptions.ignoreIntegrationErrors,
         destinationOptions.localRepoPath,
         destinationOptions.committerName,
         destinationOptions.committerEmail,
         destinationOptions.rebaseWhenBaseline(),
-        gitOptions.visitChangePageSize,
-        gitOptions.gitTagOverwrite);
+        gitOptions.gitTagOverwrite,
+        destinationOptions.pushBatchSize,
+        destinationOptions.pushBatchMaxDelay);
   }
 
   /**
@@ -185,6 +193,10 @@ public final class GitDestination implements Destination<GitRevision> {
     boolean firstWrite = true;
     final LazyResourceLoader<GitRepository> localRepo;
     final String localBranch;
+    // Commits created locally but not pushed yet, when pushes are batched
+    @Nullable PendingPush pendingPush;
+    // Number of changes discarded because their batched push failed
+    int discardedWrites;
 
     WriterState(LazyResourceLoader<GitRepository> localRepo, String localBranch) {
       this.localRepo = localRepo;
@@ -192,6 +204,34 @@ public final class GitDestination implements Destination<GitRevision> {
     }
   }
 
+  /**
+   * Commits written by a {@link WriterImpl} that will be pushed together with the next ones.
+   */
+  static class PendingPush {
+
+    private final String pushRef;
+    // The revision of the local branch before the first pending commit
+    @Nullable private final GitRevision lastPushed;
+    private final long firstCommitNanos;
+    private final List<String> tagNames = new ArrayList<>();
+    private GitRevision head;
+    private int changes;
+
+    PendingPush(String pushRef, @Nullable GitRevision lastPushed, long firstCommitNanos) {
+      this.pushRef = checkNotNull(pushRef);
+      this.lastPushed = lastPushed;
+      this.firstCommitNanos = firstCommitNanos;
+    }
+
+    private void add(GitRevision head, @Nullable String tagName) {
+      this.head = checkNotNull(head);
+      if (tagName != null) {
+        tagNames.add(tagName);
+      }
+      changes++;
+    }
+  }
+
   /**
    * A writer for git.*destination destinations. Note that this is not a public interface and
    * shouldn't be used directly.
@@ -216,13 +256,15 @@ public final class GitDestination implements Destination<GitRevision> {
     private final boolean nonFastForwardPush;
     private final Iterable<GitIntegrateChanges> integrates;
     private final boolean lastRevFirstParent;
+    private final boolean useStatusIndex;
     private final boolean ignoreIntegrationErrors;
     private final String localRepoPath;
     private final String committerName;
     private final String committerEmail;
     private final boolean rebase;
-    private final int visitChangePageSize;
     private final boolean gitTagOverwrite;
+    private final int pushBatchSize;
+    private final Duration pushBatchMaxDelay;
 
     /**
      * Create a new git.destination writer
@@ -231,9 +273,10 @@ public final class GitDestination implements Destination<GitRevision> {
         String remotePush, boolean partialFetch, String tagNameTemplate, String tagMsgTemplate,
         GeneralOptions generalOptions, WriteHook writeHook, S state,
         boolean nonFastForwardPush, Iterable<GitIntegrateChanges> integrates,
-        boolean lastRevFirstParent, boolean ignoreIntegrationErrors, String localRepoPath,
-        String committerName, String committerEmail, boolean rebase, int visitChangePageSize,
-        boolean gitTagOverwrite) {
+        boolean lastRevFirstParent, boolean useStatusIndex, boolean ignoreIntegrationErrors,
+        String localRepoPath,
+        String committerName, String committerEmail, boolean rebase, boolean gitTagOverwrite,
+        int pushBatchSize, Duration pushBatchMaxDelay) {
       this.skipPush = skipPush;
       this.repoUrl = checkNotNull(repoUrl);
       this.remoteFetch = checkNotNull(remoteFetch);
@@ -249,13 +292,15 @@ public final class GitDestination implements Destination<GitRevision> {
       this.nonFastForwardPush = nonFastForwardPush;
       this.integrates = Preconditions.checkNotNull(integrates);
       this.lastRevFirstParent = lastRevFirstParent;
+      this.useStatusIndex = useStatusIndex;
       this.ignoreIntegrationErrors = ignoreIntegrationErrors;
       this.localRepoPath = localRepoPath;
       this.committerName = committerName;
       this.committerEmail = committerEmail;
       this.rebase = rebase;
-      this.visitChangePageSize = visitChangePageSize;
       this.gitTagOverwrite = gitTagOverwrite;
+      this.pushBatchSize = pushBatchSize;
+      this.pushBatchMaxDelay = checkNotNull(pushBatchMaxDelay);
     }
 
     @Override
@@ -281,8 +326,32 @@ public final class GitDestination implements Destination<GitRevision> {
           visitor,
           queryChanges,
           generalOptions,
-          "destination",
-          visitChangePageSize);
+          "destination");
+    }
+
+    @Override
+    public ImmutableMap<String, String> findChangesWithLabelValues(Set<String> values,
+        ImmutableCollection<String> labels, int maxChanges)
+        throws RepoException, ValidationException {
+      if (!useStatusIndex) {
+        return Writer.super.findChangesWithLabelValues(values, labels, maxChanges);
+      }
+      GitRepository repository = getRepository(baseConsole);
+      try {
+        fetchIfNeeded(repository, baseConsole);
+      } catch (ValidationException e) {
+        throw new CannotResolveRevisionException(
+            "Cannot visit changes because fetch failed. Does the destination branch exist?", e);
+      }
+      GitRevision startRef = getLocalBranchRevision(repository);
+      if (startRef == null) {
+        return ImmutableMap.of();
+      }
+      ChangeReader.Builder changeReader =
+          ChangeReader.Builder.forDestination(repository, baseConsole)
+              .setVerbose(generalOptions.isVerbose());
+      return new LabelValuesIndex(repository).findChangesWithLabelValues(
+          startRef, values, labels, maxChanges, changeReader, generalOptions);
     }
 
     /**
@@ -317,22 +386,25 @@ public final class GitDestination implements Destination<GitRevision> {
         return null;
       }
 
-      PathMatcher pathMatcher = destinationFiles.relativeTo(Paths.get(""));
-      DestinationStatusVisitor visitor = new DestinationStatusVisitor(pathMatcher, labelName);
       ChangeReader.Builder changeReader =
           ChangeReader.Builder.forDestination(repo, baseConsole)
               .setVerbose(generalOptions.isVerbose())
               .setFirstParent(lastRevFirstParent)
               .grep("^" + labelName + ORIGIN_LABEL_SEPARATOR);
+      if (useStatusIndex) {
+        return new DestinationStatusIndex(repo).getDestinationStatus(
+            startRef, remoteFetch, destinationFiles, labelName, lastRevFirstParent, changeReader,
+            generalOptions);
+      }
+      PathMatcher pathMatcher = destinationFiles.relativeTo(Paths.get(""));
+      DestinationStatusVisitor visitor = new DestinationStatusVisitor(pathMatcher, labelName);
       try {
-        // Using same visitChangePageSize for now
         GitVisitorUtil.visitChanges(
             startRef,
             visitor,
             changeReader,
             generalOptions,
-            "get_destination_status",
-            visitChangePageSize);
+            "get_destination_status");
       } catch (CannotResolveRevisionException e) {
         // TODO: handle
         return null;
@@ -402,6 +474,14 @@ public final class GitDestination implements Destination<GitRevision> {
         return Endpoint.NOOP_ENDPOINT;
       }
 
+      /**
+       * Whether the commits of several changes can be pushed together in one push of the last
+       * one. Only possible if the hook doesn't need to do anything for each pushed commit.
+       */
+      default boolean canBatchPushes() {
+        return false;
+      }
+
       default ImmutableSetMultimap<String, String> describe() {
         return ImmutableSetMultimap.of();
       }
@@ -439,17 +519,42 @@ public final class GitDestination implements Destination<GitRevision> {
       public String getPushReference(String pushToRefsFor, TransformResult transformResult) {
         return pushToRefsFor;
       }
+
+      @Override
+      public boolean canBatchPushes() {
+        return true;
+      }
     }
 
     @Override
     public ImmutableList<DestinationEffect> write(TransformResult transformResult,
         Glob destinationFiles, Console console)
         throws ValidationException, RepoException, IOException {
+      GitRepository scratchClone = getRepository(console);
+      // The cached repository and its index are shared by the requests of the 'server' command
+      Lock lock = scratchClone.lock();
+      lock.lock();
+      try {
+        return write(scratchClone, transformResult, destinationFiles, console);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private ImmutableList<DestinationEffect> write(GitRepository scratchClone,
+        TransformResult transformResult, Glob destinationFiles, Console console)
+        throws ValidationException, RepoException, IOException {
       logger.atInfo().log(
           "Exporting from %s to: url=%s ref=%s", transformResult.getPath(), repoUrl, remotePush);
       String baseline = transformResult.getBaseline();
 
-      GitRepository scratchClone = getRepository(console);
+      // We don't batch changes that are written on top of a baseline, since the local branch
+      // is reset to the baseline.
+      boolean batchPush = !skipPush && pushBatchSize > 1 && baseline == null
+          && writeHook.canBatchPushes();
+      if (!batchPush) {
+        flush(console);
+      }
 
       fetchIfNeeded(scratchClone, console);
 
@@ -475,7 +580,7 @@ public final class GitDestination implements Destination<GitRevision> {
           scratchClone.simpleCommand("symbolic-ref", "HEAD", getCompleteRef(state.localBranch));
         }
         state.firstWrite = false;
-      } else if (!skipPush) {
+      } else if (!skipPush && state.pendingPush == null) {
         // Should be a no-op, but an iterative migration could take several minutes between
         // migrations so lets fetch the latest first.
         fetchFromRemote(console, scratchClone, repoUrl, remoteFetch);
@@ -598,27 +703,113 @@ public final class GitDestination implements Destination<GitRevision> {
                 new DestinationEffect.DestinationRef(head.getSha1(), "commit", /*url=*/ null)));
       }
       String push = writeHook.getPushReference(getCompleteRef(remotePush), transformResult);
-      console.progress(String.format("Git Destination: Pushing to %s %s", repoUrl, push));
       checkCondition(!nonFastForwardPush
           || !Objects.equals(remoteFetch, remotePush), "non fast-forward push is only"
           + " allowed when fetch != push");
 
-      String serverResponse = generalOptions.repoTask(
-          "push",
-          () -> scratchClone.push()
-              .withRefspecs(repoUrl,
-                  tagName != null
-                  ? ImmutableList.of(scratchClone.createRefSpec(
-                  (nonFastForwardPush ? "+" : "") + "HEAD:" + push),
-                      scratchClone.createRefSpec((gitTagOverwrite ? "+" : "")
-                          + tagName))
-              : ImmutableList.of(scratchClone.createRefSpec(
-                  (nonFastForwardPush ? "+" : "") + "HEAD:" + push)))
-              .run()
-      );
+      if (!batchPush) {
+        console.progress(String.format("Git Destination: Pushing to %s %s", repoUrl, push));
+        String serverResponse = push(scratchClone, "HEAD", push,
+            tagName != null ? ImmutableList.of(tagName) : ImmutableList.of());
+        return writeHook.afterPush(serverResponse, messageInfo, head, originChanges);
+      }
+
+      if (state.pendingPush == null) {
+        state.pendingPush = new PendingPush(push, localBranchRevision, System.nanoTime());
+      }
+      state.pendingPush.add(head, tagName);
+      if (state.pendingPush.changes < pushBatchSize
+          && (pushBatchMaxDelay.isZero()
+              || System.nanoTime() - state.pendingPush.firstCommitNanos
+                  < pushBatchMaxDelay.toNanos())) {
+        console.infoFmt("Git Destination: Created revision %s locally. It will be pushed with the"
+            + " next changes.", head.getSha1());
+        // Only reported once the push succeeds, see getPendingWrites()
+        return ImmutableList.of(
+            new DestinationEffect(
+                DestinationEffect.Type.CREATED,
+                String.format("Created revision %s. Pushed to %s %s with the next changes",
+                    head.getSha1(), repoUrl, push),
+                originChanges,
+                new DestinationEffect.DestinationRef(head.getSha1(), "commit", /*url=*/ null)));
+      }
+      String serverResponse = pushPending(scratchClone, console);
       return writeHook.afterPush(serverResponse, messageInfo, head, originChanges);
     }
 
+    @Override
+    public void flush(Console console) throws ValidationException, RepoException {
+      if (state.pendingPush != null) {
+        GitRepository repo = getRepository(console);
+        Lock lock = repo.lock();
+        lock.lock();
+        try {
+          pushPending(repo, console);
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+
+    @Override
+    public int getPendingWrites() {
+      return state.pendingPush == null ? 0 : state.pendingPush.changes;
+    }
+
+    @Override
+    public int getDiscardedWrites() {
+      return state.discardedWrites;
+    }
+
+    /**
+     * Pushes the commits that are pending because of push batching. If the push fails, the local
+     * branch is reset to the last pushed revision, so that the next write starts from there.
+     */
+    private String pushPending(GitRepository repo, Console console)
+        throws RepoException, ValidationException {
+      PendingPush pending = checkNotNull(state.pendingPush);
+      state.pendingPush = null;
+      console.progressFmt("Git Destination: Pushing %d change(s) to %s %s",
+          pending.changes, repoUrl, pending.pushRef);
+      try {
+        return push(repo, pending.head.getSha1(), pending.pushRef, pending.tagNames);
+      } catch (RepoException | ValidationException | RuntimeException e) {
+        console.warnFmt("Git Destination: Push failed. Discarding %d local change(s) that were"
+            + " not pushed.", pending.changes);
+        state.discardedWrites += pending.changes;
+        try {
+          rollback(repo, pending);
+        } catch (RepoException rollbackException) {
+          e.addSuppressed(rollbackException);
+        }
+        throw e;
+      }
+    }
+
+    private void rollback(GitRepository repo, PendingPush pending) throws RepoException {
+      for (String tagName : pending.tagNames) {
+        repo.simpleCommand("tag", "-d", tagName);
+      }
+      if (pending.lastPushed != null) {
+        repo.simpleCommand("reset", "--hard", pending.lastPushed.getSha1());
+      } else {
+        repo.simpleCommand("update-ref", "-d", getCompleteRef(state.localBranch));
+        state.firstWrite = true;
+      }
+    }
+
+    private String push(GitRepository repo, String source, String pushRef,
+        List<String> tagNames) throws RepoException, ValidationException {
+      ImmutableList.Builder<Refspec> refspecs = ImmutableList.builder();
+      refspecs.add(repo.createRefSpec((nonFastForwardPush ? "+" : "") + source + ":" + pushRef));
+      for (String tagName : tagNames) {
+        refspecs.add(repo.createRefSpec((gitTagOverwrite ? "+" : "") + tagName));
+      }
+      return generalOptions.repoTask(
+          "push",
+          () -> repo.push().withRefspecs(repoUrl, refspecs.build()).run());
+    }
+
     @Nullable
     private String createTag(GitRepository gitRepository, Console console,
         TransformResult transformResult) {
@@ -25,10 +25,13 @@ import com.google.copybara.GeneralOptions;
 import com.google.copybara.Option;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.exception.RepoException;
+import com.google.copybara.jcommander.DurationConverter;
+import com.google.copybara.jcommander.GreaterThanZeroValidator;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.UUID;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
@@ -89,11 +92,33 @@ public final class GitDestinationOptions implements Option {
       description = "Use git --first-parent flag when looking for last-rev in previous commits")
   boolean lastRevFirstParent = false;
 
+  @Parameter(names = "--git-destination-no-status-index",
+      description = "Don't use the on-disk indexes of previous destination history lookups and"
+          + " always walk the destination history looking for the last migrated change or for"
+          + " the changes referenced by metadata.map_references.",
+      hidden = true)
+  boolean noStatusIndex = false;
+
   @Parameter(names = "--git-destination-non-fast-forward",
       description = "Allow non-fast-forward pushes to the destination. We only allow this when"
           + " used with different push != fetch references.")
   boolean nonFastForwardPush = false;
 
+  @Parameter(names = "--git-destination-push-batch-size",
+      description = "Push the changes migrated in ITERATIVE mode every N changes instead of after"
+          + " each one. The changes in between are only committed locally, and the pending ones"
+          + " are pushed at the end of the migration. If a push fails, the local changes that were"
+          + " not pushed are discarded.",
+      validateWith = GreaterThanZeroValidator.class)
+  int pushBatchSize = 1;
+
+  @Parameter(names = "--git-destination-push-batch-max-delay",
+      description = "When --git-destination-push-batch-size is greater than one, also push the"
+          + " pending changes if the first of them was committed longer than this ago. For"
+          + " example '5m'. Zero means no limit.",
+      converter = DurationConverter.class)
+  Duration pushBatchMaxDelay = Duration.ZERO;
+
   @Parameter(names = "--git-destination-ignore-integration-errors",
       description = "If an integration error occurs, ignore it and continue without the integrate")
   boolean ignoreIntegrationErrors = false;
@@ -29,11 +29,15 @@ import com.google.copybara.checks.Checker;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.github.api.GitHubApi;
+import com.google.copybara.git.github.api.GitHubApiResponseCache;
 import com.google.copybara.git.github.api.GitHubApiTransport;
 import com.google.copybara.git.github.api.GitHubApiTransportImpl;
 import com.google.copybara.git.github.api.GitHubApiTransportWithChecker;
 import com.google.copybara.git.github.util.GitHubUtil;
+import com.google.copybara.http.RateLimitScheduler;
+import com.google.copybara.jcommander.GreaterThanZeroValidator;
 import com.google.copybara.util.console.Console;
+import java.io.IOException;
 import javax.annotation.Nullable;
 
 /**
@@ -41,6 +45,11 @@ import javax.annotation.Nullable;
  */
 public class GitHubOptions implements Option {
 
+  // Thread-safe and shared by all the runs in the process, so that connections can be reused.
+  private static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
+  // The quota is per user, not per run, so the runs in the process share its tracking.
+  private static final RateLimitScheduler RATE_LIMITS = new RateLimitScheduler();
+
   protected final GeneralOptions generalOptions;
   private final GitOptions gitOptions;
 
@@ -94,6 +103,17 @@ public class GitHubOptions implements Option {
       description = "Overwrite git.github_destination delete_pr_branch field", arity = 1)
   Boolean gitHubDeletePrBranch = null;
 
+  @Parameter(names = "--github-api-response-cache",
+      description = "Cache the GitHub API responses in the cache directory and revalidate them with"
+          + " their ETag, which doesn't count against the rate limit if they didn't change.")
+  boolean responseCache = false;
+
+  @Parameter(names = "--github-api-response-cache-size-mb",
+      description = "Maximum size of the --github-api-response-cache, in MB. The least recently"
+          + " used responses are removed when it is full.",
+      validateWith = GreaterThanZeroValidator.class)
+  int responseCacheSizeMb = 100;
+
   @VisibleForTesting
   protected GitRepository getCredentialsRepo() throws RepoException {
     return gitOptions.cachedBareRepoForUrl("just_for_github_api");
@@ -105,11 +125,25 @@ public class GitHubOptions implements Option {
   }
 
   private GitHubApiTransport newTransport(
-      GitRepository repo, String storePath, Console console) {
-    return new GitHubApiTransportImpl(repo, newHttpTransport(), storePath, console);
+      GitRepository repo, String storePath, Console console) throws RepoException {
+    return new GitHubApiTransportImpl(repo, newHttpTransport(), storePath, console,
+        newResponseCache(), RATE_LIMITS.requestInitializer(generalOptions.profiler()));
+  }
+
+  private GitHubApiResponseCache newResponseCache() throws RepoException {
+    if (!responseCache) {
+      return GitHubApiResponseCache.disabled();
+    }
+    try {
+      return GitHubApiResponseCache.create(
+          generalOptions.getDirFactory().getCacheDir("github_api_responses"),
+          responseCacheSizeMb * 1024L * 1024L);
+    } catch (IOException e) {
+      throw new RepoException("Cannot create the GitHub API response cache", e);
+    }
   }
 
   protected HttpTransport newHttpTransport() {
-    return new NetHttpTransport();
+    return HTTP_TRANSPORT;
   }
 }
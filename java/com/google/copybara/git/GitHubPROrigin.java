@@ -51,9 +51,9 @@ import com.google.copybara.git.GitOrigin.SubmoduleStrategy;
 import com.google.copybara.git.GitRepository.GitLogEntry;
 import com.google.copybara.git.github.api.AuthorAssociation;
 import com.google.copybara.git.github.api.GitHubApi;
-import com.google.copybara.git.github.api.Issue;
 import com.google.copybara.git.github.api.Label;
 import com.google.copybara.git.github.api.PullRequest;
+import com.google.copybara.git.github.api.PullRequestMetadata;
 import com.google.copybara.git.github.api.Review;
 import com.google.copybara.git.github.api.User;
 import com.google.copybara.git.github.util.GitHubUtil;
@@ -65,6 +65,7 @@ import com.google.copybara.util.console.Console;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -211,18 +212,27 @@ public class GitHubPROrigin implements Origin<GitRevision> {
     GitHubApi api = gitHubOptions.newGitHubApi(project);
     Set<String> requiredLabels = gitHubPrOriginOptions.getRequiredLabels(requiredLabelsField);
     Set<String> retryableLabels = gitHubPrOriginOptions.getRetryableLabels(retryableLabelsField);
+    // Null if we need to use the REST API
+    PullRequestMetadata metadata = getPullRequestMetadata(api, project, prNumber);
 
     if (!gitHubPrOriginOptions.forceImport && !requiredLabels.isEmpty()) {
       int retryCount = 0;
       Set<String> requiredButNotPresent;
       do {
-        Issue issue;
-        try (ProfilerTask ignore = generalOptions.profiler().start("github_api_get_issue")) {
-          issue = api.getIssue(project, prNumber);
+        if (retryCount > 0 && metadata != null) {
+          metadata = getPullRequestMetadata(api, project, prNumber);
+        }
+        List<Label> prLabels;
+        if (metadata != null) {
+          prLabels = metadata.getLabels();
+        } else {
+          try (ProfilerTask ignore = generalOptions.profiler().start("github_api_get_issue")) {
+            prLabels = api.getIssue(project, prNumber).getLabels();
+          }
         }
 
         requiredButNotPresent = Sets.newHashSet(requiredLabels);
-        requiredButNotPresent.removeAll(Collections2.transform(issue.getLabels(), Label::getName));
+        requiredButNotPresent.removeAll(Collections2.transform(prLabels, Label::getName));
         // If we got all the labels we want or none of the ones we didn't get are retryable, return.
         if (requiredButNotPresent.isEmpty()
             || Collections.disjoint(requiredButNotPresent, retryableLabels)) {
@@ -244,8 +254,12 @@ public class GitHubPROrigin implements Origin<GitRevision> {
     ImmutableListMultimap.Builder<String, String> labels = ImmutableListMultimap.builder();
 
     PullRequest prData;
-    try (ProfilerTask ignore = generalOptions.profiler().start("github_api_get_pr")) {
-      prData = api.getPullRequest(project, prNumber);
+    if (metadata != null) {
+      prData = metadata.getPullRequest();
+    } else {
+      try (ProfilerTask ignore = generalOptions.profiler().start("github_api_get_pr")) {
+        prData = api.getPullRequest(project, prNumber);
+      }
     }
 
     if (!gitHubPrOriginOptions.forceImport
@@ -259,7 +273,9 @@ public class GitHubPROrigin implements Origin<GitRevision> {
           branch));
     }
     if (reviewState != null) {
-      ImmutableList<Review> reviews = api.getReviews(project, prNumber);
+      ImmutableList<Review> reviews = metadata != null
+          ? metadata.getReviews()
+          : api.getReviews(project, prNumber);
       if (!gitHubPrOriginOptions.forceImport
           && !reviewState.shouldMigrate(reviews, reviewApprovers, prData.getHead().getSha())) {
         throw new EmptyChangeException(String.format(
@@ -359,6 +375,21 @@ public class GitHubPROrigin implements Origin<GitRevision> {
     return describeVersion ? getRepository().addDescribeVersion(result) : result;
   }
 
+  /**
+   * Returns the pull request, labels and reviews fetched in one query, or null if they need to be
+   * fetched with the REST API.
+   */
+  @Nullable
+  private PullRequestMetadata getPullRequestMetadata(GitHubApi api, String project, int prNumber)
+      throws RepoException {
+    if (!gitHubPrOriginOptions.useGraphQl) {
+      return null;
+    }
+    try (ProfilerTask ignore = generalOptions.profiler().start("github_api_get_pr_metadata")) {
+      return api.getPullRequestMetadata(project, prNumber);
+    }
+  }
+
   @VisibleForTesting
   public GitRepository getRepository() throws RepoException {
     return gitOptions.cachedBareRepoForUrl(url);
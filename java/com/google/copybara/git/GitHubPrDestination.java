@@ -55,6 +55,7 @@ import com.google.copybara.util.Glob;
 import com.google.copybara.util.Identity;
 import com.google.copybara.util.console.Console;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.UUID;
 import javax.annotation.Nullable;
 
@@ -166,13 +167,15 @@ public class GitHubPrDestination implements Destination<GitRevision> {
         /*nonFastForwardPush=*/ true,
         integrates,
         destinationOptions.lastRevFirstParent,
+        !destinationOptions.noStatusIndex,
         destinationOptions.ignoreIntegrationErrors,
         destinationOptions.localRepoPath,
         destinationOptions.committerName,
         destinationOptions.committerEmail,
         destinationOptions.rebaseWhenBaseline(),
-        gitOptions.visitChangePageSize,
-        gitOptions.gitTagOverwrite) {
+        gitOptions.gitTagOverwrite,
+        /*pushBatchSize=*/ 1,
+        /*pushBatchMaxDelay=*/ Duration.ZERO) {
       @Override
       public ImmutableList<DestinationEffect> write(
           TransformResult transformResult, Glob destinationFiles, Console console)
@@ -52,6 +52,11 @@ public class GitHubPrOriginOptions implements Option {
   @Parameter(names = "--github-pr-merge", description = "Override merge bit from config", arity = 1)
   public Boolean overrideMerge = null;
 
+  @Parameter(names = "--github-pr-graphql", description = "Fetch the Pull Request, its labels and"
+      + " its reviews with one GitHub GraphQL query instead of several REST calls. Falls back to"
+      + " the REST API if the query cannot be used, for example without credentials.")
+  public boolean useGraphQl = false;
+
   /**
    * Compute the labels that should be required by git.github_pr_origin for importing a
    * Pull Request.
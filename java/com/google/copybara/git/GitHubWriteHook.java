@@ -113,6 +113,12 @@ public class GitHubWriteHook extends DefaultWriteHook {
     }
   }
 
+  @Override
+  public boolean canBatchPushes() {
+    // Pull request branches are updated for each pushed change
+    return prBranchToUpdate == null;
+  }
+
   @Override
   public ImmutableList<DestinationEffect> afterPush(String serverResponse, MessageInfo messageInfo,
       GitRevision pushedRevision, List<? extends Change<?>> originChanges)
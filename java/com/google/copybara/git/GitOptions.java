@@ -21,13 +21,19 @@ import static com.google.copybara.util.FileUtil.resolveDirInCache;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.copybara.GeneralOptions;
 import com.google.copybara.Option;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.jcommander.GreaterThanZeroValidator;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.annotation.Nullable;
 
 /**
@@ -36,8 +42,17 @@ import javax.annotation.Nullable;
 @Parameters(separators = "=")
 public class GitOptions implements Option {
 
+  /**
+   * Git directories that were initialized by this process, with the credential helper that was
+   * configured, so that 'git init' and 'git config' are not repeated for every repository object.
+   */
+  private static final ConcurrentMap<Path, String> INITIALIZED_REPOS = new ConcurrentHashMap<>();
+
   private final GeneralOptions generalOptions;
 
+  // Guarded by this
+  private final Map<Path, CachedRepo> cachedBareRepos = new HashMap<>();
+
   @Nullable
   public String getCredentialHelperStorePath() {
     return credentialHelperStorePath;
@@ -63,7 +78,8 @@ public class GitOptions implements Option {
   boolean noGitPrompt = false;
 
   @Parameter(names = "--git-visit-changes-page-size",
-      description = "Size of the git log page used for visiting changes.", hidden = true,
+      description = "Deprecated. Changes are now visited with a single streaming 'git log'"
+          + " and this flag has no effect.", hidden = true,
       validateWith = GreaterThanZeroValidator.class)
   int visitChangePageSize = 200;
 
@@ -88,13 +104,30 @@ public class GitOptions implements Option {
     return generalOptions.getDirFactory().getCacheDir("git_repos");
   }
 
-  public GitRepository cachedBareRepoForUrl(String url) throws RepoException {
+  /**
+   * Returns the bare repository in the cache for {@code url}.
+   *
+   * <p>The same instance is returned for the same url, unless the environment or the git options
+   * changed, so that the repository is only initialized once.
+   */
+  public synchronized GitRepository cachedBareRepoForUrl(String url) throws RepoException {
     Preconditions.checkNotNull(url);
+    Path path;
     try {
-      return createBareRepo(generalOptions, resolveDirInCache(url, getRepoStorage()));
+      path = resolveDirInCache(url, getRepoStorage());
     } catch (IOException e) {
       throw new RepoException("Cannot create a cached repo for " + url, e);
     }
+    ImmutableList<Object> config = ImmutableList.of(
+        generalOptions.getEnvironment(), generalOptions.isVerbose(), generalOptions.fetchTimeout,
+        gitNoVerify, Optional.ofNullable(credentialHelper()));
+    CachedRepo cached = cachedBareRepos.get(path);
+    if (cached != null && cached.config.equals(config)) {
+      return cached.repo;
+    }
+    GitRepository repo = createBareRepo(generalOptions, path);
+    cachedBareRepos.put(path, new CachedRepo(repo, config));
+    return repo;
   }
 
   /** Returns a {@link GitEnvironment} configured for the given options. */
@@ -117,13 +150,40 @@ public class GitOptions implements Option {
   }
 
   protected GitRepository initRepo(GitRepository repo) throws RepoException {
+    String credentialHelper = credentialHelper();
+    String initialized = credentialHelper == null ? "" : credentialHelper;
+    Path gitDir = repo.getGitDir();
+    // Skip the git commands if this process already did it and the repository is still there.
+    if (initialized.equals(INITIALIZED_REPOS.get(gitDir))
+        && Files.isRegularFile(gitDir.resolve("config"))) {
+      return repo;
+    }
     repo.init();
+    if (credentialHelper != null) {
+      repo.withCredentialHelper(credentialHelper);
+    }
+    INITIALIZED_REPOS.put(gitDir, initialized);
+    return repo;
+  }
+
+  @Nullable
+  private String credentialHelper() {
     if (noCredentialHelperStore) {
-      return repo;
+      return null;
     }
     String storePath = getCredentialHelperStorePath();
     String path = storePath == null ? "" : " --file=" + storePath;
-    repo.withCredentialHelper("store" + path);
-    return repo;
+    return "store" + path;
+  }
+
+  private static class CachedRepo {
+
+    private final GitRepository repo;
+    private final ImmutableList<Object> config;
+
+    private CachedRepo(GitRepository repo, ImmutableList<Object> config) {
+      this.repo = repo;
+      this.config = config;
+    }
   }
 }
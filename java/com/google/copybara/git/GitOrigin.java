@@ -20,15 +20,19 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.copybara.Origin.Reader.ChangesResponse.noChanges;
 import static com.google.copybara.exception.ValidationException.checkCondition;
 import static com.google.copybara.util.Glob.affectsRoots;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
 import com.google.copybara.Change;
 import com.google.copybara.GeneralOptions;
 import com.google.copybara.Options;
@@ -40,13 +44,23 @@ import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitRepository.Submodule;
 import com.google.copybara.git.GitRepository.TreeElement;
+import com.google.copybara.profiler.Profiler.ProfilerTask;
 import com.google.copybara.transform.patch.PatchTransformation;
+import com.google.copybara.util.FileUtil;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.InsideGitDirException;
 import com.google.copybara.util.console.Console;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.annotation.Nullable;
 
 /**
@@ -181,6 +195,7 @@ public class GitOrigin implements Origin<GitRevision> {
     private final boolean partialFetch;
     @Nullable private final PatchTransformation patchTransformation;
     private final boolean describeVersion;
+    private final ConcurrentMap<Path, Object> submoduleLocks = new ConcurrentHashMap<>();
 
     ReaderImpl(String repoUrl, Glob originFiles, Authoring authoring,
         GitOptions gitOptions,
@@ -243,6 +258,39 @@ public class GitOrigin implements Origin<GitRevision> {
       }
     }
 
+    /**
+     * Supported when the checkout is a plain 'git checkout', since we rely on git updating only
+     * the files that changed. The index is kept next to the workdir, so that other checkouts of
+     * the same cached repository don't invalidate it.
+     */
+    @Override
+    public boolean checkoutIncremental(GitRevision ref, Path workdir)
+        throws RepoException, ValidationException {
+      if (submoduleStrategy != SubmoduleStrategy.NO
+          || partialFetch
+          || patchTransformation != null
+          || gitOptions.experimentCheckoutAffectedFiles
+          || gitOriginOptions.originRebaseRef != null
+          || !Strings.isNullOrEmpty(gitOriginOptions.originCheckoutHook)) {
+        return false;
+      }
+      GitRepository repo = getRepository();
+      // One index per repository, in case the workdir is reused for a different one.
+      Path index = workdir.resolveSibling(String.format("%s.%s.git_index", workdir.getFileName(),
+          Hashing.sha1().hashString(repo.getGitDir().toString(), UTF_8)));
+      try {
+        if (!Files.exists(index) && Files.exists(workdir)) {
+          // Git doesn't know about the files in the workdir, so it wouldn't delete them.
+          FileUtil.deleteRecursively(workdir);
+        }
+        Files.createDirectories(workdir);
+      } catch (IOException e) {
+        throw new RepoException("Cannot prepare " + workdir, e);
+      }
+      repo.withWorkTree(workdir).withIndexFile(index).forceCheckout(ref.getSha1());
+      return true;
+    }
+
     private GitRepository checkout(
         GitRepository repository, Path workdir, GitRevision ref)
         throws RepoException {
@@ -280,11 +328,65 @@ public class GitOrigin implements Origin<GitRevision> {
       if (topLevelCheckout) {
         maybeRebase(repo, ref, workdir);
       }
+      checkoutSubmodules(repo, currentRemoteUrl, workdir, submoduleStrategy, ref,
+          topLevelCheckout);
+    }
 
+    private void checkoutSubmodules(GitRepository repo, String currentRemoteUrl, Path workdir,
+        SubmoduleStrategy submoduleStrategy, GitRevision ref, boolean topLevelCheckout)
+        throws RepoException, ValidationException {
       if (submoduleStrategy == SubmoduleStrategy.NO) {
         return;
       }
-      for (Submodule submodule : repo.listSubmodules(currentRemoteUrl)) {
+      ImmutableList<Submodule> submodules = repo.listSubmodules(currentRemoteUrl);
+      SubmoduleStrategy childStrategy = submoduleStrategy == SubmoduleStrategy.RECURSIVE
+          ? SubmoduleStrategy.RECURSIVE
+          : SubmoduleStrategy.NO;
+      int maxConcurrency = Math.min(gitOriginOptions.submodulesMaxConcurrency, submodules.size());
+      // Only the top level submodules are checked out in parallel. Nested ones are checked out
+      // sequentially by the thread that checked out their parent.
+      if (!topLevelCheckout || maxConcurrency <= 1) {
+        for (Submodule submodule : submodules) {
+          checkoutSubmodule(repo, ref, workdir, submodule, childStrategy);
+        }
+        return;
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(maxConcurrency);
+      List<Future<Void>> futures = new ArrayList<>();
+      try {
+        for (Submodule submodule : submodules) {
+          futures.add(executor.submit(() -> {
+            checkoutSubmodule(repo, ref, workdir, submodule, childStrategy);
+            return null;
+          }));
+        }
+        for (Future<Void> future : futures) {
+          future.get();
+        }
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(
+            e.getCause(), RepoException.class, ValidationException.class);
+        throw new RepoException("Error checking out submodules", e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RepoException("Interrupted while checking out submodules", e);
+      } finally {
+        for (Future<Void> future : futures) {
+          future.cancel(/*mayInterruptIfRunning=*/ true);
+        }
+        executor.shutdownNow();
+      }
+    }
+
+    /**
+     * Fetches the submodule and checks it out in its subdirectory of {@code workdir}. Safe to be
+     * called concurrently for different submodules.
+     */
+    private void checkoutSubmodule(GitRepository repo, GitRevision ref, Path workdir,
+        Submodule submodule, SubmoduleStrategy submoduleStrategy)
+        throws RepoException, ValidationException {
+      try (ProfilerTask ignore = generalOptions.profiler().start("checkout_submodule",
+          ImmutableMap.of("path", submodule.getPath()))) {
         ImmutableList<TreeElement> elements = repo.lsTree(ref, submodule.getPath(), false, false);
         if (elements.size() != 1) {
           throw new RepoException(String
@@ -299,38 +401,41 @@ public class GitOrigin implements Origin<GitRevision> {
                 "Checking out submodule '%s' with reference '%s'", submodule, element.getRef());
 
         GitRepository subRepo = gitOptions.cachedBareRepoForUrl(submodule.getUrl());
-
-        // TODO(danielromero): Remove temporary feature after 2019-10-30
-        if (generalOptions.isTemporaryFeature("SUBMODULES_FETCH_ALL", true)) {
-          if (submodule.getBranch() != null) {
-            subRepo.fetchSingleRef(submodule.getUrl(), submodule.getBranch(), partialFetch);
-          } else {
-            subRepo.fetch(
-                submodule.getUrl(), /*prune*/
-                true, /*force*/
-                true,
-                ImmutableList.of("refs/heads/*:refs/heads/*", "refs/tags/*:refs/tags/*"),
-                partialFetch);
-          }
-        } else {
-          subRepo.fetchSingleRef(submodule.getUrl(), submodule.getBranch(), partialFetch);
-        }
-        GitRevision submoduleRef =
-            subRepo.resolveReferenceWithContext(
-                element.getRef(), submodule.getName(), submodule.getUrl());
-
         Path subdir = workdir.resolve(submodule.getPath());
         try {
-          Files.createDirectories(workdir.resolve(submodule.getPath()));
+          Files.createDirectories(subdir);
         } catch (IOException e) {
           throw new RepoException(String.format(
               "Cannot create subdirectory %s for submodule: %s", subdir, submodule));
         }
 
-        checkoutRepo(subRepo, submodule.getUrl(), subdir,
-            submoduleStrategy == SubmoduleStrategy.RECURSIVE
-                ? SubmoduleStrategy.RECURSIVE
-                : SubmoduleStrategy.NO, submoduleRef, /*topLevelCheckout*/ false);
+        // Submodules with the same url share the git directory (and index), so they cannot be
+        // fetched or checked out at the same time.
+        GitRepository checkedOut;
+        GitRevision submoduleRef;
+        synchronized (submoduleLocks.computeIfAbsent(subRepo.getGitDir(), k -> new Object())) {
+          // TODO(danielromero): Remove temporary feature after 2019-10-30
+          if (generalOptions.isTemporaryFeature("SUBMODULES_FETCH_ALL", true)) {
+            if (submodule.getBranch() != null) {
+              subRepo.fetchSingleRef(submodule.getUrl(), submodule.getBranch(), partialFetch);
+            } else {
+              subRepo.fetch(
+                  submodule.getUrl(), /*prune*/
+                  true, /*force*/
+                  true,
+                  ImmutableList.of("refs/heads/*:refs/heads/*", "refs/tags/*:refs/tags/*"),
+                  partialFetch);
+            }
+          } else {
+            subRepo.fetchSingleRef(submodule.getUrl(), submodule.getBranch(), partialFetch);
+          }
+          submoduleRef =
+              subRepo.resolveReferenceWithContext(
+                  element.getRef(), submodule.getName(), submodule.getUrl());
+          checkedOut = checkout(subRepo, subdir, submoduleRef);
+        }
+        checkoutSubmodules(checkedOut, submodule.getUrl(), subdir, submoduleStrategy,
+            submoduleRef, /*topLevelCheckout*/ false);
       }
     }
 
@@ -405,7 +510,7 @@ public class GitOrigin implements Origin<GitRevision> {
     }
 
     /**
-     * Visit changes using git --skip and -n for pagination.
+     * Visit changes using a single streaming 'git log'.
      *
      * <p>We only visit files in the roots. The reason is that there can be different project
      * imports from the same git repository. Using origin_files glob directly would be more
@@ -422,7 +527,7 @@ public class GitOrigin implements Origin<GitRevision> {
           start, input -> affectsRoots(roots, input.getChangeFiles())
               ? visitor.visit(input)
               : VisitResult.CONTINUE,
-          queryChanges, generalOptions, "origin", gitOptions.visitChangePageSize);
+          queryChanges, generalOptions, "origin");
     }
   }
 
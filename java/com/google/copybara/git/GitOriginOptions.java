@@ -22,6 +22,7 @@ import com.google.common.base.Strings;
 import com.google.copybara.GeneralOptions;
 import com.google.copybara.Option;
 import com.google.copybara.exception.RepoException;
+import com.google.copybara.jcommander.GreaterThanZeroValidator;
 import com.google.copybara.util.OriginUtil.CheckoutHook;
 import java.nio.file.Path;
 
@@ -51,6 +52,11 @@ public class GitOriginOptions implements Option {
       + " for the migration. Only useful for forcing a migration to the passed version in the CLI")
   boolean noGitVersionSelector = false;
 
+  @Parameter(names = "--git-origin-submodules-max-concurrency",
+      description = "Maximum number of submodules that are fetched and checked out at the same"
+          + " time by git.origin.", validateWith = GreaterThanZeroValidator.class)
+  int submodulesMaxConcurrency = 4;
+
   public boolean useGitVersionSelector() {
     return !noGitVersionSelector;
   }
@@ -55,12 +55,18 @@ import com.google.copybara.util.CommandRunner;
 import com.google.copybara.util.FileUtil;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.RepositoryUtil;
+import com.google.copybara.util.RunningCommand;
 import com.google.copybara.shell.Command;
 import com.google.copybara.shell.CommandException;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -76,6 +82,7 @@ import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -83,6 +90,10 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -171,6 +182,12 @@ public class GitRepository {
   private final Duration fetchTimeout;
   protected final boolean noVerify;
 
+  /**
+   * Locks for the git directories used by this process. Cached repositories are shared by all the
+   * requests of the 'server' command, each of them with its own {@link GitOptions}.
+   */
+  private static final ConcurrentMap<Path, Lock> GIT_DIR_LOCKS = new ConcurrentHashMap<>();
+
   private static final Map<Character, StatusCode> CHAR_TO_STATUS_CODE =
       Arrays.stream(StatusCode.values())
           .collect(Collectors.toMap(StatusCode::getCode, Function.identity()));
@@ -263,6 +280,18 @@ public class GitRepository {
 
   public GitRevision fetchSingleRefWithTags(String url, String ref, boolean fetchTags,
       boolean partialFetch) throws RepoException, ValidationException {
+    // Another fetch could overwrite 'refs/copybara_fetch/' before we resolve it
+    Lock lock = lock();
+    lock.lock();
+    try {
+      return fetchSingleRefWithTagsLocked(url, ref, fetchTags, partialFetch);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private GitRevision fetchSingleRefWithTagsLocked(String url, String ref, boolean fetchTags,
+      boolean partialFetch) throws RepoException, ValidationException {
     if (ref.contains(":") || ref.contains("*")) {
       throw new CannotResolveRevisionException("Fetching refspecs that"
           + " contain local ref path locations or wildcards is not supported. Invalid ref: " + ref);
@@ -353,18 +382,42 @@ public class GitRepository {
     }
 
     List<String> requestedRefs = new ArrayList<>();
+    // Fetch can only write the destination refs of the refspecs and the tags that it
+    // auto-follows, so there is no need to list all the references in the repository.
+    Set<String> writtenRefs = new LinkedHashSet<>();
+    writtenRefs.add("refs/tags");
+    boolean allRefs = false;
     for (String ref : refspecs) {
       // Validates refspec:
       Refspec refSpec = createRefSpec(ref);
       requestedRefs.add(refSpec.getOrigin());
       args.add(ref);
+      String destination = refSpec.getDestination();
+      if (!destination.startsWith("refs/")) {
+        // Git might expand it to a full ref name. Don't try to guess which one.
+        allRefs = true;
+      } else if (destination.contains("*")) {
+        int wildcard = destination.indexOf('*');
+        writtenRefs.add(destination.substring(0, destination.lastIndexOf('/', wildcard)));
+      } else {
+        writtenRefs.add(destination);
+      }
     }
+    ImmutableList<String> refsToCompare =
+        allRefs ? ImmutableList.of() : ImmutableList.copyOf(writtenRefs);
 
-    ImmutableMap<String, GitRevision> before = showRef();
-    CommandOutputWithStatus output = gitAllowNonZeroExit(NO_INPUT, args, fetchTimeout);
-    if (output.getTerminationStatus().success()) {
-      ImmutableMap<String, GitRevision> after = showRef();
-      return new FetchResult(before, after);
+    CommandOutputWithStatus output;
+    Lock lock = lock();
+    lock.lock();
+    try {
+      ImmutableMap<String, GitRevision> before = refsWithPrefixes(refsToCompare);
+      output = gitAllowNonZeroExit(NO_INPUT, args, fetchTimeout);
+      if (output.getTerminationStatus().success()) {
+        ImmutableMap<String, GitRevision> after = refsWithPrefixes(refsToCompare);
+        return new FetchResult(before, after);
+      }
+    } finally {
+      lock.unlock();
     }
     checkFetchError(output.getStderr(), url, requestedRefs);
     throw throwUnknownGitError(output, args);
@@ -447,29 +500,32 @@ public class GitRepository {
     }
     args.addAll(refs);
 
-    CommandOutputWithStatus output;
-    try {
-      output = executeGit(cwd, args, gitEnv, false, maxLogLines);
-    } catch (BadExitStatusWithOutputException e) {
-      throw new RepoException(
-          String.format("Error running ls-remote for '%s' and refs '%s': Exit code %s, Output:\n%s",
-              url, refs, e.getOutput().getTerminationStatus().getExitCode(),
-              e.getOutput().getStderr()), e);
-    } catch (CommandException e) {
-      throw new RepoException(
-          String.format("Error running ls-remote for '%s' and refs '%s'", url, refs), e);
-    }
-    if (output.getTerminationStatus().success()) {
-      for (String line : Splitter.on('\n').split(output.getStdout())) {
+    // Parse the output as it arrives, since remotes can have hundreds of thousands of refs.
+    try (RunningCommand command = startGit(cwd, args, gitEnv, /*verbose=*/ false)) {
+      BufferedReader stdout = command.getStdoutReader();
+      int lines = 0;
+      for (String line = stdout.readLine(); line != null; line = stdout.readLine()) {
         if (line.isEmpty()) {
           continue;
         }
+        if (maxLogLines < 0 || lines++ < maxLogLines) {
+          logger.atInfo().log("ls-remote: %s", line);
+        }
         Matcher matcher = LS_REMOTE_OUTPUT_LINE.matcher(line);
         if (!matcher.matches()) {
           throw new RepoException("Unexpected format for ls-remote output: " + line);
         }
         result.put(matcher.group(2), matcher.group(1));
       }
+      command.waitFor();
+    } catch (BadExitStatusWithOutputException e) {
+      throw new RepoException(
+          String.format("Error running ls-remote for '%s' and refs '%s': Exit code %s, Output:\n%s",
+              url, refs, e.getOutput().getTerminationStatus().getExitCode(),
+              e.getOutput().getStderr()), e);
+    } catch (CommandException | IOException e) {
+      throw new RepoException(
+          String.format("Error running ls-remote for '%s' and refs '%s'", url, refs), e);
     }
     return result.build();
   }
@@ -520,25 +576,49 @@ public class GitRepository {
    */
   private ImmutableMap<String, GitRevision> showRef(Iterable<String> refs)
       throws RepoException {
-    ImmutableMap.Builder<String, GitRevision> result = ImmutableMap.builder();
-    CommandOutput commandOutput = gitAllowNonZeroExit(NO_INPUT,
-        ImmutableList.<String>builder().add("show-ref").addAll(refs).build(),
-        DEFAULT_TIMEOUT);
+    return listRefs(ImmutableList.<String>builder().add("show-ref").addAll(refs).build());
+  }
 
-    if (!commandOutput.getStderr().isEmpty()) {
-      throw new RepoException(String.format(
-          "Error executing show-ref on %s git repo:\n%s", getGitDir(), commandOutput.getStderr()));
-    }
+  /**
+   * Returns the references that are equal to, or under, any of {@code prefixes} (for example
+   * 'refs/heads/master' or 'refs/changes'). An empty list returns all the references.
+   */
+  private ImmutableMap<String, GitRevision> refsWithPrefixes(List<String> prefixes)
+      throws RepoException {
+    return listRefs(ImmutableList.<String>builder()
+        .add("for-each-ref", "--format=%(objectname) %(refname)")
+        .addAll(prefixes)
+        .build());
+  }
 
-    for (String line : Splitter.on('\n').split(commandOutput.getStdout())) {
-      if (line.isEmpty()) {
-        continue;
+  /**
+   * Runs a command that outputs 'SHA-1 reference' lines, like show-ref, and returns a map from
+   * reference name to GitReference(SHA-1).
+   */
+  private ImmutableMap<String, GitRevision> listRefs(List<String> args) throws RepoException {
+    ImmutableMap.Builder<String, GitRevision> result = ImmutableMap.builder();
+    String stderr;
+    try (RunningCommand command = startCommand(args)) {
+      BufferedReader stdout = command.getStdoutReader();
+      for (String line = stdout.readLine(); line != null; line = stdout.readLine()) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        List<String> strings = Splitter.on(' ').splitToList(line);
+        Preconditions.checkState(strings.size() == 2
+            && SHA1_PATTERN.matcher(strings.get(0)).matches(), "Cannot parse line: '%s'", line);
+        // Ref -> SHA1
+        result.put(strings.get(1), new GitRevision(this, strings.get(0)));
       }
-      List<String> strings = Splitter.on(' ').splitToList(line);
-      Preconditions.checkState(strings.size() == 2
-          && SHA1_PATTERN.matcher(strings.get(0)).matches(), "Cannot parse line: '%s'", line);
-      // Ref -> SHA1
-      result.put(strings.get(1), new GitRevision(this, strings.get(0)));
+      stderr = waitForAllowNonZeroExit(command, args);
+    } catch (IOException e) {
+      throw new RepoException(
+          String.format("Error reading %s output on %s", args.get(0), getGitDir()), e);
+    }
+
+    if (!stderr.isEmpty()) {
+      throw new RepoException(String.format(
+          "Error executing %s on %s git repo:\n%s", args.get(0), getGitDir(), stderr));
     }
     return result.build();
   }
@@ -571,6 +651,26 @@ public class GitRepository {
     throw new RepoException("Error executing git merge-base --is-ancestor:\n" + result.getStderr());
   }
 
+  /**
+   * Returns true if {@code ancestor} is reachable from {@code commit} following only the first
+   * parent of each commit.
+   */
+  boolean isFirstParentAncestor(String ancestor, String commit) throws RepoException {
+    if (!isAncestor(ancestor, commit)) {
+      return false;
+    }
+    // The first-parent chain of 'commit' stops at the first commit that is reachable from
+    // 'ancestor', and that commit is 'ancestor' only if it is in the chain.
+    List<String> chain = Splitter.on('\n').omitEmptyStrings().splitToList(
+        simpleCommand("rev-list", "--first-parent", "--parents", ancestor + ".." + commit, "--")
+            .getStdout());
+    if (chain.isEmpty()) {
+      return true;
+    }
+    List<String> last = Splitter.on(' ').splitToList(Iterables.getLast(chain));
+    return last.size() > 1 && last.get(1).equals(ancestor);
+  }
+
   /**
    * Returns an instance equivalent to this one but with a different work tree. This does not
    * initialize or alter the given work tree.
@@ -580,6 +680,18 @@ public class GitRepository {
         this.gitDir, newWorkTree, this.verbose, this.gitEnv, fetchTimeout, this.noVerify);
   }
 
+  /**
+   * Returns a copy of this repository that uses {@code indexFile} instead of the index of the
+   * git directory. Useful for keeping a work tree in sync with the repository while other work
+   * trees share the same git directory.
+   */
+  GitRepository withIndexFile(Path indexFile) {
+    Map<String, String> env = new HashMap<>(gitEnv.getEnvironment());
+    env.put("GIT_INDEX_FILE", indexFile.toAbsolutePath().toString());
+    return new GitRepository(
+        this.gitDir, workTree, this.verbose, new GitEnvironment(env), fetchTimeout, this.noVerify);
+  }
+
   /**
    * The Git work tree - in a typical Git repo, this is the directory containing the {@code .git}
    * directory. Returns {@code null} for bare repos.
@@ -593,6 +705,15 @@ public class GitRepository {
     return gitDir;
   }
 
+  /**
+   * Returns the process-wide lock of the git directory. Callers that fetch into or write to a
+   * repository that might be shared with other threads should hold it. The lock is reentrant.
+   */
+  public Lock lock() {
+    return GIT_DIR_LOCKS.computeIfAbsent(
+        gitDir.toAbsolutePath().normalize(), k -> new ReentrantLock());
+  }
+
   /**
    * Can be overwritten to add custom behavior.
    */
@@ -1005,23 +1126,28 @@ public class GitRepository {
       args.add("--");
       args.add(treeish);
     }
-    String stdout = simpleCommand(args).getStdout();
-    for (String line : Splitter.on('\n').split(stdout)) {
-      if (line.isEmpty()) {
-        continue;
-      }
-      Matcher matcher = LS_TREE_ELEMENT.matcher(line);
-      if (!matcher.matches()) {
-        throw new RepoException("Unexpected format for ls-tree output: " + line);
+    try (RunningCommand command = startCommand(args)) {
+      BufferedReader stdout = command.getStdoutReader();
+      for (String line = stdout.readLine(); line != null; line = stdout.readLine()) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        Matcher matcher = LS_TREE_ELEMENT.matcher(line);
+        if (!matcher.matches()) {
+          throw new RepoException("Unexpected format for ls-tree output: " + line);
+        }
+        // We ignore the mode for now
+        GitObjectType objectType = GitObjectType.valueOf(matcher.group(2).toUpperCase());
+        String sha1 = matcher.group(3);
+        String path = matcher.group(4)
+            // Per ls-tree documentation. Replace those escaped characters.
+            .replace("\\\\", "\\").replace("\\t", "\t").replace("\\n", "\n");
+
+        result.add(new TreeElement(objectType, sha1, path));
       }
-      // We ignore the mode for now
-      GitObjectType objectType = GitObjectType.valueOf(matcher.group(2).toUpperCase());
-      String sha1 = matcher.group(3);
-      String path = matcher.group(4)
-          // Per ls-tree documentation. Replace those escaped characters.
-          .replace("\\\\", "\\").replace("\\t", "\t").replace("\\n", "\n");
-
-      result.add(new TreeElement(objectType, sha1, path));
+      waitFor(command, args);
+    } catch (IOException e) {
+      throw new RepoException("Error reading ls-tree output for " + reference.getSha1(), e);
     }
     return result.build();
   }
@@ -1197,22 +1323,73 @@ public class GitRepository {
     try {
       return executeGit(cwd, params, gitEnv, verbose);
     } catch (BadExitStatusWithOutputException e) {
-      CommandOutputWithStatus output = e.getOutput();
+      throw throwGitError(e.getOutput(), params);
+    } catch (CommandException e) {
+      throw new RepoException("Error executing 'git': " + e.getMessage(), e);
+    }
+  }
 
-      for (Pattern error : REF_NOT_FOUND_ERRORS) {
-        Matcher matcher = error.matcher(output.getStderr());
-        if (matcher.find()) {
-          throw new RepoException(
-              "Cannot find reference '" + matcher.group(1) + "'");
-        }
-      }
+  /**
+   * Starts a {@code git} command with the {@code --git-dir} and (if non-bare) {@code --work-tree}
+   * args set and returns it while it is still running, so that the stdout can be read
+   * incrementally. The result has to be passed to {@link #waitFor} or closed.
+   */
+  RunningCommand startCommand(List<String> argv) throws RepoException {
+    try {
+      return startGit(getCwd(), addGitDirAndWorkTreeParams(argv), gitEnv, verbose);
+    } catch (CommandException e) {
+      throw new RepoException("Error executing 'git': " + e.getMessage(), e);
+    }
+  }
 
-      throw throwUnknownGitError(output, params);
+  /**
+   * Waits for a command returned by {@link #startCommand} to finish.
+   *
+   * @throws RepoException if the command failed
+   */
+  void waitFor(RunningCommand command, List<String> argv) throws RepoException {
+    try {
+      command.waitFor();
+    } catch (BadExitStatusWithOutputException e) {
+      throw throwGitError(e.getOutput(), argv);
     } catch (CommandException e) {
       throw new RepoException("Error executing 'git': " + e.getMessage(), e);
     }
   }
 
+  /**
+   * Same as {@link #waitFor} but allowing non-zero exit codes like {@link #gitAllowNonZeroExit}.
+   *
+   * @return the stderr of the command
+   */
+  private String waitForAllowNonZeroExit(RunningCommand command, List<String> argv)
+      throws RepoException {
+    try {
+      command.waitFor();
+      return command.getStderr();
+    } catch (BadExitStatusWithOutputException e) {
+      CommandOutputWithStatus output = e.getOutput();
+      if (NON_CRASH_ERROR_EXIT_CODES.contains(output.getTerminationStatus().getExitCode())) {
+        return output.getStderr();
+      }
+      throw throwUnknownGitError(output, argv);
+    } catch (CommandException e) {
+      throw new RepoException("Error executing 'git': " + e.getMessage(), e);
+    }
+  }
+
+  private RepoException throwGitError(CommandOutputWithStatus output, Iterable<String> params)
+      throws RepoException {
+    for (Pattern error : REF_NOT_FOUND_ERRORS) {
+      Matcher matcher = error.matcher(output.getStderr());
+      if (matcher.find()) {
+        throw new RepoException(
+            "Cannot find reference '" + matcher.group(1) + "'");
+      }
+    }
+    throw throwUnknownGitError(output, params);
+  }
+
   private RepoException throwUnknownGitError(
       CommandOutputWithStatus output, Iterable<String> params) throws RepoException {
     throw new RepoException(
@@ -1276,6 +1453,18 @@ public class GitRepository {
         maxLogLines >= 0 ? runner.withMaxStdOutLogLines(maxLogLines).execute() : runner.execute();
   }
 
+  private static RunningCommand startGit(
+      Path cwd, Iterable<String> params, GitEnvironment gitEnv, boolean verbose)
+      throws CommandException {
+    List<String> allParams = new ArrayList<>(Iterables.size(params) + 1);
+    allParams.add(gitEnv.resolveGitBinary());
+    Iterables.addAll(allParams, params);
+    Command cmd =
+        new Command(
+            Iterables.toArray(allParams, String.class), gitEnv.getEnvironment(), cwd.toFile());
+    return new CommandRunner(cmd).withVerbose(verbose).start();
+  }
+
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this)
@@ -1354,22 +1543,49 @@ public class GitRepository {
     return result.getStdout();
   }
 
+  /**
+   * Writes the files from {@code rev} that match {@code glob} into {@code destRoot}.
+   *
+   * <p>All the blobs are extracted by a single {@code git cat-file --batch} process and its
+   * output is written to the files as it is read, without converting the content to text.
+   */
   public void checkout(Glob glob, Path destRoot, GitRevision rev) throws RepoException {
     ImmutableList<TreeElement> treeElements = lsTree(rev, null, true, true);
     PathMatcher pathMatcher = glob.relativeTo(destRoot);
+    List<Path> paths = new ArrayList<>();
+    StringBuilder objects = new StringBuilder();
     for (TreeElement file : treeElements) {
       Path path = destRoot.resolve(file.getPath());
-      if (pathMatcher.matches(path)) {
-        try {
-          Files.write(
-              path, readFile(rev.getSha1(), file.getPath()).getBytes(StandardCharsets.UTF_8));
-        } catch (IOException e) {
-          throw new RepoException(String
-              .format("Cannot write '%s' from reference '%s' into '%s'", file.getPath(), rev,
-                  path), e);
-        }
+      if (file.getType() == GitObjectType.BLOB && pathMatcher.matches(path)) {
+        paths.add(path);
+        objects.append(file.getRef()).append('\n');
       }
     }
+    if (paths.isEmpty()) {
+      return;
+    }
+    BlobBatchWriter writer = new BlobBatchWriter(paths);
+    ImmutableList<String> params = ImmutableList.of("cat-file", "--batch");
+    try {
+      List<String> allParams = new ArrayList<>();
+      allParams.add(gitEnv.resolveGitBinary());
+      allParams.addAll(addGitDirAndWorkTreeParams(params));
+      Command cmd = new Command(Iterables.toArray(allParams, String.class),
+          gitEnv.getEnvironment(), getCwd().toFile());
+      // Not verbose and no logging of stdout, as it contains the (possibly binary) file contents.
+      new CommandRunner(cmd, DEFAULT_TIMEOUT)
+          .withInput(objects.toString().getBytes(StandardCharsets.UTF_8))
+          .withStdOutStream(writer)
+          .withMaxStdOutLogLines(0)
+          .execute();
+    } catch (BadExitStatusWithOutputException e) {
+      throw throwUnknownGitError(e.getOutput(), params);
+    } catch (CommandException e) {
+      throw new RepoException("Error executing 'git': " + e.getMessage(), e);
+    } finally {
+      writer.closeQuietly();
+    }
+    writer.checkFinished(rev);
   }
 
   GitRevision commitTree(String message, String tree, List<GitRevision> parents)
@@ -1451,6 +1667,116 @@ public class GitRepository {
     }
   }
 
+  /**
+   * An {@link OutputStream} that parses the output of {@code git cat-file --batch} and writes
+   * each blob to the next path in {@code paths}.
+   *
+   * <p>The output is a sequence of {@code <sha1> <type> <size>\n<content>\n} records, one for
+   * each object in the input, in the same order.
+   */
+  private static class BlobBatchWriter extends OutputStream {
+
+    private final List<Path> paths;
+    private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+    private int current = 0;
+    @Nullable private OutputStream file;
+    private long remaining;
+    private boolean expectingTerminator;
+    @Nullable private IOException error;
+
+    private BlobBatchWriter(List<Path> paths) {
+      this.paths = checkNotNull(paths);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (error != null) {
+        // Consume the rest of the output so that the process can finish.
+        return;
+      }
+      try {
+        int end = off + len;
+        while (off < end) {
+          if (file != null) {
+            int n = (int) Math.min(remaining, end - off);
+            file.write(b, off, n);
+            off += n;
+            remaining -= n;
+            if (remaining == 0) {
+              file.close();
+              file = null;
+              current++;
+              expectingTerminator = true;
+            }
+          } else if (expectingTerminator) {
+            if (b[off++] != '\n') {
+              throw new IOException("Unexpected 'git cat-file --batch' output after blob");
+            }
+            expectingTerminator = false;
+          } else if (b[off] == '\n') {
+            off++;
+            startBlob(new String(header.toByteArray(), StandardCharsets.UTF_8));
+            header.reset();
+          } else {
+            header.write(b[off++]);
+          }
+        }
+      } catch (IOException e) {
+        error = e;
+        closeQuietly();
+      }
+    }
+
+    private void startBlob(String line) throws IOException {
+      List<String> fields = Splitter.on(' ').splitToList(line);
+      if (current >= paths.size() || fields.size() != 3 || !fields.get(1).equals("blob")) {
+        throw new IOException("Unexpected 'git cat-file --batch' output: " + line);
+      }
+      Path path = paths.get(current);
+      Files.createDirectories(path.getParent());
+      file = new BufferedOutputStream(Files.newOutputStream(path));
+      remaining = Long.parseLong(fields.get(2));
+      if (remaining == 0) {
+        file.close();
+        file = null;
+        current++;
+        expectingTerminator = true;
+      }
+    }
+
+    private void closeQuietly() {
+      if (file == null) {
+        return;
+      }
+      try {
+        file.close();
+      } catch (IOException e) {
+        if (error == null) {
+          error = e;
+        }
+      }
+      file = null;
+    }
+
+    private void checkFinished(GitRevision rev) throws RepoException {
+      if (error != null) {
+        throw new RepoException(
+            String.format("Cannot write files from reference '%s': %s", rev, error.getMessage()),
+            error);
+      }
+      if (current != paths.size()) {
+        throw new RepoException(String.format(
+            "Cannot write '%s' from reference '%s': Incomplete 'git cat-file' output",
+            paths.get(current), rev));
+      }
+    }
+  }
+
   static class TreeElement {
 
     private final GitObjectType type;
@@ -1785,6 +2111,25 @@ public class GitRepository {
      * Run 'git log' and returns zero or more {@link GitLogEntry}.
      */
     public ImmutableList<GitLogEntry> run() throws RepoException {
+      ImmutableList.Builder<GitLogEntry> result = ImmutableList.builder();
+      try (LogReader reader = stream()) {
+        for (GitLogEntry entry = reader.next(); entry != null; entry = reader.next()) {
+          result.add(entry);
+        }
+      }
+      return result.build();
+    }
+
+    /**
+     * Run 'git log' and returns a {@link LogReader} that parses the entries as the process outputs
+     * them, so that callers can stop reading without waiting for (or holding in memory) the whole
+     * history.
+     */
+    LogReader stream() throws RepoException {
+      return new LogReader(repo.startCommand(createArgs()));
+    }
+
+    private List<String> createArgs() {
       List<String> cmd = Lists.newArrayList("log", "--no-color", createFormat(includeBody));
 
       if (limit > 0) {
@@ -1824,65 +2169,141 @@ public class GitRepository {
         cmd.addAll(paths);
       }
 
-      CommandOutput output = repo.simpleCommand(cmd.toArray(new String[0]));
-      return parseLog(output.getStdout(), includeBody);
+      return cmd;
     }
 
-    private ImmutableList<GitLogEntry> parseLog(String log, boolean includeBody)
-        throws RepoException {
-      // No changes. We cannot know until we run git log since fromRef can be null (HEAD)
-      if (log.isEmpty()) {
-        return ImmutableList.of();
+    private GitLogEntry parseEntry(String msg, boolean includeBody) throws RepoException {
+      List<String> groups = Splitter.on("\n" + GROUP).splitToList(msg);
+
+      Map<String, String> fields = Splitter.on("\n")
+          .withKeyValueSeparator(Splitter.on("=").limit(2))
+          .split(groups.get(0));
+
+      String body = null;
+      if (includeBody) {
+        body = UNINDENT.matcher(groups.get(1)).replaceAll("\n");
+        body = body.substring(BEGIN_BODY.length() + 1, body.length() - END_BODY.length() - 1);
+        // Copybara assumes \n as a separator in many places.
+        body = body.replace("\r\n", "\n");
       }
 
-      ImmutableList.Builder<GitLogEntry> commits = ImmutableList.builder();
-      for (String msg : Splitter.on("\0" + COMMIT_SEPARATOR).
-          split(log.substring(COMMIT_SEPARATOR.length()))) {
+      ImmutableSet<String> files = null;
+      if (includeStat) {
+        String fileString = groups.get(2);
+        if (fileString.startsWith("\0\n")) {
+          fileString = fileString.substring(2);
+        }
+        files = ImmutableSet.copyOf(Splitter.on("\0").omitEmptyStrings().split(fileString));
+      }
+      ImmutableList.Builder<GitRevision> parents = ImmutableList.builder();
+      for (String parent : Splitter.on(" ").omitEmptyStrings()
+          .split(getField(fields, PARENTS_FIELD))) {
+        parents.add(repo.createReferenceFromCompleteSha1(parent));
+      }
 
-        List<String> groups = Splitter.on("\n" + GROUP).splitToList(msg);
+      String tree = getField(fields, TREE_FIELD);
+      String commit = getField(fields, COMMIT_FIELD);
+      try {
+        return new GitLogEntry(
+            repo.createReferenceFromCompleteSha1(commit), parents.build(),
+            tree,
+            AuthorParser.parse(getField(fields, AUTHOR_FIELD)),
+            AuthorParser.parse(getField(fields, COMMITTER_FIELD)),
+            tryParseDate(fields, AUTHOR_DATE_FIELD, commit),
+            tryParseDate(fields, COMMITTER_DATE, commit),
+            body, files);
+      } catch (InvalidAuthorException e) {
+        throw new RepoException("Error in commit '" + commit + "'. Invalid author.", e);
+      }
+    }
 
-        Map<String, String> fields = Splitter.on("\n")
-            .withKeyValueSeparator(Splitter.on("=").limit(2))
-            .split(groups.get(0));
+    /**
+     * Reads the entries of a running 'git log' one at a time.
+     */
+    class LogReader implements AutoCloseable {
+
+      private final byte[] separator =
+          ("\0" + COMMIT_SEPARATOR).getBytes(StandardCharsets.UTF_8);
+      private final RunningCommand command;
+      private final InputStream stdout;
+      private final byte[] buffer = new byte[8192];
+      private int pos;
+      private int limit;
+      private final ByteArrayOutputStream current = new ByteArrayOutputStream();
+      private boolean first = true;
+      private boolean finished;
+
+      private LogReader(RunningCommand command) {
+        this.command = checkNotNull(command);
+        this.stdout = command.getStdout();
+      }
 
-        String body = null;
-        if (includeBody) {
-          body = UNINDENT.matcher(groups.get(1)).replaceAll("\n");
-          body = body.substring(BEGIN_BODY.length() + 1, body.length() - END_BODY.length() - 1);
-          // Copybara assumes \n as a separator in many places.
-          body = body.replace("\r\n", "\n");
+      /**
+       * Returns the next entry or null if there are no more entries.
+       */
+      @Nullable
+      GitLogEntry next() throws RepoException {
+        if (finished) {
+          return null;
         }
-
-        ImmutableSet<String> files = null;
-        if (includeStat) {
-          String fileString = groups.get(2);
-          if (fileString.startsWith("\0\n")) {
-            fileString = fileString.substring(2);
-          }
-          files = ImmutableSet.copyOf(Splitter.on("\0").omitEmptyStrings().split(fileString));
+        String entry;
+        try {
+          entry = readEntry();
+        } catch (IOException e) {
+          throw new RepoException("Error reading 'git log' output", e);
         }
-        ImmutableList.Builder<GitRevision> parents = ImmutableList.builder();
-        for (String parent : Splitter.on(" ").omitEmptyStrings()
-            .split(getField(fields, PARENTS_FIELD))) {
-          parents.add(repo.createReferenceFromCompleteSha1(parent));
+        if (entry == null) {
+          finished = true;
+          repo.waitFor(command, createArgs());
+          return null;
         }
+        return parseEntry(entry, includeBody);
+      }
 
-        String tree = getField(fields, TREE_FIELD);
-        String commit = getField(fields, COMMIT_FIELD);
-        try {
-          commits.add(new GitLogEntry(
-              repo.createReferenceFromCompleteSha1(commit), parents.build(),
-              tree,
-              AuthorParser.parse(getField(fields, AUTHOR_FIELD)),
-              AuthorParser.parse(getField(fields, COMMITTER_FIELD)),
-              tryParseDate(fields, AUTHOR_DATE_FIELD, commit),
-              tryParseDate(fields, COMMITTER_DATE, commit),
-              body, files));
-        } catch (InvalidAuthorException e) {
-          throw new RepoException("Error in commit '" + commit + "'. Invalid author.", e);
+      @Nullable
+      private String readEntry() throws IOException {
+        int matched = 0;
+        while (true) {
+          if (pos == limit) {
+            limit = stdout.read(buffer);
+            pos = 0;
+            if (limit == -1) {
+              limit = 0;
+              break;
+            }
+          }
+          byte b = buffer[pos++];
+          current.write(b);
+          if (b == separator[matched]) {
+            matched++;
+          } else {
+            matched = b == separator[0] ? 1 : 0;
+          }
+          if (matched == separator.length) {
+            return takeEntry(current.size() - separator.length);
+          }
         }
+        // No changes. We cannot know until we run git log since fromRef can be null (HEAD)
+        return current.size() == 0 ? null : takeEntry(current.size());
+      }
+
+      private String takeEntry(int length) {
+        byte[] bytes = current.toByteArray();
+        current.reset();
+        // The first entry starts with the separator (without the null char).
+        int start = first ? COMMIT_SEPARATOR.length() : 0;
+        first = false;
+        return new String(bytes, start, length - start, StandardCharsets.UTF_8);
+      }
+
+      /**
+       * Kills the 'git log' process if not all the entries were read.
+       */
+      @Override
+      public void close() {
+        finished = true;
+        command.close();
       }
-      return commits.build();
     }
 
     private ZonedDateTime tryParseDate(Map<String, String> fields, String dateField,
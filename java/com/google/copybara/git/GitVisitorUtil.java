@@ -17,8 +17,6 @@
 package com.google.copybara.git;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
-import com.google.copybara.Change;
 import com.google.copybara.ChangeVisitable.ChangesVisitor;
 import com.google.copybara.ChangeVisitable.VisitResult;
 import com.google.copybara.GeneralOptions;
@@ -32,44 +30,25 @@ public class GitVisitorUtil {
 
   private GitVisitorUtil() {}
 
-  /** Visits */
+  /**
+   * Visits the changes reachable from {@code start}, newest first, using a single streaming
+   * 'git log'. The visit stops as soon as {@code visitor} returns {@link VisitResult#TERMINATE}.
+   *
+   * @throws CannotResolveRevisionException if there are no changes reachable from {@code start}
+   */
   static void visitChanges(
       GitRevision start,
       ChangesVisitor visitor,
       ChangeReader.Builder queryChanges,
       GeneralOptions generalOptions,
-      String type,
-      int visitChangePageSize)
+      String type)
       throws RepoException, ValidationException {
     Preconditions.checkNotNull(start);
-    int skip = 0;
-    boolean finished = false;
+    int visited;
     try (ProfilerTask ignore = generalOptions.profiler().start(type + "/visit_changes")) {
-      while (!finished) {
-        ImmutableList<Change<GitRevision>> result;
-        try (ProfilerTask ignore2 =
-            generalOptions.profiler().start("git_log_" + skip + "_" + visitChangePageSize)) {
-          result =
-              queryChanges
-                  .setSkip(skip)
-                  .setLimit(visitChangePageSize)
-                  .build()
-                  .run(start.getSha1())
-                  .reverse();
-        }
-        if (result.isEmpty()) {
-          break;
-        }
-        skip += result.size();
-        for (Change<GitRevision> current : result) {
-          if (visitor.visit(current) == VisitResult.TERMINATE) {
-            finished = true;
-            break;
-          }
-        }
-      }
+      visited = queryChanges.build().visit(start.getSha1(), visitor);
     }
-    if (skip == 0) {
+    if (visited == 0) {
       throw new CannotResolveRevisionException("Cannot resolve reference " + start.getSha1());
     }
   }
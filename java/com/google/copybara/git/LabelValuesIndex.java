@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.copybara.Change;
+import com.google.copybara.ChangeVisitable.ChangesVisitor;
+import com.google.copybara.ChangeVisitable.VisitResult;
+import com.google.copybara.GeneralOptions;
+import com.google.copybara.Revision;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.profiler.Profiler.ProfilerTask;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk index of the label values found in the history of a destination repository, used
+ * for resolving many origin references to destination changes (for example in
+ * {@code metadata.map_references}) without walking the history once per reference.
+ *
+ * <p>For each set of labels we store the tip of the destination branch that was indexed, the
+ * destination commit for every label value seen and whether the whole history was visited. When
+ * the destination branch only moved forward, we only need to index the new commits. Values that
+ * are not in the index can only be answered without a walk if the previous walk reached the
+ * beginning of the history. If the history was rewritten, the index is discarded.
+ *
+ * <p>The index lives inside the git directory of the destination repository, next to the one
+ * used by {@link DestinationStatusIndex}.
+ */
+class LabelValuesIndex {
+
+  private static final String INDEX_FILE = "copybara_label_values.properties";
+
+  private static final String TIP = ".tip";
+  private static final String EXHAUSTED = ".exhausted";
+  private static final String VALUE = ".value.";
+
+  private final GitRepository repo;
+
+  LabelValuesIndex(GitRepository repo) {
+    this.repo = repo;
+  }
+
+  /**
+   * Returns the destination commit for each value of {@code labels} known for {@code tip}. It
+   * contains all the {@code values} that are reachable from {@code tip}, unless more than {@code
+   * maxChanges} changes had to be visited, and it might contain other values.
+   *
+   * @param changeReader a change reader for the destination repository
+   */
+  ImmutableMap<String, String> findChangesWithLabelValues(GitRevision tip, Set<String> values,
+      ImmutableCollection<String> labels, int maxChanges, ChangeReader.Builder changeReader,
+      GeneralOptions generalOptions) throws RepoException, ValidationException {
+    String key = key(labels);
+    Properties index = PropertiesIndexFile.read(repo, INDEX_FILE);
+    String cachedTip = index.getProperty(key + TIP);
+    boolean exhausted = Boolean.parseBoolean(index.getProperty(key + EXHAUSTED));
+    Map<String, String> known = new HashMap<>();
+    for (String name : index.stringPropertyNames()) {
+      if (name.startsWith(key + VALUE)) {
+        known.put(name.substring(key.length() + VALUE.length()), index.getProperty(name));
+      }
+    }
+
+    try (ProfilerTask ignore = generalOptions.profiler().start("label_values_index")) {
+      if (cachedTip != null && !cachedTip.equals(tip.getSha1())) {
+        if (PropertiesIndexFile.isAncestor(repo, cachedTip, tip.getSha1())) {
+          // Changes are visited newest first, and values in new changes win over the indexed ones.
+          Map<String, String> newer = new HashMap<>();
+          changeReader.build().visit(cachedTip + ".." + tip.getSha1(),
+              new LabelValuesVisitor(labels, newer, /*missing=*/null, Integer.MAX_VALUE));
+          known.putAll(newer);
+        } else {
+          known.clear();
+          exhausted = false;
+        }
+      }
+
+      Set<String> missing = new HashSet<>(values);
+      missing.removeAll(known.keySet());
+      if (!missing.isEmpty() && !exhausted) {
+        Map<String, String> found = new HashMap<>();
+        LabelValuesVisitor visitor = new LabelValuesVisitor(labels, found, missing, maxChanges);
+        changeReader.build().visit(tip.getSha1(), visitor);
+        found.forEach(known::putIfAbsent);
+        exhausted = !visitor.terminated;
+      }
+    }
+
+    for (String name : index.stringPropertyNames()) {
+      if (name.startsWith(key + ".")) {
+        index.remove(name);
+      }
+    }
+    index.setProperty(key + TIP, tip.getSha1());
+    index.setProperty(key + EXHAUSTED, Boolean.toString(exhausted));
+    for (Entry<String, String> e : known.entrySet()) {
+      index.setProperty(key + VALUE + e.getKey(), e.getValue());
+    }
+    PropertiesIndexFile.write(repo, INDEX_FILE, index, "Copybara label values index");
+    return ImmutableMap.copyOf(known);
+  }
+
+  private static String key(Collection<String> labels) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (String label : ImmutableSortedSet.copyOf(labels)) {
+      hasher.putString(label, UTF_8).putByte((byte) 0);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Records the first commit, newest first, that contains each label value, until all the
+   * {@code missing} values are found or {@code maxChanges} changes with labels were visited. If
+   * {@code missing} is null, all the changes are visited.
+   */
+  private static class LabelValuesVisitor implements ChangesVisitor {
+
+    private final ImmutableCollection<String> labels;
+    private final Map<String, String> found;
+    @Nullable private final Set<String> missing;
+    private final int maxChanges;
+    private int visited;
+    private boolean terminated;
+
+    private LabelValuesVisitor(ImmutableCollection<String> labels, Map<String, String> found,
+        @Nullable Set<String> missing, int maxChanges) {
+      this.labels = labels;
+      this.found = found;
+      this.missing = missing;
+      this.maxChanges = maxChanges;
+    }
+
+    @Override
+    public VisitResult visit(Change<? extends Revision> input) {
+      boolean hasLabels = false;
+      for (String label : labels) {
+        Collection<String> labelValues = input.getLabels().get(label);
+        if (labelValues.isEmpty()) {
+          continue;
+        }
+        // Same as ChangeVisitable.visitChangesWithAnyLabel: the last value is good enough.
+        String labelValue = Iterables.getLast(labelValues);
+        found.putIfAbsent(labelValue, input.getRef());
+        if (missing != null) {
+          missing.remove(labelValue);
+        }
+        hasLabels = true;
+      }
+      if (hasLabels && ((missing != null && missing.isEmpty()) || ++visited > maxChanges)) {
+        terminated = true;
+        return VisitResult.TERMINATE;
+      }
+      return VisitResult.CONTINUE;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.copybara.exception.RepoException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Reads and writes the on-disk indexes that we keep inside the git directory of a repository, so
+ * that history lookups don't need to walk the whole history in every run.
+ *
+ * <p>Indexes are only an optimization: a missing or corrupted index is read as empty and write
+ * failures are ignored.
+ */
+final class PropertiesIndexFile {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private PropertiesIndexFile() {}
+
+  /** Reads the index {@code name} of {@code repo}, or an empty one if it doesn't exist. */
+  static Properties read(GitRepository repo, String name) {
+    Path indexFile = repo.getGitDir().resolve(name);
+    Properties index = new Properties();
+    try (InputStream in = Files.newInputStream(indexFile)) {
+      index.load(in);
+    } catch (NoSuchFileException e) {
+      // First lookup for this repository.
+    } catch (IOException | IllegalArgumentException e) {
+      logger.atWarning().withCause(e).log("Ignoring corrupted index %s", indexFile);
+      index.clear();
+    }
+    return index;
+  }
+
+  /**
+   * Writes the index atomically, so that concurrent readers see either the old or the new one.
+   * Failures are not fatal: the next lookup will just be slower.
+   */
+  static void write(GitRepository repo, String name, Properties index, String comment) {
+    Path indexFile = repo.getGitDir().resolve(name);
+    Path tmp = null;
+    try {
+      tmp = Files.createTempFile(indexFile.getParent(), name, ".tmp");
+      try (OutputStream out = Files.newOutputStream(tmp)) {
+        index.store(out, comment);
+      }
+      Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot write index %s", indexFile);
+      if (tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (IOException ignore) {
+          // Best effort
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns true if {@code ancestor} is an ancestor of {@code commit}. Returns false if it
+   * cannot be checked, for example because the previous tip was garbage collected after a
+   * history rewrite.
+   */
+  static boolean isAncestor(GitRepository repo, String ancestor, String commit) {
+    try {
+      return repo.isAncestor(ancestor, commit);
+    } catch (RepoException e) {
+      logger.atInfo().withCause(e).log("Cannot use index for %s", ancestor);
+      return false;
+    }
+  }
+
+  /**
+   * Like {@link #isAncestor(GitRepository, String, String)} but only follows the first parent of
+   * each commit.
+   */
+  static boolean isFirstParentAncestor(GitRepository repo, String ancestor, String commit) {
+    try {
+      return repo.isFirstParentAncestor(ancestor, commit);
+    } catch (RepoException e) {
+      logger.atInfo().withCause(e).log("Cannot use index for %s", ancestor);
+      return false;
+    }
+  }
+}
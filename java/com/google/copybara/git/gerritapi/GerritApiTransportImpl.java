@@ -20,6 +20,7 @@ import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.http.HttpTransport;
@@ -49,11 +50,22 @@ public class GerritApiTransportImpl implements GerritApiTransport {
   private final GitRepository repo;
   private final URI uri;
   private final HttpTransport httpTransport;
+  private final HttpRequestInitializer rateLimiter;
 
   public GerritApiTransportImpl(GitRepository repo, URI uri, HttpTransport httpTransport) {
+    this(repo, uri, httpTransport, request -> {});
+  }
+
+  /**
+   * @param rateLimiter initializes every request, so that it can be paced and retried when the
+   *     rate limit is reached
+   */
+  public GerritApiTransportImpl(GitRepository repo, URI uri, HttpTransport httpTransport,
+      HttpRequestInitializer rateLimiter) {
     this.repo = repo;
     this.uri = Preconditions.checkNotNull(uri);
     this.httpTransport = Preconditions.checkNotNull(httpTransport);
+    this.rateLimiter = Preconditions.checkNotNull(rateLimiter);
   }
 
   @Override
@@ -128,6 +140,7 @@ public class GerritApiTransportImpl implements GerritApiTransport {
           }
           request.setHeaders(httpHeaders);
           request.setParser(new JsonObjectParser(JSON_FACTORY));
+          rateLimiter.initialize(request);
         });
   }
 
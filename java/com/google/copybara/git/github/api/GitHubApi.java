@@ -22,16 +22,27 @@ import static com.google.copybara.git.github.api.GitHubApiException.ResponseCode
 
 import com.google.common.base.Ascii;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.flogger.FluentLogger;
 import com.google.common.reflect.TypeToken;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.github.api.GitHubApiException.ResponseCode;
 import com.google.copybara.profiler.Profiler;
 import com.google.copybara.profiler.Profiler.ProfilerTask;
+import com.google.re2j.Matcher;
+import com.google.re2j.Pattern;
+import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.annotation.Nullable;
 
 /**
@@ -39,11 +50,15 @@ import javax.annotation.Nullable;
  */
 public class GitHubApi {
 
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   private final GitHubApiTransport transport;
   private final Profiler profiler;
 
   public static final int MAX_PER_PAGE = 100;
   private static final int MAX_PAGES = 5;
+  private static final int MAX_CONCURRENT_PAGES = 4;
+  private static final Pattern PAGE_PARAM = Pattern.compile("([?&]page=)([0-9]+)");
 
   public GitHubApi(GitHubApiTransport transport, Profiler profiler) {
     this.transport = Preconditions.checkNotNull(transport);
@@ -152,6 +167,33 @@ public class GitHubApi {
     }
   }
 
+  /**
+   * Get a pull request with its labels and reviews in one GraphQL query, instead of calling
+   * {@link #getPullRequest}, {@link #getIssue} and {@link #getReviews}.
+   *
+   * <p>Returns null if the query cannot be used, for example because the pull request has too
+   * many reviews or the query failed. Callers should use the REST methods in that case.
+   *
+   * @param projectId a project in the form of "google/copybara"
+   * @param number the PR number
+   */
+  @Nullable
+  public PullRequestMetadata getPullRequestMetadata(String projectId, long number)
+      throws RepoException {
+    List<String> ownerAndName = Splitter.on('/').splitToList(projectId);
+    checkArgument(ownerAndName.size() == 2, "Invalid project: %s", projectId);
+    try (ProfilerTask ignore = profiler.start("github_api_graphql_get_pull")) {
+      PullRequestMetadata.GraphQlResponse response = transport.post("graphql",
+          PullRequestMetadata.request(ownerAndName.get(0), ownerAndName.get(1), number),
+          PullRequestMetadata.GraphQlResponse.class);
+      return PullRequestMetadata.fromGraphQl(response);
+    } catch (GitHubApiException | ValidationException | IOException e) {
+      // For example, GraphQL needs credentials even for public repositories
+      logger.atWarning().withCause(e).log("Cannot get Pull Request %d with GraphQL", number);
+      return null;
+    }
+  }
+
   /**
    * Get comments for a specific pull request
    *
@@ -203,20 +245,110 @@ public class GitHubApi {
       String entity)
       throws RepoException, ValidationException {
     ImmutableList.Builder<T> builder = ImmutableList.builder();
-    int pages = 0;
-    while (path != null && pages < MAX_PAGES) {
-      try (ProfilerTask ignore = profiler.start(String.format("%s_page_%d", profilerName, pages))) {
-        PaginatedList<T> page = transport.get(path, type);
+    PaginatedList<T> firstPage = getPage(path, profilerName, 0, type, entity);
+    builder.addAll(firstPage);
+    List<String> remaining = remainingPages(firstPage);
+    if (remaining != null) {
+      for (PaginatedList<T> page : getPagesConcurrently(remaining, profilerName, type, entity)) {
         builder.addAll(page);
-        path = page.getNextUrl();
-        pages++;
-      } catch (GitHubApiException e) {
-        throw treatGitHubException(e, entity);
       }
+      return builder.build();
+    }
+    // We don't know how many pages there are. Follow the 'next' links.
+    path = firstPage.getNextUrl();
+    int pages = 1;
+    while (path != null && pages < MAX_PAGES) {
+      PaginatedList<T> page = getPage(path, profilerName, pages, type, entity);
+      builder.addAll(page);
+      path = page.getNextUrl();
+      pages++;
     }
     return builder.build();
   }
 
+  private <T> PaginatedList<T> getPage(String path, String profilerName, int pageIndex,
+      Type type, String entity) throws RepoException, ValidationException {
+    try (ProfilerTask ignore = profiler.start(
+        String.format("%s_page_%d", profilerName, pageIndex))) {
+      return transport.get(path, type);
+    } catch (GitHubApiException e) {
+      throw treatGitHubException(e, entity);
+    }
+  }
+
+  /**
+   * Returns the paths of the pages after {@code firstPage}, up to {@link #MAX_PAGES} in total, or
+   * null if they cannot be derived from the 'next' and 'last' links.
+   */
+  @Nullable
+  private static List<String> remainingPages(PaginatedList<?> firstPage) {
+    String next = firstPage.getNextUrl();
+    String last = firstPage.getLastUrl();
+    if (next == null || last == null) {
+      return null;
+    }
+    Matcher nextMatcher = PAGE_PARAM.matcher(next);
+    Matcher lastMatcher = PAGE_PARAM.matcher(last);
+    if (!nextMatcher.find() || !lastMatcher.find()) {
+      return null;
+    }
+    int nextPage = Integer.parseInt(nextMatcher.group(2));
+    int lastPage = Integer.parseInt(lastMatcher.group(2));
+    // The links of other pages only differ in the page number
+    if (!pagePath(next, nextMatcher, lastPage).equals(last) || nextPage > lastPage) {
+      return null;
+    }
+    List<String> paths = new ArrayList<>();
+    for (int page = nextPage; page <= lastPage && paths.size() < MAX_PAGES - 1; page++) {
+      paths.add(pagePath(next, nextMatcher, page));
+    }
+    return paths;
+  }
+
+  private static String pagePath(String path, Matcher pageParam, int page) {
+    return path.substring(0, pageParam.start(2)) + page + path.substring(pageParam.end(2));
+  }
+
+  /** Gets {@code paths} with a bounded number of concurrent requests, in the same order. */
+  private <T> List<PaginatedList<T>> getPagesConcurrently(List<String> paths, String profilerName,
+      Type type, String entity) throws RepoException, ValidationException {
+    if (paths.size() == 1) {
+      return ImmutableList.of(getPage(paths.get(0), profilerName, 1, type, entity));
+    }
+    // Created here so that the threads inherit the current profiler task
+    ExecutorService executor =
+        Executors.newFixedThreadPool(Math.min(paths.size(), MAX_CONCURRENT_PAGES));
+    try {
+      List<Future<PaginatedList<T>>> futures = new ArrayList<>();
+      for (int i = 0; i < paths.size(); i++) {
+        String path = paths.get(i);
+        int pageIndex = i + 1;
+        futures.add(executor.submit(() -> getPage(path, profilerName, pageIndex, type, entity)));
+      }
+      List<PaginatedList<T>> pages = new ArrayList<>();
+      for (Future<PaginatedList<T>> future : futures) {
+        pages.add(getPageResult(future));
+      }
+      return pages;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static <T> PaginatedList<T> getPageResult(Future<PaginatedList<T>> future)
+      throws RepoException, ValidationException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RepoException("Interrupted while getting GitHub API pages", e);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(
+          e.getCause(), RepoException.class, ValidationException.class);
+      throw new RepoException("Error getting GitHub API page", e.getCause());
+    }
+  }
+
   /**
    * Create a pull request
    */
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache of GitHub API GET responses, revalidated with their ETag.
+ *
+ * <p>GitHub doesn't count conditional requests that return '304 Not Modified' against the rate
+ * limit, so polling the same pull requests, labels or statuses only costs requests when they
+ * change.
+ *
+ * <p>Responses are keyed by the path, the request headers and the user, so that users don't see
+ * each other's responses. The size of the cache is tracked in memory, and when it grows over its
+ * maximum size, the least recently used responses are removed until it is below {@link
+ * #EVICTION_RATIO} of it, so that the directory is only listed once in a while. Read or write
+ * errors are not fatal: the request is just not cached.
+ */
+public final class GitHubApiResponseCache {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final GitHubApiResponseCache DISABLED = new GitHubApiResponseCache(null, 0);
+  private static final String SUFFIX = ".response";
+  // Fraction of the maximum size that is kept when removing responses
+  private static final double EVICTION_RATIO = 0.9;
+
+  @Nullable private final Path dir;
+  private final long maxBytes;
+  // Bytes stored in dir, or -1 if it hasn't been computed yet. Other processes might write to the
+  // same directory, so it is recomputed every time that responses are removed. Guarded by this.
+  private long size = -1;
+
+  private GitHubApiResponseCache(@Nullable Path dir, long maxBytes) {
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+  }
+
+  /** Creates a cache that stores up to {@code maxBytes} of responses in {@code dir}. */
+  public static GitHubApiResponseCache create(Path dir, long maxBytes) {
+    Preconditions.checkArgument(maxBytes > 0, "Invalid max size: %s", maxBytes);
+    return new GitHubApiResponseCache(Preconditions.checkNotNull(dir), maxBytes);
+  }
+
+  /** A cache that doesn't store anything. */
+  public static GitHubApiResponseCache disabled() {
+    return DISABLED;
+  }
+
+  public boolean isEnabled() {
+    return dir != null;
+  }
+
+  /** Returns the key for a GET request of {@code path}. */
+  static String key(String path, @Nullable String user,
+      ImmutableListMultimap<String, String> headers) {
+    Hasher hasher = Hashing.sha256().newHasher()
+        .putString(path, UTF_8).putByte((byte) 0)
+        .putString(user == null ? "" : user, UTF_8).putByte((byte) 0);
+    for (Map.Entry<String, String> header : headers.entries()) {
+      hasher.putString(header.getKey(), UTF_8).putByte((byte) 0)
+          .putString(header.getValue(), UTF_8).putByte((byte) 0);
+    }
+    return hasher.hash().toString();
+  }
+
+  /** Returns the cached response for {@code key}, or null if there is none. */
+  @Nullable
+  CachedResponse get(String key) {
+    if (dir == null) {
+      return null;
+    }
+    Path file = dir.resolve(key + SUFFIX);
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+      String etag = in.readUTF();
+      String link = in.readUTF();
+      byte[] body = new byte[in.readInt()];
+      in.readFully(body);
+      // Keep the recently used responses when we need to remove some
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return new CachedResponse(etag, link.isEmpty() ? null : link, body);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Ignoring invalid cached response %s", file);
+      return null;
+    }
+  }
+
+  /** Stores the response for {@code key}, replacing the previous one. */
+  void put(String key, String etag, @Nullable String link, byte[] body) {
+    if (dir == null || body.length > maxBytes) {
+      return;
+    }
+    Path tmp = null;
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 256);
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        out.writeUTF(etag);
+        out.writeUTF(link == null ? "" : link);
+        out.writeInt(body.length);
+        out.write(body);
+      }
+      Files.createDirectories(dir);
+      tmp = Files.createTempFile(dir, key, ".tmp");
+      Files.write(tmp, bytes.toByteArray());
+      Path file = dir.resolve(key + SUFFIX);
+      synchronized (this) {
+        long replaced = sizeOrZero(file);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        tmp = null;
+        if (size == -1) {
+          size = scan().stream().mapToLong(f -> f.size).sum();
+        } else {
+          size += bytes.size() - replaced;
+        }
+        if (size > maxBytes) {
+          evict();
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot cache GitHub API response in %s", dir);
+    } finally {
+      if (tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (IOException ignore) {
+          // Best effort
+        }
+      }
+    }
+  }
+
+  /** Removes the least recently used responses until the cache is below the eviction ratio. */
+  private void evict() throws IOException {
+    List<CacheFile> files = scan();
+    size = files.stream().mapToLong(f -> f.size).sum();
+    long target = (long) (maxBytes * EVICTION_RATIO);
+    files.sort(Comparator.comparingLong(f -> f.lastUsed));
+    for (CacheFile file : files) {
+      if (size <= target) {
+        return;
+      }
+      Files.deleteIfExists(file.path);
+      size -= file.size;
+    }
+  }
+
+  private static long sizeOrZero(Path file) throws IOException {
+    try {
+      return Files.size(file);
+    } catch (NoSuchFileException e) {
+      return 0;
+    }
+  }
+
+  /** Returns the responses stored in the cache. */
+  private List<CacheFile> scan() throws IOException {
+    List<CacheFile> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+      for (Path file : stream) {
+        try {
+          files.add(new CacheFile(file, Files.size(file),
+              Files.getLastModifiedTime(file).toMillis()));
+        } catch (NoSuchFileException e) {
+          // Removed concurrently
+        }
+      }
+    }
+    return files;
+  }
+
+  /** A response stored in the cache. */
+  static final class CachedResponse {
+
+    private final String etag;
+    @Nullable private final String link;
+    private final byte[] body;
+
+    private CachedResponse(String etag, @Nullable String link, byte[] body) {
+      this.etag = etag;
+      this.link = link;
+      this.body = body;
+    }
+
+    String getETag() {
+      return etag;
+    }
+
+    /** The value of the 'Link' header, used for pagination. */
+    @Nullable
+    String getLink() {
+      return link;
+    }
+
+    ByteArrayInputStream getBody() {
+      return new ByteArrayInputStream(body);
+    }
+  }
+
+  private static final class CacheFile {
+
+    private final Path path;
+    private final long size;
+    private final long lastUsed;
+
+    private CacheFile(Path path, long size, long lastUsed) {
+      this.path = path;
+      this.size = size;
+      this.lastUsed = lastUsed;
+    }
+  }
+}
@@ -20,25 +20,35 @@ import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.json.JsonHttpContent;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.json.gson.GsonFactory;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.io.ByteStreams;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitCredential.UserPassword;
 import com.google.copybara.git.GitRepository;
+import com.google.copybara.git.github.api.GitHubApiResponseCache.CachedResponse;
 import com.google.copybara.util.console.Console;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Type;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Collection;
 import java.util.List;
@@ -58,36 +68,110 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
   private static final String API_PREFIX = API_URL + "/";
   private static final String GITHUB_WEB_URL = "https://github.com";
 
+  /** How long we reuse the credentials before asking the credential helper again. */
+  private static final Duration CREDENTIALS_TTL = Duration.ofMinutes(10);
+
   private final GitRepository repo;
-  private final HttpTransport httpTransport;
+  private final HttpRequestFactory requestFactory;
   private final String storePath;
   private final Console console;
+  private final Ticker ticker;
+  private final GitHubApiResponseCache responseCache;
+
+  @Nullable private CachedCredentials cachedCredentials;
 
   public GitHubApiTransportImpl(GitRepository repo, HttpTransport httpTransport,
       String storePath, Console console) {
+    this(repo, httpTransport, storePath, console, GitHubApiResponseCache.disabled());
+  }
+
+  public GitHubApiTransportImpl(GitRepository repo, HttpTransport httpTransport,
+      String storePath, Console console, GitHubApiResponseCache responseCache) {
+    this(repo, httpTransport, storePath, console, responseCache, request -> {});
+  }
+
+  /**
+   * @param rateLimiter initializes every request, so that it can be paced and retried when the
+   *     rate limit is reached
+   */
+  public GitHubApiTransportImpl(GitRepository repo, HttpTransport httpTransport,
+      String storePath, Console console, GitHubApiResponseCache responseCache,
+      HttpRequestInitializer rateLimiter) {
+    this(repo, httpTransport, storePath, console, Ticker.systemTicker(), responseCache,
+        rateLimiter);
+  }
+
+  @VisibleForTesting
+  GitHubApiTransportImpl(GitRepository repo, HttpTransport httpTransport,
+      String storePath, Console console, Ticker ticker) {
+    this(repo, httpTransport, storePath, console, ticker, GitHubApiResponseCache.disabled(),
+        request -> {});
+  }
+
+  private GitHubApiTransportImpl(GitRepository repo, HttpTransport httpTransport,
+      String storePath, Console console, Ticker ticker, GitHubApiResponseCache responseCache,
+      HttpRequestInitializer rateLimiter) {
+    Preconditions.checkNotNull(rateLimiter);
     this.repo = Preconditions.checkNotNull(repo);
-    this.httpTransport = Preconditions.checkNotNull(httpTransport);
+    this.requestFactory = Preconditions.checkNotNull(httpTransport).createRequestFactory(
+        request -> {
+          request.setConnectTimeout((int) Duration.ofMinutes(1).toMillis());
+          request.setReadTimeout((int) Duration.ofMinutes(1).toMillis());
+          request.setParser(new JsonObjectParser(JSON_FACTORY));
+          rateLimiter.initialize(request);
+        });
     this.storePath = storePath;
     this.console = Preconditions.checkNotNull(console);
+    this.ticker = Preconditions.checkNotNull(ticker);
+    this.responseCache = Preconditions.checkNotNull(responseCache);
   }
 
   @SuppressWarnings("unchecked")
   @Override
   public <T> T get(String path, Type responseType, ImmutableListMultimap<String, String> headers)
       throws RepoException, ValidationException {
-    HttpRequestFactory requestFactory = getHttpRequestFactory(getCredentialsIfPresent(), headers);
+    UserPassword credentials = getCredentialsIfPresent();
     GenericUrl url = new GenericUrl(URI.create(API_PREFIX + path));
+    String cacheKey = responseCache.isEnabled()
+        ? GitHubApiResponseCache.key(
+            path, credentials == null ? null : credentials.getUsername(), headers)
+        : null;
+    CachedResponse cached = cacheKey == null ? null : responseCache.get(cacheKey);
 
     try {
-      HttpRequest httpRequest = requestFactory.buildGetRequest(url);
-      HttpResponse response = httpRequest.execute();
-      Object responseObj = response.parseAs(responseType);
-      if (responseObj instanceof PaginatedList) {
-        return (T) ((PaginatedList) responseObj).withPaginationInfo(API_PREFIX,
-            maybeGetLinkHeader(response));
+      HttpRequest httpRequest =
+          withHeaders(requestFactory.buildGetRequest(url), credentials, headers);
+      if (cached != null) {
+        httpRequest.getHeaders().setIfNoneMatch(cached.getETag());
       }
-      return (T) responseObj;
+      HttpResponse response;
+      try {
+        response = httpRequest.execute();
+      } catch (HttpResponseException e) {
+        if (cached != null && e.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_MODIFIED) {
+          return parse(cached.getBody(), StandardCharsets.UTF_8, responseType, cached.getLink());
+        }
+        throw e;
+      }
+      String etag = response.getHeaders().getETag();
+      if (cacheKey == null || etag == null) {
+        Object responseObj = response.parseAs(responseType);
+        if (responseObj instanceof PaginatedList) {
+          return (T) ((PaginatedList) responseObj).withPaginationInfo(API_PREFIX,
+              maybeGetLinkHeader(response));
+        }
+        return (T) responseObj;
+      }
+      byte[] body;
+      try (InputStream content = response.getContent()) {
+        body = ByteStreams.toByteArray(content);
+      }
+      String link = maybeGetLinkHeader(response);
+      responseCache.put(cacheKey, etag, link, body);
+      return parse(new ByteArrayInputStream(body), response.getContentCharset(), responseType,
+          link);
     } catch (HttpResponseException e) {
+      maybeInvalidateCredentials(e);
       throw new GitHubApiException(e.getStatusCode(), parseErrorOrIgnore(e),
                                    "GET", path, null, e.getContent());
     } catch (IOException e) {
@@ -95,6 +179,17 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
     }
   }
 
+  @SuppressWarnings("unchecked")
+  private static <T> T parse(InputStream body, Charset charset, Type responseType,
+      @Nullable String link) throws IOException {
+    Object responseObj = new JsonObjectParser(JSON_FACTORY)
+        .parseAndClose(body, charset, responseType);
+    if (responseObj instanceof PaginatedList) {
+      return (T) ((PaginatedList) responseObj).withPaginationInfo(API_PREFIX, link);
+    }
+    return (T) responseObj;
+  }
+
   @SuppressWarnings("unchecked")
   @Nullable
   private static String maybeGetLinkHeader(HttpResponse response) {
@@ -137,13 +232,13 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
   @Override
   public <T> T post(String path, Object request, Type responseType)
       throws RepoException, ValidationException {
-    HttpRequestFactory requestFactory =
-        getHttpRequestFactory(getCredentials(), ImmutableListMultimap.of());
+    UserPassword credentials = getCredentials();
 
     GenericUrl url = new GenericUrl(URI.create(API_PREFIX + path));
     try {
-      HttpRequest httpRequest = requestFactory.buildPostRequest(url,
-          new JsonHttpContent(JSON_FACTORY, request));
+      HttpRequest httpRequest = withHeaders(
+          requestFactory.buildPostRequest(url, new JsonHttpContent(JSON_FACTORY, request)),
+          credentials, ImmutableListMultimap.of());
       HttpResponse response = httpRequest.execute();
       Object responseObj = response.parseAs(responseType);
       if (responseObj instanceof PaginatedList) {
@@ -153,6 +248,7 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
       return (T) responseObj;
 
     } catch (HttpResponseException e) {
+      maybeInvalidateCredentials(e);
       try {
         throw new GitHubApiException(e.getStatusCode(), parseErrorOrIgnore(e),
             "POST", path, JSON_FACTORY.toPrettyString(request), e.getContent());
@@ -168,13 +264,14 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
 
   @Override
   public void delete(String path) throws RepoException, ValidationException {
-    HttpRequestFactory requestFactory =
-        getHttpRequestFactory(getCredentials(), ImmutableListMultimap.of());
+    UserPassword credentials = getCredentials();
 
     GenericUrl url = new GenericUrl(URI.create(API_PREFIX + path));
     try {
-      requestFactory.buildDeleteRequest(url).execute();
+      withHeaders(requestFactory.buildDeleteRequest(url), credentials, ImmutableListMultimap.of())
+          .execute();
     } catch (HttpResponseException e) {
+      maybeInvalidateCredentials(e);
       throw new GitHubApiException(e.getStatusCode(), parseErrorOrIgnore(e),
           "DELETE", path, /*request=*/ null, e.getContent());
     } catch (IOException e) {
@@ -182,23 +279,47 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
     }
   }
 
-  private HttpRequestFactory getHttpRequestFactory(
+  private static HttpRequest withHeaders(HttpRequest request,
       @Nullable UserPassword userPassword, ImmutableListMultimap<String, String> headers) {
-    return httpTransport.createRequestFactory(
-        request -> {
-          request.setConnectTimeout((int) Duration.ofMinutes(1).toMillis());
-          request.setReadTimeout((int) Duration.ofMinutes(1).toMillis());
-          HttpHeaders httpHeaders = new HttpHeaders();
-          if (userPassword != null) {
-            httpHeaders.setBasicAuthentication(userPassword.getUsername(),
-                userPassword.getPassword_BeCareful());
-          }
-          for (Map.Entry<String, Collection<String>> header : headers.asMap().entrySet()) {
-            httpHeaders.put(header.getKey(), header.getValue());
-          }
-          request.setHeaders(httpHeaders);
-          request.setParser(new JsonObjectParser(JSON_FACTORY));
-        });
+    HttpHeaders httpHeaders = new HttpHeaders();
+    if (userPassword != null) {
+      httpHeaders.setBasicAuthentication(userPassword.getUsername(),
+          userPassword.getPassword_BeCareful());
+    }
+    for (Map.Entry<String, Collection<String>> header : headers.asMap().entrySet()) {
+      httpHeaders.put(header.getKey(), header.getValue());
+    }
+    return request.setHeaders(httpHeaders);
+  }
+
+  /**
+   * Bad credentials (for example a revoked token) are not reused. The next request will ask the
+   * credential helper again.
+   */
+  private synchronized void maybeInvalidateCredentials(HttpResponseException e) {
+    if (e.getStatusCode() == 401) {
+      cachedCredentials = null;
+    }
+  }
+
+  /**
+   * Gets the credentials from git credential helper, reusing the previous result for
+   * {@link #CREDENTIALS_TTL}, since each lookup runs one or two 'git credential fill' commands.
+   */
+  private synchronized UserPassword getCredentials() throws RepoException, ValidationException {
+    if (cachedCredentials == null
+        || ticker.read() - cachedCredentials.createdNanos >= CREDENTIALS_TTL.toNanos()) {
+      long now = ticker.read();
+      try {
+        cachedCredentials = new CachedCredentials(lookupCredentials(), null, now);
+      } catch (ValidationException e) {
+        cachedCredentials = new CachedCredentials(null, e, now);
+      }
+    }
+    if (cachedCredentials.error != null) {
+      throw cachedCredentials.error;
+    }
+    return cachedCredentials.credentials;
   }
 
   /**
@@ -206,7 +327,7 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
    * to get it for the api.github.com host, just in case the user has an specific token for that
    * url, otherwise we use the github.com host one.
    */
-  private UserPassword getCredentials() throws RepoException, ValidationException {
+  private UserPassword lookupCredentials() throws RepoException, ValidationException {
     try {
       return repo.credentialFill(API_URL);
     } catch (ValidationException e) {
@@ -229,4 +350,19 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
       }
     }
   }
+
+  /** The result of a credential lookup: either the credentials or the error. */
+  private static final class CachedCredentials {
+
+    @Nullable private final UserPassword credentials;
+    @Nullable private final ValidationException error;
+    private final long createdNanos;
+
+    private CachedCredentials(@Nullable UserPassword credentials,
+        @Nullable ValidationException error, long createdNanos) {
+      this.credentials = credentials;
+      this.error = error;
+      this.createdNanos = createdNanos;
+    }
+  }
 }
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.Key;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A pull request with its labels and reviews, fetched with one GitHub GraphQL query.
+ *
+ * <p>The GraphQL response is converted to the same objects that the REST API returns, so that
+ * callers can use either of them.
+ */
+public class PullRequestMetadata {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final JsonFactory JSON_FACTORY = new GsonFactory();
+
+  /** Max number of elements of each list. Bigger lists need to use the REST API. */
+  private static final int MAX_NODES = 100;
+
+  static final String QUERY = ""
+      + "query($owner: String!, $name: String!, $number: Int!) {\n"
+      + "  repository(owner: $owner, name: $name) {\n"
+      + "    pullRequest(number: $number) {\n"
+      + "      number title body url state createdAt updatedAt\n"
+      + "      author { login }\n"
+      + "      assignees(first: " + MAX_NODES + ") { totalCount nodes { login } }\n"
+      + "      labels(first: " + MAX_NODES + ") { totalCount nodes { name } }\n"
+      + "      reviewRequests(first: " + MAX_NODES + ") {\n"
+      + "        totalCount nodes { requestedReviewer { ... on User { login } } }\n"
+      + "      }\n"
+      + "      headRefName headRefOid headRepositoryOwner { login }\n"
+      + "      baseRefName baseRefOid baseRepository { owner { login } }\n"
+      + "      reviews(first: " + MAX_NODES + ") {\n"
+      + "        totalCount\n"
+      + "        nodes {\n"
+      + "          databaseId body state authorAssociation author { login } commit { oid }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n";
+
+  private final PullRequest pullRequest;
+  private final ImmutableList<Label> labels;
+  private final ImmutableList<Review> reviews;
+
+  private PullRequestMetadata(PullRequest pullRequest, ImmutableList<Label> labels,
+      ImmutableList<Review> reviews) {
+    this.pullRequest = Preconditions.checkNotNull(pullRequest);
+    this.labels = Preconditions.checkNotNull(labels);
+    this.reviews = Preconditions.checkNotNull(reviews);
+  }
+
+  public PullRequest getPullRequest() {
+    return pullRequest;
+  }
+
+  /** The labels of the pull request, like in {@link Issue#getLabels()}. */
+  public ImmutableList<Label> getLabels() {
+    return labels;
+  }
+
+  public ImmutableList<Review> getReviews() {
+    return reviews;
+  }
+
+  /** Returns the GraphQL request for the pull request {@code number} of {@code owner/name}. */
+  static ImmutableMap<String, Object> request(String owner, String name, long number) {
+    return ImmutableMap.of(
+        "query", QUERY,
+        "variables", ImmutableMap.of("owner", owner, "name", name, "number", number));
+  }
+
+  /**
+   * Returns the metadata in the GraphQL {@code response}, or null if the response has errors or
+   * some list didn't fit in the response.
+   */
+  @Nullable
+  static PullRequestMetadata fromGraphQl(GraphQlResponse response) throws IOException {
+    if (response.errors != null && !response.errors.isEmpty()) {
+      logger.atWarning().log("GitHub GraphQL query failed: %s", response.errors);
+      return null;
+    }
+    PullRequestNode pr = response.data == null || response.data.repository == null
+        ? null
+        : response.data.repository.pullRequest;
+    if (pr == null) {
+      return null;
+    }
+    if (!isComplete(pr.assignees) || !isComplete(pr.labels) || !isComplete(pr.reviewRequests)
+        || !isComplete(pr.reviews)) {
+      logger.atInfo().log("Pull Request %d doesn't fit in one GraphQL query", pr.number);
+      return null;
+    }
+
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("number", pr.number);
+    json.put("state", "OPEN".equals(pr.state) ? "open" : "closed");
+    json.put("title", pr.title);
+    json.put("body", pr.body);
+    json.put("html_url", pr.url);
+    json.put("created_at", pr.createdAt);
+    json.put("updated_at", pr.updatedAt);
+    json.put("user", user(pr.author));
+    List<Object> assignees = new ArrayList<>();
+    for (Actor assignee : pr.assignees.nodes) {
+      assignees.add(user(assignee));
+    }
+    json.put("assignees", assignees);
+    List<Object> requestedReviewers = new ArrayList<>();
+    for (ReviewRequestNode request : pr.reviewRequests.nodes) {
+      // Teams and other reviewers are not users and don't have a login
+      if (request.requestedReviewer != null && request.requestedReviewer.login != null) {
+        requestedReviewers.add(user(request.requestedReviewer));
+      }
+    }
+    json.put("requested_reviewers", requestedReviewers);
+    json.put("head", revision(pr.headRepositoryOwner, pr.headRefName, pr.headRefOid));
+    json.put("base", revision(pr.baseRepository == null ? null : pr.baseRepository.owner,
+        pr.baseRefName, pr.baseRefOid));
+
+    ImmutableList.Builder<Label> labels = ImmutableList.builder();
+    for (LabelNode label : pr.labels.nodes) {
+      labels.add(convert(ImmutableMap.of("name", label.name), Label.class));
+    }
+
+    ImmutableList.Builder<Review> reviews = ImmutableList.builder();
+    for (ReviewNode review : pr.reviews.nodes) {
+      Map<String, Object> reviewJson = new LinkedHashMap<>();
+      reviewJson.put("id", review.databaseId);
+      reviewJson.put("user", user(review.author));
+      reviewJson.put("body", review.body);
+      reviewJson.put("state", review.state);
+      reviewJson.put("author_association", review.authorAssociation);
+      reviewJson.put("commit_id", review.commit == null ? null : review.commit.oid);
+      reviews.add(convert(reviewJson, Review.class));
+    }
+
+    return new PullRequestMetadata(convert(json, PullRequest.class), labels.build(),
+        reviews.build());
+  }
+
+  private static boolean isComplete(@Nullable Connection connection) {
+    return connection != null && connection.nodes() != null
+        && connection.nodes().size() >= connection.totalCount;
+  }
+
+  private static Map<String, Object> user(@Nullable Actor actor) {
+    // Like the REST API, deleted users are shown as 'ghost'
+    return ImmutableMap.of("login", actor == null ? "ghost" : actor.login);
+  }
+
+  private static Map<String, Object> revision(@Nullable Actor owner, String ref, String sha) {
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("label", owner == null ? ref : owner.login + ":" + ref);
+    json.put("ref", ref);
+    json.put("sha", sha);
+    return json;
+  }
+
+  /** Converts the REST representation of an object to its class. */
+  private static <T> T convert(Map<String, Object> json, Class<T> clazz) throws IOException {
+    return JSON_FACTORY.fromString(JSON_FACTORY.toString(json), clazz);
+  }
+
+  /** The GraphQL response for {@link #QUERY}. */
+  public static class GraphQlResponse {
+    @Key Data data;
+    @Key List<GraphQlError> errors;
+  }
+
+  /** An error in a GraphQL response. */
+  public static class GraphQlError {
+    @Key String type;
+    @Key String message;
+
+    @Override
+    public String toString() {
+      return type + ": " + message;
+    }
+  }
+
+  /** The 'data' field of the response. */
+  public static class Data {
+    @Key Repository repository;
+  }
+
+  /** A repository in the response. */
+  public static class Repository {
+    @Key PullRequestNode pullRequest;
+    @Key Actor owner;
+  }
+
+  /** A pull request in the response. */
+  public static class PullRequestNode {
+    @Key long number;
+    @Key String title;
+    @Key String body;
+    @Key String url;
+    @Key String state;
+    @Key String createdAt;
+    @Key String updatedAt;
+    @Key Actor author;
+    @Key ActorConnection assignees;
+    @Key LabelConnection labels;
+    @Key ReviewRequestConnection reviewRequests;
+    @Key String headRefName;
+    @Key String headRefOid;
+    @Key Actor headRepositoryOwner;
+    @Key String baseRefName;
+    @Key String baseRefOid;
+    @Key Repository baseRepository;
+    @Key ReviewConnection reviews;
+  }
+
+  /** A user, team or bot in the response. */
+  public static class Actor {
+    @Key String login;
+  }
+
+  /** A label in the response. */
+  public static class LabelNode {
+    @Key String name;
+  }
+
+  /** A review request in the response. */
+  public static class ReviewRequestNode {
+    @Key Actor requestedReviewer;
+  }
+
+  /** A review in the response. */
+  public static class ReviewNode {
+    @Key long databaseId;
+    @Key String body;
+    @Key String state;
+    @Key String authorAssociation;
+    @Key Actor author;
+    @Key CommitNode commit;
+  }
+
+  /** A commit in the response. */
+  public static class CommitNode {
+    @Key String oid;
+  }
+
+  /** The first page of a GraphQL list. */
+  public abstract static class Connection {
+    @Key int totalCount;
+
+    @Nullable
+    abstract List<?> nodes();
+  }
+
+  /** A page of users. */
+  public static class ActorConnection extends Connection {
+    @Key List<Actor> nodes;
+
+    @Override
+    List<?> nodes() {
+      return nodes;
+    }
+  }
+
+  /** A page of labels. */
+  public static class LabelConnection extends Connection {
+    @Key List<LabelNode> nodes;
+
+    @Override
+    List<?> nodes() {
+      return nodes;
+    }
+  }
+
+  /** A page of review requests. */
+  public static class ReviewRequestConnection extends Connection {
+    @Key List<ReviewRequestNode> nodes;
+
+    @Override
+    List<?> nodes() {
+      return nodes;
+    }
+  }
+
+  /** A page of reviews. */
+  public static class ReviewConnection extends Connection {
+    @Key List<ReviewNode> nodes;
+
+    @Override
+    List<?> nodes() {
+      return nodes;
+    }
+  }
+}
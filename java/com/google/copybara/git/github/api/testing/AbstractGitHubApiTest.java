@@ -274,6 +274,26 @@ public abstract class AbstractGitHubApiTest {
     }
   }
 
+  @Test
+  public void testGetPullReviews_pagesAreCappedAndOrdered() throws Exception {
+    String link = ""
+        + "<https://api.github.com/repositories/123/pulls?per_page=100&page=2>; rel=\"next\", "
+        + "<https://api.github.com/repositories/123/pulls?per_page=100&page=9>; rel=\"last\"";
+    trainMockGetWithHeaders("/repos/octocat/Hello-World/pulls/12/reviews?per_page=100",
+        "[{\"id\": 1}]".getBytes(UTF_8), ImmutableMap.of("Link", link), 200);
+    // Only MAX_PAGES are fetched. Pages after 5 are not trained and would fail.
+    for (int page = 2; page <= 5; page++) {
+      trainMockGetWithHeaders("/repositories/123/pulls?per_page=100&page=" + page,
+          String.format("[{\"id\": %d}]", page).getBytes(UTF_8), ImmutableMap.of(), 200);
+    }
+
+    List<Review> reviews = api.getReviews("octocat/Hello-World", 12);
+
+    assertThat(Lists.transform(reviews, Review::getId))
+        .containsExactly(1L, 2L, 3L, 4L, 5L)
+        .inOrder();
+  }
+
   @Test
   public void testGetLsRemote() throws Exception {
     trainMockGet(
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api.testing;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonObjectParser;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.git.github.api.GitHubApiException;
+import com.google.copybara.git.github.api.GitHubApiTransport;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory {@link GitHubApiTransport} that returns canned JSON responses and records the
+ * requests, for testing code that uses {@link com.google.copybara.git.github.api.GitHubApi}
+ * without HTTP mocks.
+ *
+ * <p>Requests without a canned response fail with a 404.
+ */
+public class FakeGitHubApiTransport implements GitHubApiTransport {
+
+  private static final JsonFactory JSON_FACTORY = new GsonFactory();
+
+  private final Map<String, String> responses = new HashMap<>();
+  private final List<String> requests = new ArrayList<>();
+
+  /** Returns {@code json} for GET requests of {@code path}. */
+  public FakeGitHubApiTransport withGet(String path, String json) {
+    responses.put("GET " + path, json);
+    return this;
+  }
+
+  /** Returns {@code json} for POST requests to {@code path}. */
+  public FakeGitHubApiTransport withPost(String path, String json) {
+    responses.put("POST " + path, json);
+    return this;
+  }
+
+  /**
+   * The requests received, like "GET repos/foo/bar/pulls/1". POST requests include their body in
+   * JSON after the path.
+   */
+  public List<String> getRequests() {
+    return requests;
+  }
+
+  @Override
+  public <T> T get(String path, Type responseType, ImmutableListMultimap<String, String> headers)
+      throws RepoException, ValidationException {
+    requests.add("GET " + path);
+    return respond("GET", path, responseType);
+  }
+
+  @Override
+  public <T> T post(String path, Object request, Type responseType)
+      throws RepoException, ValidationException {
+    try {
+      requests.add("POST " + path + " " + JSON_FACTORY.toString(request));
+    } catch (IOException e) {
+      throw new RepoException("Cannot serialize request", e);
+    }
+    return respond("POST", path, responseType);
+  }
+
+  @Override
+  public void delete(String path) throws RepoException, ValidationException {
+    requests.add("DELETE " + path);
+    respond("DELETE", path, Object.class);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T respond(String method, String path, Type responseType) throws RepoException {
+    String json = responses.get(method + " " + path);
+    if (json == null) {
+      throw new GitHubApiException(404, /*error=*/ null, method, path, /*request=*/ null,
+          "Not found");
+    }
+    try {
+      return (T) new JsonObjectParser(JSON_FACTORY)
+          .parseAndClose(new StringReader(json), responseType);
+    } catch (IOException e) {
+      throw new RepoException("Invalid response for " + path + ": " + json, e);
+    }
+  }
+}
@@ -38,7 +38,6 @@ import com.google.copybara.util.DiffUtil.DiffFile;
 import com.google.copybara.util.DiffUtil.DiffFile.Operation;
 import com.google.copybara.util.FileUtil;
 import com.google.copybara.util.Glob;
-import com.google.copybara.util.InsideGitDirException;
 import com.google.copybara.util.console.Console;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -226,9 +225,7 @@ public class HgDestination implements Destination<HgRevision> {
 
       try {
         // Compute the diff between an archive of the remote repo and the workdir
-        ImmutableList<DiffFile> diffFiles = DiffUtil
-            .diffFiles(tempArchivePath, workDir, generalOptions.isVerbose(),
-                generalOptions.getEnvironment());
+        ImmutableList<DiffFile> diffFiles = DiffUtil.diffFiles(tempArchivePath, workDir);
 
         for (DiffFile diff : diffFiles) {
           if (visitor.excluded.contains(diff.getName())) {
@@ -259,8 +256,6 @@ public class HgDestination implements Destination<HgRevision> {
             }
           }
         }
-      } catch (InsideGitDirException e) {
-        throw new RepoException(String.format("Error computing file diff: %s", e.getMessage()), e);
       } finally {
         FileUtil.deleteRecursively(tempArchivePath);
       }
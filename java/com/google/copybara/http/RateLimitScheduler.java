@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.http;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.util.Clock;
+import com.google.api.client.util.Sleeper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.copybara.profiler.Profiler;
+import com.google.copybara.profiler.Profiler.ProfilerTask;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * Schedules the requests to a rate limited HTTP API, like GitHub or Gerrit, so that a large number
+ * of requests slows down instead of failing.
+ *
+ * <p>For each host and credential we track the quota reported in the {@code X-RateLimit-*}
+ * response headers, since servers like GitHub count the requests per user. GitHub also has a
+ * separate quota for each resource ({@code core}, {@code search}, {@code graphql}...), reported in
+ * {@code X-RateLimit-Resource}, so we track one quota per resource and remember the resource of
+ * each endpoint. When the remaining quota gets low, requests are queued and spread until the quota
+ * is reset. When it is exhausted, the requests that use it wait for the reset. When the server
+ * answers with a 429 or a 403 with {@code Retry-After} (GitHub secondary rate limits), all the
+ * requests to the host with the same credential wait, and the rejected request is retried with an
+ * exponential backoff.
+ *
+ * <p>The time spent waiting is reported in the profiler as 'rate_limit_wait' tasks.
+ *
+ * <p>This class is thread-safe and meant to be shared by all the transports of the process.
+ */
+public final class RateLimitScheduler {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final int DEFAULT_MAX_RETRIES = 6;
+  private static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofSeconds(5);
+  private static final Duration DEFAULT_MAX_BACKOFF = Duration.ofMinutes(5);
+
+  /** Start pacing the requests when less than this fraction of the quota is left. */
+  private static final double LOW_QUOTA_FRACTION = 0.1;
+
+  private final Clock clock;
+  private final Sleeper sleeper;
+  private final int maxRetries;
+  private final Duration initialBackoff;
+  private final Duration maxBackoff;
+  // By host and hash of the credential
+  private final ConcurrentMap<String, HostState> hosts = new ConcurrentHashMap<>();
+
+  public RateLimitScheduler() {
+    this(Clock.SYSTEM, Sleeper.DEFAULT, DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_BACKOFF,
+        DEFAULT_MAX_BACKOFF);
+  }
+
+  @VisibleForTesting
+  public RateLimitScheduler(Clock clock, Sleeper sleeper, int maxRetries, Duration initialBackoff,
+      Duration maxBackoff) {
+    this.clock = Preconditions.checkNotNull(clock);
+    this.sleeper = Preconditions.checkNotNull(sleeper);
+    Preconditions.checkArgument(maxRetries >= 0, "Invalid max retries: %s", maxRetries);
+    this.maxRetries = maxRetries;
+    this.initialBackoff = Preconditions.checkNotNull(initialBackoff);
+    this.maxBackoff = Preconditions.checkNotNull(maxBackoff);
+  }
+
+  /**
+   * Returns an initializer that makes the requests go through this scheduler. Waits are recorded
+   * in {@code profiler}.
+   */
+  public HttpRequestInitializer requestInitializer(Profiler profiler) {
+    Preconditions.checkNotNull(profiler);
+    return request -> {
+      // The credentials are usually set after the initializers, so the quota is looked up when the
+      // request is executed.
+      request.setInterceptor(r -> waitForTurn(r, profiler));
+      request.setResponseInterceptor(response -> hostState(response.getRequest())
+          .update(endpoint(response.getRequest()), response.getHeaders(), now()));
+      request.setUnsuccessfulResponseHandler(new RetryHandler());
+      request.setNumberOfRetries(Math.max(request.getNumberOfRetries(), maxRetries));
+    };
+  }
+
+  /** Returns the quota shared by the requests to the same host with the same credential. */
+  private HostState hostState(HttpRequest request) {
+    String authorization = request.getHeaders().getAuthorization();
+    // Hashed, so that we don't keep the credentials in memory
+    String key = request.getUrl().getHost() + "\0" + (authorization == null
+        ? ""
+        : Hashing.sha256().hashString(authorization, StandardCharsets.UTF_8).toString());
+    return hosts.computeIfAbsent(key, k -> new HostState());
+  }
+
+  /**
+   * Returns the part of the path that identifies the API of the request, like {@code repos},
+   * {@code search} or {@code graphql}.
+   */
+  private static String endpoint(HttpRequest request) {
+    List<String> parts = request.getUrl().getPathParts();
+    if (parts == null) {
+      return "";
+    }
+    // The first part is empty, since the path starts with '/'
+    int i = 1;
+    // GitHub Enterprise serves the API under /api/v3 and /api/graphql
+    if (i < parts.size() && parts.get(i).equals("api")) {
+      i++;
+    }
+    if (i < parts.size() && parts.get(i).equals("v3")) {
+      i++;
+    }
+    return i < parts.size() ? parts.get(i) : "";
+  }
+
+  private void waitForTurn(HttpRequest request, Profiler profiler) throws IOException {
+    long waitMillis = hostState(request).reserve(endpoint(request), now());
+    if (waitMillis <= 0) {
+      return;
+    }
+    try (ProfilerTask ignore = profiler.start("rate_limit_wait")) {
+      sleeper.sleep(waitMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the rate limit");
+    }
+  }
+
+  private long now() {
+    return clock.currentTimeMillis();
+  }
+
+  private static boolean isRateLimited(HttpResponse response) {
+    if (response.getStatusCode() == 429) {
+      return true;
+    }
+    if (response.getStatusCode() != HttpStatusCodes.STATUS_CODE_FORBIDDEN) {
+      return false;
+    }
+    // A 403 can also be a permission error. We only retry the ones that tell us to wait.
+    HttpHeaders headers = response.getHeaders();
+    return headers.getFirstHeaderStringValue("Retry-After") != null
+        || "0".equals(headers.getFirstHeaderStringValue("X-RateLimit-Remaining"));
+  }
+
+  /** Retries the requests rejected by the rate limit, blocking the quota until the retry. */
+  private class RetryHandler implements HttpUnsuccessfulResponseHandler {
+
+    private int retries;
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response,
+        boolean supportsRetry) {
+      HostState host = hostState(request);
+      long now = now();
+      host.update(endpoint(request), response.getHeaders(), now);
+      if (!supportsRetry || !isRateLimited(response) || retries >= maxRetries) {
+        return false;
+      }
+      long waitMillis = retryAfterMillis(response.getHeaders());
+      if (waitMillis < 0) {
+        waitMillis = quotaResetMillis(response.getHeaders(), now);
+      }
+      // An exhausted quota only blocks the requests that use it, and the update above already
+      // makes them wait for the reset. Otherwise we don't know what is limited, so we block all of
+      // them.
+      if (waitMillis < 0) {
+        waitMillis = Math.min(initialBackoff.toMillis() << Math.min(retries, 20),
+            maxBackoff.toMillis());
+        host.blockUntil(now + waitMillis);
+      } else if (response.getHeaders().getFirstHeaderStringValue("Retry-After") != null) {
+        host.blockUntil(now + waitMillis);
+      }
+      retries++;
+      logger.atWarning().log("Rate limited by %s (HTTP %d). Retrying in %d ms (retry %d of %d)",
+          request.getUrl().getHost(), response.getStatusCode(), waitMillis, retries, maxRetries);
+      return true;
+    }
+  }
+
+  /** Returns how long the server asked us to wait, or -1 if it didn't say. */
+  private static long retryAfterMillis(HttpHeaders headers) {
+    Long retryAfter = parseLong(headers.getFirstHeaderStringValue("Retry-After"));
+    return retryAfter != null ? Duration.ofSeconds(retryAfter).toMillis() : -1;
+  }
+
+  /** Returns how long until the exhausted quota is reset, or -1 if it is not exhausted. */
+  private static long quotaResetMillis(HttpHeaders headers, long now) {
+    Long reset = parseLong(headers.getFirstHeaderStringValue("X-RateLimit-Reset"));
+    if (reset != null && "0".equals(headers.getFirstHeaderStringValue("X-RateLimit-Remaining"))) {
+      return Math.max(Duration.ofSeconds(reset).toMillis() - now, 0);
+    }
+    return -1;
+  }
+
+  @Nullable
+  private static Long parseLong(@Nullable String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      // For example, Retry-After can also be an HTTP date. The backoff is good enough.
+      return null;
+    }
+  }
+
+  /** The pending waits of a host and credential, and its quota for each resource. */
+  private static class HostState {
+
+    private long blockedUntil;
+    // By resource. Servers that don't report the resource only have the "" one.
+    private final Map<String, Quota> quotas = new HashMap<>();
+    // The resource of each endpoint, as reported in its responses
+    private final Map<String, String> resources = new HashMap<>();
+
+    /** Reserves a slot for the next request and returns how long it needs to wait for it. */
+    private synchronized long reserve(String endpoint, long now) {
+      long start = Math.max(now, blockedUntil);
+      Quota quota = quotas.get(resources.getOrDefault(endpoint, ""));
+      return (quota == null ? start : quota.reserve(start)) - now;
+    }
+
+    private synchronized void blockUntil(long time) {
+      blockedUntil = Math.max(blockedUntil, time);
+    }
+
+    private synchronized void update(String endpoint, HttpHeaders headers, long now) {
+      String resource = headers.getFirstHeaderStringValue("X-RateLimit-Resource");
+      if (resource != null) {
+        resources.put(endpoint, resource);
+      } else {
+        resource = resources.getOrDefault(endpoint, "");
+      }
+      quotas.computeIfAbsent(resource, r -> new Quota()).update(headers, now);
+    }
+  }
+
+  /** The quota of a resource. Guarded by the {@link HostState} that contains it. */
+  private static class Quota {
+
+    private long nextRequest;
+    // -1 if unknown
+    private long limit = -1;
+    private long remaining = -1;
+    private long reset = -1;
+
+    /** Reserves a slot for a request that can start at {@code start} and returns its start. */
+    private long reserve(long start) {
+      start = Math.max(start, nextRequest);
+      if (reset > start && remaining >= 0) {
+        if (remaining == 0) {
+          start = reset;
+        } else if (remaining < limit * LOW_QUOTA_FRACTION) {
+          // Spread the quota that is left until it is reset
+          nextRequest = start + (reset - start) / remaining;
+          remaining--;
+        }
+      }
+      return start;
+    }
+
+    private void update(HttpHeaders headers, long now) {
+      Long newLimit = parseLong(headers.getFirstHeaderStringValue("X-RateLimit-Limit"));
+      Long newRemaining = parseLong(headers.getFirstHeaderStringValue("X-RateLimit-Remaining"));
+      Long newReset = parseLong(headers.getFirstHeaderStringValue("X-RateLimit-Reset"));
+      if (newRemaining == null || newReset == null) {
+        return;
+      }
+      long resetMillis = Duration.ofSeconds(newReset).toMillis();
+      if (resetMillis <= now) {
+        return;
+      }
+      // Responses of concurrent requests can arrive in any order
+      remaining = resetMillis == reset ? Math.min(remaining, newRemaining) : newRemaining;
+      reset = resetMillis;
+      if (newLimit != null) {
+        limit = newLimit;
+      }
+    }
+  }
+}
@@ -25,6 +25,7 @@ import com.google.copybara.LocalParallelizer.TransformFunc;
 import com.google.copybara.NonReversibleValidationException;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
+import com.google.copybara.TransformationCache;
 import com.google.copybara.WorkflowOptions;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.treestate.TreeState.FileState;
@@ -36,6 +37,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import javax.annotation.Nullable;
 import net.starlark.java.annot.StarlarkBuiltin;
 import net.starlark.java.syntax.Location;
@@ -75,7 +77,7 @@ public class FilterReplace implements Transformation, ReversibleFunction<String,
     Path checkoutDir = work.getCheckoutDir();
 
     Iterable<FileState> files = work.getTreeState().find(glob.relativeTo(checkoutDir));
-    BatchReplace batchReplace = new BatchReplace();
+    BatchReplace batchReplace = new BatchReplace(workflowOptions.transformationCache());
     workflowOptions.parallelizer().run(files, batchReplace);
     List<FileState> changed = batchReplace.getChanged();
     boolean matchedFile = batchReplace.matchedFile;
@@ -129,16 +131,21 @@ public class FilterReplace implements Transformation, ReversibleFunction<String,
 
   private class BatchReplace implements TransformFunc<FileState, Boolean> {
 
+    private final TransformationCache cache;
     private final List<FileState> changed = new ArrayList<>();
     private boolean matchedFile = false;
 
+    private BatchReplace(TransformationCache cache) {
+      this.cache = cache;
+    }
+
     public List<FileState> getChanged() {
       return changed;
     }
 
 
     @Override
-    public Boolean run(Iterable<FileState> elements) throws IOException {
+    public Boolean run(Iterable<FileState> elements) throws IOException, ValidationException {
       List<FileState> changed = new ArrayList<>();
       boolean matchedFile = false;
       for (FileState file : elements) {
@@ -146,16 +153,20 @@ public class FilterReplace implements Transformation, ReversibleFunction<String,
           continue;
         }
         matchedFile = true;
-        String originalContent = new String(Files.readAllBytes(file.getPath()), UTF_8);
-        String transformed = replaceString(originalContent);
-        // replaceString returns the same instance if not replacement happens. This avoid comparing
-        // the whole file content.
-        //noinspection StringEquality
-        if (transformed == originalContent) {
+        Optional<String> transformed = cache.get(FilterReplace.this,
+            Files.readAllBytes(file.getPath()), bytes -> {
+              String originalContent = new String(bytes, UTF_8);
+              String result = replaceString(originalContent);
+              // replaceString returns the same instance if not replacement happens. This avoid
+              // comparing the whole file content.
+              //noinspection StringEquality
+              return result == originalContent ? Optional.empty() : Optional.of(result);
+            });
+        if (!transformed.isPresent()) {
           continue;
         }
         changed.add(file);
-        Files.write(file.getPath(), transformed.getBytes(UTF_8));
+        Files.write(file.getPath(), transformed.get().getBytes(UTF_8));
       }
 
       synchronized (this) {
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * An Aho-Corasick automaton that finds which of a set of literals are contained in a string, in
+ * a single pass over the string.
+ *
+ * <p>Instances are immutable and can be shared between threads.
+ */
+final class LiteralSetMatcher {
+
+  private static final int ROOT = 0;
+  private static final int NONE = -1;
+
+  // For each node, the sorted characters of its transitions and the nodes they go to
+  private final char[][] transitionChars;
+  private final int[][] transitionNodes;
+  // For each node, the node of its longest proper suffix in the trie
+  private final int[] failure;
+  // For each node, the closest node in the failure chain that ends a literal, or NONE
+  private final int[] output;
+  // For each node, the indexes of the literals that end in it
+  private final int[][] literalsAt;
+
+  LiteralSetMatcher(List<String> literals) {
+    List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+    List<List<Integer>> ends = new ArrayList<>();
+    trie.add(new TreeMap<>());
+    ends.add(new ArrayList<>());
+    for (int i = 0; i < literals.size(); i++) {
+      String literal = literals.get(i);
+      Preconditions.checkArgument(!literal.isEmpty(), "Empty literal at %s", i);
+      int node = ROOT;
+      for (int c = 0; c < literal.length(); c++) {
+        Integer next = trie.get(node).get(literal.charAt(c));
+        if (next == null) {
+          next = trie.size();
+          trie.add(new TreeMap<>());
+          ends.add(new ArrayList<>());
+          trie.get(node).put(literal.charAt(c), next);
+        }
+        node = next;
+      }
+      ends.get(node).add(i);
+    }
+
+    int size = trie.size();
+    transitionChars = new char[size][];
+    transitionNodes = new int[size][];
+    literalsAt = new int[size][];
+    for (int node = 0; node < size; node++) {
+      TreeMap<Character, Integer> transitions = trie.get(node);
+      transitionChars[node] = new char[transitions.size()];
+      transitionNodes[node] = new int[transitions.size()];
+      int t = 0;
+      for (Entry<Character, Integer> e : transitions.entrySet()) {
+        transitionChars[node][t] = e.getKey();
+        transitionNodes[node][t] = e.getValue();
+        t++;
+      }
+      literalsAt[node] = ends.get(node).stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Breadth first, so that the failure node of the parent is always computed before
+    failure = new int[size];
+    output = new int[size];
+    output[ROOT] = NONE;
+    Deque<Integer> queue = new ArrayDeque<>();
+    for (int child : transitionNodes[ROOT]) {
+      failure[child] = ROOT;
+      output[child] = NONE;
+      queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      int node = queue.remove();
+      for (int t = 0; t < transitionChars[node].length; t++) {
+        char c = transitionChars[node][t];
+        int child = transitionNodes[node][t];
+        int fallback = failure[node];
+        while (fallback != ROOT && next(fallback, c) == NONE) {
+          fallback = failure[fallback];
+        }
+        int suffix = next(fallback, c);
+        failure[child] = suffix == NONE ? ROOT : suffix;
+        output[child] = literalsAt[failure[child]].length > 0
+            ? failure[child]
+            : output[failure[child]];
+        queue.add(child);
+      }
+    }
+  }
+
+  /** Returns the indexes of the literals that {@code text} contains. */
+  BitSet find(String text) {
+    // Nodes whose literals, and the ones in their output chain, have been found
+    BitSet found = new BitSet();
+    int node = ROOT;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      int next = next(node, c);
+      while (next == NONE && node != ROOT) {
+        node = failure[node];
+        next = next(node, c);
+      }
+      node = next == NONE ? ROOT : next;
+      int match = literalsAt[node].length > 0 ? node : output[node];
+      while (match != NONE && !found.get(match)) {
+        found.set(match);
+        match = output[match];
+      }
+    }
+    BitSet literals = new BitSet();
+    for (int n = found.nextSetBit(0); n >= 0; n = found.nextSetBit(n + 1)) {
+      for (int literal : literalsAt[n]) {
+        literals.set(literal);
+      }
+    }
+    return literals;
+  }
+
+  private int next(int node, char c) {
+    int t = Arrays.binarySearch(transitionChars[node], c);
+    return t < 0 ? NONE : transitionNodes[node][t];
+  }
+}
@@ -18,21 +18,20 @@ package com.google.copybara.transform;
 
 import static com.google.copybara.config.SkylarkUtil.check;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Bytes;
 import com.google.copybara.templatetoken.Parser;
 import com.google.copybara.templatetoken.Token;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -53,6 +52,7 @@ public final class RegexTemplateTokens {
   private final ArrayListMultimap<String, Integer> groupIndexes = ArrayListMultimap.create();
   private final ImmutableList<Token> tokens;
   private final Set<String> unusedGroups;
+  @Nullable private final String longestLiteral;
 
   public RegexTemplateTokens(
       String template, Map<String, Pattern> regexGroups, boolean repeatedGroups)
@@ -63,6 +63,23 @@ public final class RegexTemplateTokens {
     this.before = buildBefore(regexGroups, repeatedGroups);
 
     this.unusedGroups = Sets.difference(regexGroups.keySet(), groupIndexes.keySet());
+    this.longestLiteral = computeLongestLiteral();
+  }
+
+  /**
+   * Every match of {@link #getBefore()} contains all the literal tokens, so the longest one can be
+   * used to discard content cheaply before running the regex.
+   */
+  @Nullable
+  private String computeLongestLiteral() {
+    String longest = null;
+    for (Token token : tokens) {
+      if (token.getType() == Token.TokenType.LITERAL
+          && (longest == null || token.getValue().length() > longest.length())) {
+        longest = token.getValue();
+      }
+    }
+    return longest == null || longest.isEmpty() ? null : longest;
   }
 
   /**
@@ -73,6 +90,15 @@ public final class RegexTemplateTokens {
     return before;
   }
 
+  /**
+   * Returns a literal that every match of {@link #getBefore()} contains, or null if the template
+   * doesn't have literals.
+   */
+  @Nullable
+  public String getLongestLiteral() {
+    return longestLiteral;
+  }
+
   public ImmutableListMultimap<String, Integer> getGroupIndexes() {
     return ImmutableListMultimap.copyOf(groupIndexes);
   }
@@ -101,6 +127,7 @@ public final class RegexTemplateTokens {
     private final boolean multiline;
     private final String afterReplaceTemplate;
     private final Multimap<String, Integer> repeatedGroups = ArrayListMultimap.create();
+    @Nullable private final byte[] longestLiteralBytes;
 
     @Nullable
     private final List<Pattern> patternsToIgnore;
@@ -126,18 +153,67 @@ public final class RegexTemplateTokens {
       this.multiline = multiline;
       this.callback = callback;
       this.patternsToIgnore = patternsToIgnore;
+      // U+FFFD could come from malformed input, that would not match the encoded literal.
+      this.longestLiteralBytes = longestLiteral == null || longestLiteral.indexOf('\uFFFD') != -1
+          ? null
+          : longestLiteral.getBytes(StandardCharsets.UTF_8);
     }
 
-    public String replace(String content) {
-      List<String> originalRanges = multiline
-          ? ImmutableList.of(content)
-          : Splitter.on('\n').splitToList(content);
+    /**
+     * Returns false if the UTF-8 encoded {@code content} cannot contain any match, without having
+     * to decode it. A true value doesn't guarantee that {@link #replace(String)} changes it.
+     */
+    public boolean mightMatch(byte[] content) {
+      return longestLiteralBytes == null || Bytes.indexOf(content, longestLiteralBytes) != -1;
+    }
 
-      List<String> newRanges = new ArrayList<>(originalRanges.size());
-      for (String line : originalRanges) {
-        newRanges.add(replaceLine(line));
+    /**
+     * Applies the replacement to {@code content}, returning the same instance if nothing changed.
+     *
+     * <p>Only the lines that contain the longest literal of the before template are matched
+     * against the regex, and the result is only built if some line changes.
+     */
+    public String replace(String content) {
+      if (longestLiteral != null && !content.contains(longestLiteral)) {
+        return content;
+      }
+      if (multiline) {
+        return replaceLine(content);
+      }
+      if (longestLiteral != null && longestLiteral.indexOf('\n') != -1) {
+        // Cannot match a single line
+        return content;
       }
-      return Joiner.on('\n').join(newRanges);
+      StringBuilder sb = null;
+      int copied = 0;
+      int lineStart = 0;
+      while (lineStart <= content.length()) {
+        if (longestLiteral != null) {
+          int candidate = content.indexOf(longestLiteral, lineStart);
+          if (candidate == -1) {
+            break;
+          }
+          lineStart = content.lastIndexOf('\n', candidate) + 1;
+        }
+        int lineEnd = content.indexOf('\n', lineStart);
+        if (lineEnd == -1) {
+          lineEnd = content.length();
+        }
+        String line = content.substring(lineStart, lineEnd);
+        String replaced = replaceLine(line);
+        if (!replaced.equals(line)) {
+          if (sb == null) {
+            sb = new StringBuilder(content.length() + 16);
+          }
+          sb.append(content, copied, lineStart).append(replaced);
+          copied = lineEnd;
+        }
+        lineStart = lineEnd + 1;
+      }
+      if (sb == null) {
+        return content;
+      }
+      return sb.append(content, copied, content.length()).toString();
     }
 
     private String replaceLine(String line) {
@@ -150,8 +226,11 @@ public final class RegexTemplateTokens {
       }
 
       Matcher matcher = before.matcher(line);
+      if (!matcher.find()) {
+        return line;
+      }
       StringBuilder sb = new StringBuilder(line.length());
-      while (matcher.find()) {
+      do {
         for (Collection<Integer> groupIndexes : repeatedGroups.asMap().values()) {
           // Check that all the references of the repeated group match the same string
           Iterator<Integer> iterator = groupIndexes.iterator();
@@ -175,10 +254,7 @@ public final class RegexTemplateTokens {
         }
 
         matcher.appendReplacement(sb, replaceTemplate);
-        if (firstOnly) {
-          break;
-        }
-      }
+      } while (!firstOnly && matcher.find());
       matcher.appendTail(sb);
       return sb.toString();
     }
@@ -17,17 +17,20 @@
 package com.google.copybara.transform;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.copybara.LocalParallelizer;
 import com.google.copybara.NonReversibleValidationException;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
+import com.google.copybara.TransformationCache;
 import com.google.copybara.WorkflowOptions;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.transform.RegexTemplateTokens.Replacer;
@@ -40,10 +43,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import net.starlark.java.eval.EvalException;
 import net.starlark.java.eval.Starlark;
 import net.starlark.java.syntax.Location;
@@ -117,33 +124,82 @@ public final class Replace implements Transformation {
   @Override
   public void transform(TransformWork work)
       throws IOException, ValidationException {
+    transform(work, ImmutableList.of(this));
+  }
 
-    work.getConsole().verboseFmt("Running Replace %s", this);
-    if (before.getBefore().matches("") && !firstOnly) {
-      work.getConsole().warnFmt("Replace %s matches the empty String, this is likely to cause"
-          + " unintended behavior, unless it is a no-op.", this);
+  /**
+   * Applies {@code replaces}, that share the same paths, reading and writing each file only once.
+   * The result and no-op reporting is the same as running them one after the other.
+   */
+  private static void transform(TransformWork work, ImmutableList<Replace> replaces)
+      throws IOException, ValidationException {
+    for (Replace replace : replaces) {
+      work.getConsole().verboseFmt("Running Replace %s", replace);
+      if (replace.before.getBefore().matches("") && !replace.firstOnly) {
+        work.getConsole().warnFmt("Replace %s matches the empty String, this is likely to cause"
+            + " unintended behavior, unless it is a no-op.", replace);
+      }
     }
+    Replace first = replaces.get(0);
     Path checkoutDir = work.getCheckoutDir();
+    // When a no-op fails the transformation, only the replaces before it should have been
+    // applied, so we don't write anything until we know the result.
+    boolean noopFails = replaces.size() > 1
+        && !first.workflowOptions.ignoreNoop && !work.getIgnoreNoop();
 
     Iterable<FileState> files = work.getTreeState().find(
-        paths.relativeTo(checkoutDir));
-    BatchReplace batchReplace = new BatchReplace(this::createReplacer);
-    workflowOptions.parallelizer().run(files, batchReplace);
+        first.paths.relativeTo(checkoutDir));
+    BatchReplace batchReplace = new BatchReplace(
+        () -> replaces.stream().map(Replace::createReplacer).collect(toImmutableList()),
+        noopFails, first.workflowOptions.transformationCache(), replaces);
+    first.workflowOptions.parallelizer().run(files, batchReplace);
+    if (batchReplace.isOverflowed()) {
+      // Too many changes to keep in memory until the no-ops are known. Each replace on its own
+      // writes its changes directly.
+      for (Replace replace : replaces) {
+        transform(work, ImmutableList.of(replace));
+      }
+      return;
+    }
+    if (noopFails) {
+      for (int i = 0; i < replaces.size(); i++) {
+        if (!batchReplace.isChangedBy(i)) {
+          if (i > 0) {
+            transform(work, replaces.subList(0, i));
+          }
+          transform(work, ImmutableList.of(replaces.get(i)));
+          throw new IllegalStateException("No-op should have failed for " + replaces.get(i));
+        }
+      }
+      batchReplace.writePendingChanges();
+    }
     List<FileState> changed = batchReplace.getChanged();
     boolean matchedFile = batchReplace.isMatchedFile();
     logger.atInfo().log( "Applied %s to %d files. %d changed.",
-        this, Iterables.size(files), changed.size());
+        replaces.size() == 1 ? first : replaces, Iterables.size(files), changed.size());
 
     work.getTreeState().notifyModify(changed);
-    if (changed.isEmpty()) {
-      workflowOptions.reportNoop(
-          work.getConsole(),
-          "Transformation '" + toString() + "' was a no-op because it didn't "
-              + (matchedFile ? "change any of the matching files" : "match any file"),
-          work.getIgnoreNoop());
+    for (int i = 0; i < replaces.size(); i++) {
+      if (!batchReplace.isChangedBy(i)) {
+        first.workflowOptions.reportNoop(
+            work.getConsole(),
+            "Transformation '" + replaces.get(i) + "' was a no-op because it didn't "
+                + (matchedFile ? "change any of the matching files" : "match any file"),
+            work.getIgnoreNoop());
+      }
     }
   }
 
+  @Override
+  public boolean canJoin(Transformation transformation) {
+    return transformation instanceof Replace && ((Replace) transformation).paths.equals(paths);
+  }
+
+  @Override
+  public Transformation join(Transformation next) {
+    return new JoinedReplace(ImmutableList.of(this, (Replace) next));
+  }
+
   @Override
   public String describe() {
     // before should be almost always unique so it is good enough for identifying the
@@ -214,17 +270,83 @@ public final class Replace implements Transformation {
     return parsedGroups;
   }
 
+  /**
+   * Consecutive {@link Replace} transformations over the same paths, created by {@link
+   * Sequence} when joining transformations.
+   */
+  private static final class JoinedReplace implements Transformation {
+
+    private final ImmutableList<Replace> replaces;
+
+    private JoinedReplace(ImmutableList<Replace> replaces) {
+      this.replaces = checkNotNull(replaces);
+    }
+
+    @Override
+    public void transform(TransformWork work) throws IOException, ValidationException {
+      Replace.transform(work, replaces);
+    }
+
+    @Override
+    public Transformation reverse() {
+      throw new IllegalStateException("Reverse should never be called for join transformations");
+    }
+
+    @Override
+    public String describe() {
+      return "Replace batch of " + replaces.size() + " replaces";
+    }
+
+    @Override
+    public boolean canJoin(Transformation transformation) {
+      return replaces.get(0).canJoin(transformation);
+    }
+
+    @Override
+    public Transformation join(Transformation next) {
+      return new JoinedReplace(ImmutableList.<Replace>builder()
+          .addAll(replaces)
+          .add((Replace) next)
+          .build());
+    }
+
+    @Override
+    public Location location() {
+      return replaces.get(0).location();
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("replaces", replaces)
+          .toString();
+    }
+  }
+
   private final static class BatchReplace
       implements LocalParallelizer.TransformFunc<FileState, Boolean> {
 
+    /** Max number of chars of deferred writes kept in memory for all the files. */
+    private static final long MAX_PENDING_WRITE_CHARS = 32L * 1024 * 1024;
 
-    private final Supplier<Replacer> replacerSupplier;
+    private final Supplier<ImmutableList<Replacer>> replacersSupplier;
+    private final TransformationCache cache;
+    private final Object fingerprint;
 
     private final List<FileState> changed = new ArrayList<>();
     private boolean matchedFile = false;
-
-    BatchReplace(Supplier<Replacer> replacerSupplier) {
-      this.replacerSupplier = checkNotNull(replacerSupplier);
+    private final Set<Integer> changedBy = new HashSet<>();
+    private final boolean deferWrites;
+    private final Map<Path, String> pendingWrites = new HashMap<>();
+    private final AtomicLong pendingWriteChars = new AtomicLong();
+    private volatile boolean overflowed;
+
+    BatchReplace(Supplier<ImmutableList<Replacer>> replacersSupplier, boolean deferWrites,
+        TransformationCache cache, Object fingerprint) {
+      this.replacersSupplier = checkNotNull(replacersSupplier);
+      this.deferWrites = deferWrites;
+      this.cache = checkNotNull(cache);
+      this.fingerprint = checkNotNull(fingerprint);
     }
 
     public List<FileState> getChanged() {
@@ -235,39 +357,124 @@ public final class Replace implements Transformation {
       return matchedFile;
     }
 
+    /** Whether the i-th replacer changed the content of any file. */
+    boolean isChangedBy(int replacer) {
+      return changedBy.contains(replacer);
+    }
+
+    /**
+     * Whether the deferred writes didn't fit in memory. In that case the batch stops early and
+     * its results must be discarded.
+     */
+    boolean isOverflowed() {
+      return overflowed;
+    }
+
+    /** Writes the changes kept in memory when the batch was created with deferWrites. */
+    void writePendingChanges() throws IOException {
+      for (Entry<Path, String> e : pendingWrites.entrySet()) {
+        Files.write(e.getKey(), e.getValue().getBytes(UTF_8));
+      }
+      pendingWrites.clear();
+    }
+
     @Override
-    public Boolean run(Iterable<FileState> elements) throws IOException {
-      Replacer replacer = replacerSupplier.get();
+    public Boolean run(Iterable<FileState> elements) throws IOException, ValidationException {
+      ImmutableList<Replacer> replacers = replacersSupplier.get();
       List<FileState> changed = new ArrayList<>();
+      Set<Integer> changedBy = new HashSet<>();
+      Map<Path, String> pendingWrites = new HashMap<>();
       boolean matchedFile = false;
       for (FileState file : elements) {
+        if (overflowed) {
+          break;
+        }
         if (Files.isSymbolicLink(file.getPath())) {
           continue;
         }
         matchedFile = true;
-        String originalFileContent = new String(Files.readAllBytes(file.getPath()), UTF_8);
-        String transformed = replacer.replace(originalFileContent);
-        if (!originalFileContent.equals(transformed)) {
-          synchronized (this) {
-            changed.add(file);
+        ReplaceResult result = cache.get(fingerprint, Files.readAllBytes(file.getPath()),
+            bytes -> replace(replacers, bytes));
+        changedBy.addAll(result.changedBy);
+        if (result.transformed != null) {
+          changed.add(file);
+          if (deferWrites) {
+            if (pendingWriteChars.addAndGet(result.transformed.length())
+                > MAX_PENDING_WRITE_CHARS) {
+              overflowed = true;
+              break;
+            }
+            pendingWrites.put(file.getPath(), result.transformed);
+          } else {
+            Files.write(file.getPath(), result.transformed.getBytes(UTF_8));
           }
-          Files.write(file.getPath(), transformed.getBytes(UTF_8));
         }
       }
       synchronized (this) {
         this.matchedFile |= matchedFile;
         this.changed.addAll(changed);
+        this.changedBy.addAll(changedBy);
+        if (overflowed) {
+          this.pendingWrites.clear();
+        } else {
+          this.pendingWrites.putAll(pendingWrites);
+        }
       }
       // We cannot return null here.
       return true;
     }
+  }
+
+  private static ReplaceResult replace(ImmutableList<Replacer> replacers, byte[] bytes) {
+    // Avoid decoding files that cannot match. If none of the replacers matches the original
+    // content, none of them can change it.
+    if (replacers.stream().noneMatch(r -> r.mightMatch(bytes))) {
+      return ReplaceResult.UNCHANGED;
+    }
+    String originalFileContent = new String(bytes, UTF_8);
+    String transformed = originalFileContent;
+    ImmutableSet.Builder<Integer> changedBy = ImmutableSet.builder();
+    for (int i = 0; i < replacers.size(); i++) {
+      String replaced = replacers.get(i).replace(transformed);
+      if (!replaced.equals(transformed)) {
+        changedBy.add(i);
+        transformed = replaced;
+      }
+    }
+    return new ReplaceResult(
+        originalFileContent.equals(transformed) ? null : transformed, changedBy.build());
+  }
+
+  /** The result of applying the replacers to a file, that can be reused for the same content. */
+  private static final class ReplaceResult implements TransformationCache.Weighted {
+
+    private static final ReplaceResult UNCHANGED = new ReplaceResult(null, ImmutableSet.of());
+
+    /** The new content of the file, or null if it didn't change. */
+    @Nullable private final String transformed;
+    /** The replacers that changed the content, even if a later one reverted the change. */
+    private final ImmutableSet<Integer> changedBy;
+
+    private ReplaceResult(@Nullable String transformed, ImmutableSet<Integer> changedBy) {
+      this.transformed = transformed;
+      this.changedBy = changedBy;
+    }
 
+    @Override
+    public long weight() {
+      return TransformationCache.weigh(transformed) + TransformationCache.weigh(changedBy);
+    }
   }
 
   public Replacer createReplacer() {
     return before.replacer(after, firstOnly, multiline, patternsToIgnore);
   }
 
+  /** The template that this replace searches for. */
+  RegexTemplateTokens getBefore() {
+    return before;
+  }
+
   public Glob getPaths() {
     return paths;
   }
@@ -21,12 +21,32 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
 import com.google.copybara.NonReversibleValidationException;
 import com.google.copybara.transform.RegexTemplateTokens.Replacer;
+import com.google.re2j.Pattern;
+import com.google.re2j.PatternSyntaxException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
 
+/**
+ * A mapping that applies a list of {@link Replace}s to a string until one of them changes it, or
+ * all of them in sequence if {@code all} is set.
+ *
+ * <p>Big mappings are compiled: the literals of all the replaces are searched at once with an
+ * Aho-Corasick automaton and the replaces without literals are merged into one regex, so that only
+ * the replaces that can match the string are run.
+ */
 public class ReplaceMapper implements ReversibleFunction<String, String> {
 
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Below this number of replaces, running each of them is cheaper than finding candidates. */
+  private static final int MIN_COMPILED_REPLACES = 4;
+
   private final ImmutableList<Replace> replaces;
   private final boolean all;
 
@@ -45,6 +65,16 @@ public class ReplaceMapper implements ReversibleFunction<String, String> {
                 }
               }));
 
+  private static final ThreadLocal<LoadingCache<ReplaceMapper, CompiledMapping>> COMPILED_CACHE =
+      ThreadLocal.withInitial(
+          () -> CacheBuilder.newBuilder().weakKeys().softValues()
+              .build(new CacheLoader<ReplaceMapper, CompiledMapping>() {
+                @Override
+                public CompiledMapping load(ReplaceMapper key) {
+                  return new CompiledMapping(key.replaces);
+                }
+              }));
+
   @Override
   public ReversibleFunction<String, String> reverseMapping() throws NonReversibleValidationException {
     ImmutableList.Builder<Replace> builder = ImmutableList.builder();
@@ -56,6 +86,13 @@ public class ReplaceMapper implements ReversibleFunction<String, String> {
 
   @Override
   public String apply(String s) {
+    if (replaces.size() >= MIN_COMPILED_REPLACES) {
+      try {
+        return COMPILED_CACHE.get().get(this).apply(s, all);
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Shouldn't happen", e);
+      }
+    }
     LoadingCache<Replace, Replacer> cache = REPLACE_CACHE.get();
     String replacement = s;
     try {
@@ -75,4 +112,88 @@ public class ReplaceMapper implements ReversibleFunction<String, String> {
     }
     return replacement;
   }
+
+  /**
+   * The replacers of a mapping and an index to find the ones that might change a string.
+   *
+   * <p>Every match of a replace contains the longest literal of its before template, and a
+   * replacer doesn't change a string that doesn't contain it. So running only the candidates, in
+   * the original order, gives the same result as running all of them.
+   */
+  private static final class CompiledMapping {
+
+    private final ImmutableList<Replacer> replacers;
+    // Replaces with literals, indexed by the literal index in the matcher
+    private final int[] literalOwners;
+    private final LiteralSetMatcher literals;
+    private final BitSet withoutLiterals = new BitSet();
+    // All the replaces without literals as one regex, or null if they cannot be merged
+    @Nullable private final Pattern anyWithoutLiterals;
+
+    private CompiledMapping(ImmutableList<Replace> replaces) {
+      ImmutableList.Builder<Replacer> replacers = ImmutableList.builder();
+      List<String> literalList = new ArrayList<>();
+      List<Integer> owners = new ArrayList<>();
+      List<String> regexes = new ArrayList<>();
+      for (int i = 0; i < replaces.size(); i++) {
+        RegexTemplateTokens before = replaces.get(i).getBefore();
+        replacers.add(replaces.get(i).createReplacer());
+        String literal = before.getLongestLiteral();
+        if (literal != null) {
+          literalList.add(literal);
+          owners.add(i);
+        } else {
+          withoutLiterals.set(i);
+          regexes.add("(?:" + before.getBefore().pattern() + ")");
+        }
+      }
+      this.replacers = replacers.build();
+      this.literalOwners = owners.stream().mapToInt(Integer::intValue).toArray();
+      this.literals = new LiteralSetMatcher(literalList);
+      this.anyWithoutLiterals = regexes.isEmpty() ? null : mergeRegexes(regexes);
+    }
+
+    @Nullable
+    private static Pattern mergeRegexes(List<String> regexes) {
+      try {
+        return Pattern.compile(String.join("|", regexes), Pattern.MULTILINE);
+      } catch (PatternSyntaxException e) {
+        // For example, if two regex groups use the same group name
+        logger.atInfo().withCause(e).log("Cannot merge the replace_mapper regexes");
+        return null;
+      }
+    }
+
+    private String apply(String s, boolean all) {
+      String replacement = s;
+      BitSet candidates = candidates(s);
+      for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+        String replaced = replacers.get(i).replace(replacement);
+        if (replaced.equals(replacement)) {
+          continue;
+        }
+        if (!all) {
+          return replaced;
+        }
+        // The next replaces are applied to the new string, so they might match now
+        replacement = replaced;
+        candidates = candidates(replacement);
+      }
+      return replacement;
+    }
+
+    /** The replaces that might change {@code s}. */
+    private BitSet candidates(String s) {
+      BitSet candidates = new BitSet(replacers.size());
+      BitSet found = literals.find(s);
+      for (int l = found.nextSetBit(0); l >= 0; l = found.nextSetBit(l + 1)) {
+        candidates.set(literalOwners[l]);
+      }
+      if (!withoutLiterals.isEmpty()
+          && (anyWithoutLiterals == null || anyWithoutLiterals.matcher(s).find())) {
+        candidates.or(withoutLiterals);
+      }
+      return candidates;
+    }
+  }
 }
@@ -32,6 +32,7 @@ import com.google.copybara.LocalParallelizer;
 import com.google.copybara.NonReversibleValidationException;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
+import com.google.copybara.TransformationCache;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
@@ -62,6 +63,7 @@ public class TodoReplace implements Transformation {
   private final Glob glob;
   private final ImmutableList<String> todoTags;
   private final LocalParallelizer parallelizer;
+  private final TransformationCache cache;
   private final Mode mode;
   private final ImmutableMap<String, String> mapping;
   @Nullable
@@ -77,11 +79,13 @@ public class TodoReplace implements Transformation {
       Map<String, String> mapping,
       @Nullable String defaultString,
       LocalParallelizer parallelizer,
+      TransformationCache cache,
       @Nullable Pattern regexIgnorelist) {
     this.location = Preconditions.checkNotNull(location);
     this.glob = Preconditions.checkNotNull(glob);
     this.todoTags = Preconditions.checkNotNull(todoTags);
     this.parallelizer = parallelizer;
+    this.cache = Preconditions.checkNotNull(cache);
     Preconditions.checkArgument(!todoTags.isEmpty());
     this.mode = Preconditions.checkNotNull(mode);
     this.mapping = Preconditions.checkNotNull(ImmutableMap.copyOf(mapping));
@@ -117,36 +121,65 @@ public class TodoReplace implements Transformation {
       if (Files.isSymbolicLink(file.getPath())) {
         continue;
       }
-      String content = new String(Files.readAllBytes(file.getPath()), UTF_8);
-      Matcher matcher = batchPattern.matcher(content);
-      StringBuffer sb = new StringBuffer();
-      boolean modified = false;
-      while (matcher.find()) {
-        if (matcher.group(2).trim().isEmpty()){
-          matcher.appendReplacement(sb, matcher.group(0));
-          continue;
-        }
-        List<String> users = Splitter.on(",").splitToList(matcher.group(2));
-        List<String> mappedUsers = mapUsers(users, matcher.group(0), file.getPath(), console);
-        modified |= !users.equals(mappedUsers);
-        String result = matcher.group(1);
-        if (!mappedUsers.isEmpty()) {
-          result += "(" + Joiner.on(",").join(mappedUsers) + ")";
-        }
-        matcher.appendReplacement(sb, Matcher.quoteReplacement(result));
+      TodoResult result = cache.get(this, Files.readAllBytes(file.getPath()),
+          bytes -> replaceTodos(batchPattern, new String(bytes, UTF_8), file.getPath()));
+      for (String warning : result.warnings) {
+        console.warn(warning);
       }
-      matcher.appendTail(sb);
-
-      if (modified) {
+      if (result.content != null) {
         modifiedFiles.add(file);
-        Files.write(file.getPath(), sb.toString().getBytes(UTF_8));
+        Files.write(file.getPath(), result.content.getBytes(UTF_8));
       }
     }
     return modifiedFiles;
   }
 
-  private List<String> mapUsers(List<String> users, String rawText, Path path, Console console)
+  private TodoResult replaceTodos(Pattern batchPattern, String content, Path path)
       throws ValidationException {
+    Matcher matcher = batchPattern.matcher(content);
+    StringBuffer sb = new StringBuffer();
+    boolean modified = false;
+    ImmutableList.Builder<String> warnings = ImmutableList.builder();
+    while (matcher.find()) {
+      if (matcher.group(2).trim().isEmpty()){
+        matcher.appendReplacement(sb, matcher.group(0));
+        continue;
+      }
+      List<String> users = Splitter.on(",").splitToList(matcher.group(2));
+      List<String> mappedUsers = mapUsers(users, matcher.group(0), path, warnings);
+      modified |= !users.equals(mappedUsers);
+      String result = matcher.group(1);
+      if (!mappedUsers.isEmpty()) {
+        result += "(" + Joiner.on(",").join(mappedUsers) + ")";
+      }
+      matcher.appendReplacement(sb, Matcher.quoteReplacement(result));
+    }
+    matcher.appendTail(sb);
+    return new TodoResult(modified ? sb.toString() : null, warnings.build());
+  }
+
+  /**
+   * The result of mapping the TODOs of a file. Warnings are kept so that they are shown again
+   * when the result is reused for the same content.
+   */
+  private static final class TodoResult implements TransformationCache.Weighted {
+
+    @Nullable private final String content;
+    private final ImmutableList<String> warnings;
+
+    private TodoResult(@Nullable String content, ImmutableList<String> warnings) {
+      this.content = content;
+      this.warnings = warnings;
+    }
+
+    @Override
+    public long weight() {
+      return TransformationCache.weigh(content) + TransformationCache.weigh(warnings);
+    }
+  }
+
+  private List<String> mapUsers(List<String> users, String rawText, Path path,
+      ImmutableList.Builder<String> warnings) throws ValidationException {
     Set<String> alreadyAdded = new HashSet<>();
     List<String> result = new ArrayList<>();
     for (String rawUser : users) {
@@ -155,7 +188,7 @@ public class TodoReplace implements Transformation {
       if (!matcher.matches()) {
         checkCondition(mode != MAP_OR_FAIL,
             "Unexpected '%s' doesn't match expected format", rawUser);
-        console.warnFmt("Skipping '%s' that doesn't match expected format", rawUser);
+        warnings.add(String.format("Skipping '%s' that doesn't match expected format", rawUser));
         continue;
       }
       String prefix = matcher.group(1);
@@ -217,6 +250,7 @@ public class TodoReplace implements Transformation {
         mapping.inverse(),
         defaultString,
         parallelizer,
+        cache,
         regexIgnorelist);
   }
 
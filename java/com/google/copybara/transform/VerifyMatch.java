@@ -25,6 +25,7 @@ import com.google.copybara.LocalParallelizer;
 import com.google.copybara.LocalParallelizer.TransformFunc;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
+import com.google.copybara.TransformationCache;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
@@ -50,15 +51,18 @@ public final class VerifyMatch implements Transformation {
   private final boolean alsoOnReversal;
   private final Glob fileMatcherBuilder;
   private final LocalParallelizer parallelizer;
+  private final TransformationCache cache;
   private final Location location;
 
   private VerifyMatch(Pattern pattern, boolean verifyNoMatch, boolean alsoOnReversal,
-      Glob fileMatcherBuilder, LocalParallelizer parallelizer, Location location) {
+      Glob fileMatcherBuilder, LocalParallelizer parallelizer, TransformationCache cache,
+      Location location) {
     this.pattern = checkNotNull(pattern);
     this.verifyNoMatch = verifyNoMatch;
     this.alsoOnReversal = alsoOnReversal;
     this.fileMatcherBuilder = checkNotNull(fileMatcherBuilder);
     this.parallelizer = parallelizer;
+    this.cache = checkNotNull(cache);
     this.location = checkNotNull(location);
   }
 
@@ -110,8 +114,9 @@ public final class VerifyMatch implements Transformation {
       // TODO(malcon): Remove reconstructing pattern once RE2J doesn't synchronize on matching.
       Pattern batchPattern = Pattern.compile(pattern.pattern(), pattern.flags());
       for (FileState file : files) {
-        String originalFileContent = new String(Files.readAllBytes(file.getPath()), UTF_8);
-        if (verifyNoMatch == batchPattern.matcher(originalFileContent).find()) {
+        boolean found = cache.get(VerifyMatch.this, Files.readAllBytes(file.getPath()),
+            bytes -> batchPattern.matcher(new String(bytes, UTF_8)).find());
+        if (verifyNoMatch == found) {
           errors.add(checkoutDir.relativize(file.getPath()).toString());
         }
       }
@@ -138,14 +143,15 @@ public final class VerifyMatch implements Transformation {
   }
 
   public static VerifyMatch create(Location location, String regEx, Glob paths,
-      boolean verifyNoMatch, boolean alsoOnReversal, LocalParallelizer parallelizer)
-      throws EvalException {
+      boolean verifyNoMatch, boolean alsoOnReversal, LocalParallelizer parallelizer,
+      TransformationCache cache) throws EvalException {
     Pattern parsed;
     try {
       parsed = Pattern.compile(regEx, Pattern.MULTILINE);
     } catch (PatternSyntaxException ex) {
       throw Starlark.errorf("Regex '%s' is invalid: %s", regEx, ex.getMessage());
     }
-    return new VerifyMatch(parsed, verifyNoMatch, alsoOnReversal, paths, parallelizer, location);
+    return new VerifyMatch(parsed, verifyNoMatch, alsoOnReversal, paths, parallelizer, cache,
+        location);
   }
 }
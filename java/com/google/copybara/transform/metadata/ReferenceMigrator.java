@@ -17,8 +17,6 @@
 package com.google.copybara.transform.metadata;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.copybara.ChangeVisitable.VisitResult.CONTINUE;
-import static com.google.copybara.ChangeVisitable.VisitResult.TERMINATE;
 import static com.google.copybara.config.SkylarkUtil.check;
 import static com.google.copybara.exception.ValidationException.checkCondition;
 
@@ -26,6 +24,7 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
 import com.google.copybara.ChangeVisitable;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
@@ -37,8 +36,10 @@ import com.google.copybara.transform.RegexTemplateTokens;
 import com.google.copybara.transform.RegexTemplateTokens.Replacer;
 import com.google.re2j.Pattern;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 import net.starlark.java.eval.EvalException;
@@ -95,13 +96,26 @@ public class ReferenceMigrator implements Transformation {
 
   @Override
   public void transform(TransformWork work) throws ValidationException {
+    // Collect all the references first, so that we can look for them in one visit of the
+    // destination history instead of one visit per reference.
+    Set<String> references = new LinkedHashSet<>();
+    before.callbackReplacer(after, (groupValues, template) -> {
+        if (groupValues.get(0) != null) {
+          references.add(groupValues.get(1));
+        }
+        return template;
+      }, false, false, null).replace(work.getMessage());
+    if (references.isEmpty()) {
+      return;
+    }
+    findChanges(references, work.getMigrationInfo().getOriginLabel(),
+        work.getMigrationInfo().destinationVisitable());
+
     AtomicReference<ValidationException> thrown = new AtomicReference<>();
     Replacer replacer = before.callbackReplacer(after, (groupValues, template) -> {
         if (groupValues.get(0) != null) {
           try {
-            String destinationRef = findChange(groupValues.get(1),
-                work.getMigrationInfo().getOriginLabel(),
-                work.getMigrationInfo().destinationVisitable());
+            String destinationRef = getKnownChange(groupValues.get(1));
             if (destinationRef != null) {
               // This will not work for the case where the template was "foo\\$1", if this is an
               // issue, a non-naive implementation might be required.
@@ -135,39 +149,39 @@ public class ReferenceMigrator implements Transformation {
     return "map_references: " + before + " to " + after;
   }
 
-  @Nullable
-  private String findChange(String refBeingMigrated,
-      String originLabel,
-      ChangeVisitable<?> destinationReader) throws  ValidationException {
-    AtomicInteger changesVisited = new AtomicInteger(0);
-    ImmutableList<String> originLabels =
-        ImmutableList.<String>builder().add(originLabel).addAll(additionalLabels).build();
+  /**
+   * Looks for the destination changes of the {@code references} that are not known yet. All of
+   * them are looked up in the same visit of the destination history.
+   */
+  private void findChanges(Set<String> references, String originLabel,
+      @Nullable ChangeVisitable<?> destinationReader) throws ValidationException {
     checkCondition(destinationReader != null,
         "Destination does not support reading change history.");
-    if (knownChanges.containsKey(refBeingMigrated)) {
-      return knownChanges.get(refBeingMigrated);
+    Set<String> missing = new HashSet<>(Sets.difference(references, knownChanges.keySet()));
+    if (missing.isEmpty()) {
+      return;
     }
+    ImmutableList<String> originLabels =
+        ImmutableList.<String>builder().add(originLabel).addAll(additionalLabels).build();
     try {
-      destinationReader.visitChangesWithAnyLabel(null, originLabels, (input, labels) -> {
-        for (String labelValue : labels.values()) {
-          knownChanges.putIfAbsent(labelValue, input.getRef());
-          if (labelValue.equals(refBeingMigrated)) {
-            return TERMINATE;
-          }
-        }
-        return changesVisited.incrementAndGet() > MAX_CHANGES_TO_VISIT ? TERMINATE : CONTINUE;
-      });
-      String retVal = knownChanges.get(refBeingMigrated);
-      if (reversePattern != null && retVal != null && !reversePattern.matches(retVal)) {
-        throw new ValidationException(
-            String.format("Reference %s does not match regex '%s'", retVal, reversePattern));
-      }
-      return retVal;
+      destinationReader
+          .findChangesWithLabelValues(missing, originLabels, MAX_CHANGES_TO_VISIT)
+          .forEach(knownChanges::putIfAbsent);
     } catch (RepoException exception) {
       throw new ValidationException("Exception finding reference.", exception);
     }
   }
 
+  @Nullable
+  private String getKnownChange(String refBeingMigrated) throws ValidationException {
+    String retVal = knownChanges.get(refBeingMigrated);
+    if (reversePattern != null && retVal != null && !reversePattern.matches(retVal)) {
+      throw new ValidationException(
+          String.format("Reference %s does not match regex '%s'", retVal, reversePattern));
+    }
+    return retVal;
+  }
+
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this)
@@ -27,11 +27,13 @@ import com.google.copybara.shell.AbnormalTerminationException;
 import com.google.copybara.shell.BadExitStatusException;
 import com.google.copybara.shell.Command;
 import com.google.copybara.shell.CommandException;
+import com.google.copybara.shell.FutureCommandResult;
 import com.google.copybara.shell.Killable;
 import com.google.copybara.shell.KillableObserver;
 import com.google.copybara.shell.ShellUtils;
 import com.google.copybara.shell.TerminationStatus;
 import com.google.copybara.shell.TimeoutKillableObserver;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -262,6 +264,46 @@ public final class CommandRunner {
     }
   }
 
+  /**
+   * Starts the {@link Command} and returns a {@link RunningCommand} that allows to read the
+   * stdout incrementally while the process runs, instead of collecting all of it in memory.
+   *
+   * <p>The timeout and any observer added with {@link #withObserver} apply as in {@link
+   * #execute()}. Stdout is neither logged nor redirected to the console in verbose mode and
+   * custom {@link CommandExecutor}s are not supported.
+   */
+  public RunningCommand start() throws CommandException {
+    Preconditions.checkState(!executor.isPresent() && !asyncStdoutStream.isPresent(),
+        "Streaming is not supported with custom executors or stdout streams");
+    String startMsg = ShellUtils.prettyPrintArgv(Arrays.asList(cmd.getCommandLineElements()));
+    startMsg = startMsg.length() > MAX_COMMAND_LENGTH
+        ? startMsg.substring(0, MAX_COMMAND_LENGTH) + "..." : startMsg;
+    String validStartMsg = "Executing (streaming) [" + startMsg + "]";
+    logger.atInfo().log(validStartMsg);
+    if (verbose) {
+      System.err.println(validStartMsg);
+    }
+    RunningCommand.KillableHolder killable = new RunningCommand.KillableHolder();
+    CombinedKillableObserver cmdMonitor = new CombinedKillableObserver(timeout,
+        ImmutableList.<KillableObserver>builder()
+            .addAll(additionalObservers).add(killable).build()
+            .toArray(new KillableObserver[0]));
+    RunningCommand.ChunkPipe stdout = new RunningCommand.ChunkPipe();
+    ByteArrayOutputStream stderrCollector = new ByteArrayOutputStream();
+    OutputStream stderrStream = commandOutputStream(asyncErrStream.orElse(stderrCollector));
+    FutureCommandResult result = cmd.executeAsynchronously(new ByteArrayInputStream(input),
+        cmdMonitor, stdout, stderrStream, /*closeOutput=*/ true);
+    return new RunningCommand(result, killable, stdout, stderrCollector,
+        (e, stderr) -> {
+          maybeTreatTimeout(new ByteArrayOutputStream(), stderrCollector, cmdMonitor, e);
+          if (e instanceof BadExitStatusException) {
+            return new BadExitStatusWithOutputException(e.getCommand(), e.getResult(),
+                e.getMessage(), new byte[0], stderr);
+          }
+          return e;
+        });
+  }
+
   /**
    * Format a duration to a human-readable string. This assumes that the duration is less than
    * 24 hours, which should always be true for a command (usually takes from a few ms to a few
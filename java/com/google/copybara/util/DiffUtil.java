@@ -24,10 +24,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.io.MoreFiles;
 import com.google.copybara.git.GitEnvironment;
 import com.google.copybara.shell.Command;
 import com.google.copybara.shell.CommandException;
@@ -36,12 +34,20 @@ import com.google.copybara.util.console.AnsiColor;
 import com.google.copybara.util.console.Console;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Iterator;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nullable;
@@ -93,42 +99,82 @@ public class DiffUtil {
   /**
    * Return the changed files without computing renames/copies.
    *
-   * <p>Each file name is relative to one/other paths.
+   * <p>Each file name is relative to one/other paths. The comparison is done in process: files
+   * with a different type, size or executable bit are reported without reading them, and the rest
+   * are compared byte by byte in parallel. This means that comparing identical trees costs
+   * reading them once, without starting any process.
    */
-  public static ImmutableList<DiffFile> diffFiles(
-      Path one, Path other, boolean verbose, @Nullable Map<String, String> environment)
-      throws IOException, InsideGitDirException {
-    String cmdResult = new String(new FoldersDiff(verbose, environment)
-        .withZOption()
-        .withNameStatus()
-        .withNoRenames()
-        .run(one, other), StandardCharsets.UTF_8);
+  public static ImmutableList<DiffFile> diffFiles(Path one, Path other) throws IOException {
+    Preconditions.checkArgument(one.getParent().equals(other.getParent()),
+        "Paths 'one' and 'other' must be sibling directories.");
+    Map<String, BasicFileAttributes> oneFiles = listFiles(one);
+    Map<String, BasicFileAttributes> otherFiles = listFiles(other);
+
+    Map<String, Operation> result = new TreeMap<>();
+    List<String> sameSize = new ArrayList<>();
+    for (Entry<String, BasicFileAttributes> e : oneFiles.entrySet()) {
+      BasicFileAttributes otherAttrs = otherFiles.get(e.getKey());
+      if (otherAttrs == null) {
+        result.put(e.getKey(), Operation.DELETE);
+      } else if (e.getValue().isSymbolicLink() != otherAttrs.isSymbolicLink()
+          || e.getValue().size() != otherAttrs.size()) {
+        result.put(e.getKey(), Operation.MODIFIED);
+      } else {
+        sameSize.add(e.getKey());
+      }
+    }
+    for (String file : otherFiles.keySet()) {
+      if (!oneFiles.containsKey(file)) {
+        result.put(file, Operation.ADD);
+      }
+    }
+    try {
+      sameSize.parallelStream()
+          .filter(file -> !sameContent(one.resolve(file), other.resolve(file),
+              oneFiles.get(file).isSymbolicLink()))
+          .collect(Collectors.toList())
+          .forEach(file -> result.put(file, Operation.MODIFIED));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    ImmutableList.Builder<DiffFile> diffFiles = ImmutableList.builder();
+    for (Entry<String, Operation> e : result.entrySet()) {
+      diffFiles.add(new DiffFile(e.getKey(), e.getValue()));
+    }
+    return diffFiles.build();
+  }
 
-    ImmutableList.Builder<DiffFile> result = ImmutableList.builder();
-    for (Iterator<String> iterator = Splitter.on((char) 0).split(cmdResult).iterator();
-        iterator.hasNext(); ) {
-      String strOp = iterator.next();
-      if (Strings.isNullOrEmpty(strOp)) {
-        continue;
+  /** Regular files and symlinks under {@code root}, keyed by their relative path. */
+  private static Map<String, BasicFileAttributes> listFiles(Path root) throws IOException {
+    Map<String, BasicFileAttributes> files = new HashMap<>();
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (attrs.isRegularFile() || attrs.isSymbolicLink()) {
+          files.put(root.relativize(file).toString(), attrs);
+        }
+        return FileVisitResult.CONTINUE;
       }
-      Operation op = DiffFile.OP_BY_CHAR.get(strOp);
-      if (op == null) {
-        throw new IllegalStateException(
-            String.format("Unknown type '%s'. Text:\n%s", strOp, cmdResult));
+    });
+    return files;
+  }
+
+  private static boolean sameContent(Path one, Path other, boolean symlink) {
+    try {
+      if (symlink) {
+        return Files.readSymbolicLink(one).equals(Files.readSymbolicLink(other));
       }
-      String file = iterator.next();
-      Preconditions.checkState(file.contains("/"));
-      result.add(new DiffFile(file.substring(file.indexOf("/") + 1), op));
+      return Files.isExecutable(one) == Files.isExecutable(other)
+          && MoreFiles.asByteSource(one).contentEquals(MoreFiles.asByteSource(other));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
     }
-    return result.build();
   }
 
   public static class DiffFile {
 
     private final String name;
     private final Operation operation;
-    private static final ImmutableMap<String, Operation> OP_BY_CHAR =
-        Maps.uniqueIndex(Iterators.forArray(Operation.values()), e -> e.charType);
 
     @VisibleForTesting
     public DiffFile(String name, Operation operation) {
@@ -145,15 +191,9 @@ public class DiffUtil {
     }
 
     public enum Operation {
-      ADD("A"),
-      DELETE("D"),
-      MODIFIED("M");
-
-      private final String charType;
-
-      Operation(String charType) {
-        this.charType = charType;
-      }
+      ADD,
+      DELETE,
+      MODIFIED
     }
 
     @Override
@@ -170,9 +210,6 @@ public class DiffUtil {
    */
   private static class FoldersDiff {
 
-    private final boolean nameStatus;
-    private final boolean noRenames;
-    private final boolean zOption;
     private final boolean noIndex;
     private final boolean verbose;
     private final Map<String, String> environment;
@@ -180,45 +217,19 @@ public class DiffUtil {
     private FoldersDiff(boolean verbose, Map<String, String> environment) {
       this.verbose = verbose;
       this.environment = environment;
-      nameStatus = false;
-      noRenames = false;
-      zOption = false;
       noIndex = false;
     }
 
-    private FoldersDiff(boolean verbose, Map<String, String> environment, boolean nameStatus,
-        boolean noRenames, boolean zOption, boolean noIndex) {
+    private FoldersDiff(boolean verbose, Map<String, String> environment, boolean noIndex) {
       this.verbose = verbose;
       this.environment = environment;
-      this.nameStatus = nameStatus;
-      this.noRenames = noRenames;
-      this.zOption = zOption;
       this.noIndex = noIndex;
     }
 
-    @CheckReturnValue
-    private FoldersDiff withNameStatus() {
-      return new FoldersDiff(verbose, environment, /*nameStatus=*/true, noRenames, zOption,
-          noIndex);
-    }
-
-    @CheckReturnValue
-    private FoldersDiff withNoRenames() {
-      return new FoldersDiff(verbose, environment, nameStatus, /*noRenames=*/true, zOption,
-          noIndex);
-    }
-
-    @CheckReturnValue
-    private FoldersDiff withZOption() {
-      return new FoldersDiff(verbose, environment, nameStatus, noRenames, /*zOption=*/true,
-          noIndex);
-    }
-
     // TODO(malcon): Use this instead of checkNotInsideGitRepo
     @CheckReturnValue
     private FoldersDiff withNoIndex() {
-      return new FoldersDiff(verbose, environment, nameStatus, noRenames, zOption, /*noIndex=*/
-          true);
+      return new FoldersDiff(verbose, environment, /*noIndex=*/ true);
     }
 
     private byte[] run(Path one, Path other) throws IOException, InsideGitDirException {
@@ -230,15 +241,6 @@ public class DiffUtil {
       List<String> params = Lists.newArrayList(gitEnv.resolveGitBinary(), "diff", "--no-color",
           // Be careful, no test coverage for this:
           "--no-ext-diff");
-      if (nameStatus) {
-        params.add("--name-status");
-      }
-      if (noRenames) {
-        params.add("--no-renames");
-      }
-      if (zOption) {
-        params.add("-z");
-      }
       params.add("--");
       params.add(root.relativize(one).toString());
       params.add(root.relativize(other).toString());
@@ -20,6 +20,7 @@ import com.google.common.base.Preconditions;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import javax.annotation.Nullable;
 
 /**
  * A supplier of output directories under a given root.
@@ -34,9 +35,19 @@ public class DirFactory {
   private static final String CACHE = "cache";
 
   private final Path rootPath;
+  @Nullable private final Path tmpRoot;
 
   public DirFactory(Path rootPath) {
+    this(rootPath, /*tmpRoot=*/null);
+  }
+
+  /**
+   * Creates a factory whose temp directories are created in {@code tmpRoot} instead of the temp
+   * directory of the root path. Cache directories are still created in the root path.
+   */
+  public DirFactory(Path rootPath, @Nullable Path tmpRoot) {
     this.rootPath = Preconditions.checkNotNull(rootPath);
+    this.tmpRoot = tmpRoot;
   }
 
   /** Get the cache directory for {@code name} */
@@ -60,6 +71,6 @@ public class DirFactory {
   }
 
   public Path getTmpRoot() {
-    return rootPath.resolve(TMP);
+    return tmpRoot != null ? tmpRoot : rootPath.resolve(TMP);
   }
 }
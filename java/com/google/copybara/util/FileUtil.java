@@ -29,9 +29,13 @@ import com.google.common.io.InsecureRecursiveDeleteException;
 import com.google.common.io.MoreFiles;
 import com.google.common.io.RecursiveDeleteOption;
 import com.google.common.net.PercentEscaper;
+import com.google.copybara.shell.Command;
+import com.google.copybara.shell.CommandException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -41,9 +45,12 @@ import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
@@ -68,6 +75,9 @@ public final class FileUtil {
 
   private FileUtil() {}
 
+  private static final ConcurrentMap<FileStore, Boolean> REFLINK_SUPPORT =
+      new ConcurrentHashMap<>();
+
   private static final Pattern RELATIVISM = Pattern.compile("(.*/)?[.][.]?(/.*)?");
 
   /**
@@ -149,6 +159,114 @@ public final class FileUtil {
     }
   }
 
+  /**
+   * Makes a throwaway snapshot of {@code from} into the {@code to} directory. The result is the
+   * same as {@link #copyFilesRecursively(Path, Path, CopySymlinkStrategy)} with {@link
+   * CopySymlinkStrategy#FAIL_OUTSIDE_SYMLINKS}, except that empty directories might be copied too.
+   *
+   * <p>If the filesystem supports copy-on-write clones (reflinks), files are cloned instead of
+   * copied, so that the snapshot is almost free until one of the trees is modified. Unlike
+   * hardlinks, clones are safe when the files are later modified in place. Otherwise, it falls
+   * back to a regular copy.
+   */
+  public static void snapshotFilesRecursively(Path from, Path to,
+      Map<String, String> environment) throws IOException {
+    checkArgument(Files.isDirectory(from), "%s (from) is not a directory", from);
+    checkArgument(Files.isDirectory(to), "%s (to) is not a directory", to);
+    if (!supportsReflinks(to, environment)) {
+      copyFilesRecursively(from, to, CopySymlinkStrategy.FAIL_OUTSIDE_SYMLINKS);
+      return;
+    }
+    // 'cp' keeps all the symlinks, so we need to check them ourselves.
+    checkSymlinksUnderRoot(from);
+    try {
+      cloneFiles(environment, from.toString() + "/.", to.toString());
+    } catch (CommandException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot clone %s into %s. Falling back to copy", from, to);
+      MoreFiles.deleteDirectoryContents(to, RecursiveDeleteOption.ALLOW_INSECURE);
+      copyFilesRecursively(from, to, CopySymlinkStrategy.FAIL_OUTSIDE_SYMLINKS);
+    }
+  }
+
+  /**
+   * Returns true if {@link #snapshotFilesRecursively} can clone the files of {@code from} into
+   * {@code to} instead of copying them, so that its cost doesn't depend on the size of the tree.
+   */
+  public static boolean supportsCheapSnapshots(Path from, Path to,
+      Map<String, String> environment) {
+    try {
+      return Files.getFileStore(from).equals(Files.getFileStore(to))
+          && supportsReflinks(to, environment);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static boolean supportsReflinks(Path dir, Map<String, String> environment) {
+    if (dir.getFileSystem() != FileSystems.getDefault()) {
+      return false;
+    }
+    try {
+      return REFLINK_SUPPORT.computeIfAbsent(
+          Files.getFileStore(dir), store -> probeReflinks(dir, environment));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static boolean probeReflinks(Path dir, Map<String, String> environment) {
+    Path probe = null;
+    Path clone = null;
+    try {
+      probe = Files.createTempFile(dir, "reflink", ".probe");
+      clone = probe.resolveSibling(probe.getFileName() + ".clone");
+      cloneFiles(environment, probe.toString(), clone.toString());
+      return true;
+    } catch (IOException | CommandException e) {
+      logger.atInfo().log("Copy-on-write clones not supported in %s: %s", dir, e.getMessage());
+      return false;
+    } finally {
+      try {
+        if (probe != null) {
+          Files.deleteIfExists(probe);
+        }
+        if (clone != null) {
+          Files.deleteIfExists(clone);
+        }
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot delete %s", probe);
+      }
+    }
+  }
+
+  private static void cloneFiles(Map<String, String> environment, String from, String to)
+      throws CommandException {
+    new CommandRunner(new Command(
+        new String[] {"cp", "-a", "--reflink=always", from, to}, environment,
+        /*workingDirectory=*/ null))
+        .withVerbose(false)
+        .execute();
+  }
+
+  private static void checkSymlinksUnderRoot(Path from) throws IOException {
+    PathMatcher matcher = Glob.ALL_FILES.relativeTo(from.normalize());
+    Files.walkFileTree(from, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        if (attrs.isSymbolicLink()) {
+          ResolvedSymlink resolvedSymlink = resolveSymlink(matcher, file);
+          if (!resolvedSymlink.allUnderRoot) {
+            throw new AbsoluteSymlinksNotAllowed(String.format(
+                "Symlink '%s' is absolute or escaped the root: '%s'.",
+                file, resolvedSymlink.regularFile), file, resolvedSymlink.regularFile);
+          }
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
   /**
    * Adds the given permissions to the matching files under the given path.
    */
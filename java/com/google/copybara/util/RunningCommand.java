@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Preconditions;
+import com.google.copybara.shell.AbnormalTerminationException;
+import com.google.copybara.shell.CommandException;
+import com.google.copybara.shell.FutureCommandResult;
+import com.google.copybara.shell.Killable;
+import com.google.copybara.shell.KillableObserver;
+import com.google.copybara.shell.TerminationStatus;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A command started with {@link CommandRunner#start()} whose stdout can be read while the process
+ * is still running.
+ *
+ * <p>The caller must read {@link #getStdout()} and then call {@link #waitFor()} to get the exit
+ * status. Callers that are not interested in the rest of the output can call {@link #close()}
+ * at any time, which kills the process if it is still running.
+ */
+public final class RunningCommand implements AutoCloseable {
+
+  private final FutureCommandResult result;
+  private final KillableHolder killable;
+  private final ChunkPipe stdout;
+  private final ByteArrayOutputStream stderr;
+  private final CommandFailureHandler failureHandler;
+  private boolean finished;
+
+  RunningCommand(FutureCommandResult result, KillableHolder killable, ChunkPipe stdout,
+      ByteArrayOutputStream stderr, CommandFailureHandler failureHandler) {
+    this.result = checkNotNull(result);
+    this.killable = checkNotNull(killable);
+    this.stdout = checkNotNull(stdout);
+    this.stderr = checkNotNull(stderr);
+    this.failureHandler = checkNotNull(failureHandler);
+  }
+
+  /**
+   * The stdout of the process. Reads block until the process writes more output or exits.
+   */
+  public InputStream getStdout() {
+    return stdout.input;
+  }
+
+  /**
+   * The stdout of the process decoded as UTF-8, for line-oriented output. Reads block until the
+   * process writes more output or exits.
+   */
+  public BufferedReader getStdoutReader() {
+    return new BufferedReader(new InputStreamReader(stdout.input, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * The stderr of the process. Only complete after {@link #waitFor()} returns.
+   */
+  public String getStderr() {
+    return new String(stderr.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Waits for the process to finish and returns its termination status.
+   *
+   * <p>Any unread stdout is discarded.
+   *
+   * @throws BadExitStatusWithOutputException if the process exited with a non-zero status
+   * @throws CommandTimeoutException if the process was killed because of the timeout
+   */
+  public TerminationStatus waitFor() throws CommandException {
+    Preconditions.checkState(!finished, "Command already finished");
+    finished = true;
+    stdout.discardRemaining();
+    try {
+      return result.get().getTerminationStatus();
+    } catch (AbnormalTerminationException e) {
+      throw failureHandler.handle(e, stderr.toByteArray());
+    }
+  }
+
+  /**
+   * Kills the process if it didn't finish yet, ignoring its exit status.
+   */
+  @Override
+  public void close() {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    if (!result.isDone()) {
+      killable.kill();
+    }
+    stdout.discardRemaining();
+    try {
+      result.get();
+    } catch (AbnormalTerminationException ignore) {
+      // Expected, since we killed the process or are not interested in the result.
+    }
+  }
+
+  /** Converts the execution exception into the one that should be propagated to the caller. */
+  interface CommandFailureHandler {
+    CommandException handle(AbnormalTerminationException e, byte[] stderr)
+        throws CommandException;
+  }
+
+  /** Keeps a reference to the process so that we can kill it on {@link #close()}. */
+  static class KillableHolder implements KillableObserver {
+
+    @Nullable private Killable killable;
+
+    @Override
+    public synchronized void startObserving(Killable killable) {
+      this.killable = killable;
+    }
+
+    @Override
+    public synchronized void stopObserving(Killable killable) {
+      this.killable = null;
+    }
+
+    synchronized void kill() {
+      if (killable != null) {
+        killable.kill();
+      }
+    }
+  }
+
+  /**
+   * A bounded pipe between the thread that consumes the process output and the reader of
+   * {@link #getStdout()}.
+   *
+   * <p>Unlike {@link java.io.PipedInputStream}, readers and writers are woken up as soon as
+   * there is data or space available, and the writer doesn't block once the reader is done.
+   */
+  static class ChunkPipe extends OutputStream {
+
+    private static final byte[] EOF = new byte[0];
+    private static final int CAPACITY = 64;
+
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CAPACITY);
+    private volatile boolean discard;
+
+    private final InputStream input = new InputStream() {
+
+      @Nullable private byte[] current;
+      private int pos;
+
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        while (current == null || pos == current.length) {
+          if (current == EOF || discard) {
+            return -1;
+          }
+          try {
+            current = chunks.take();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading command output");
+          }
+          pos = 0;
+          if (current == EOF) {
+            return -1;
+          }
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+      }
+
+      @Override
+      public void close() {
+        discardRemaining();
+      }
+    };
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      byte[] chunk = new byte[len];
+      System.arraycopy(b, off, chunk, 0, len);
+      put(chunk);
+    }
+
+    @Override
+    public void close() throws IOException {
+      put(EOF);
+    }
+
+    private void put(byte[] chunk) throws IOException {
+      try {
+        while (!discard) {
+          if (chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while writing command output");
+      }
+    }
+
+    /** Makes the writer drop any further output, so that it never blocks. */
+    void discardRemaining() {
+      discard = true;
+      chunks.clear();
+    }
+  }
+}
@@ -23,16 +23,19 @@ import static org.junit.Assert.assertThrows;
 
 import com.beust.jcommander.internal.Lists;
 import com.google.common.base.Strings;
+import com.google.copybara.util.BadExitStatusWithOutputException;
 import com.google.copybara.util.CommandOutputWithStatus;
 import com.google.copybara.util.CommandRunner;
 import com.google.copybara.util.CommandRunner.CommandExecutor;
 import com.google.copybara.util.CommandTimeoutException;
+import com.google.copybara.util.RunningCommand;
 import com.google.copybara.shell.AbnormalTerminationException;
 import com.google.copybara.shell.Command;
 import com.google.copybara.shell.CommandException;
 import com.google.copybara.shell.Killable;
 import com.google.copybara.shell.KillableObserver;
 import com.google.copybara.shell.TerminationStatus;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -154,6 +157,39 @@ public class CommandRunnerTest {
       assertThat(e.getOutput().getStdout()).contains("stdout msg");
   }
 
+  @Test
+  public void testStartStreamsStdout() throws Exception {
+    Command command = bashCommand(""
+        + "for i in $(seq 1 " + LINES_SIZE + "); do echo line $i; done\n"
+        + ">&2 echo stderr msg\n");
+    int lines = 0;
+    try (RunningCommand running = new CommandRunner(command).start()) {
+      BufferedReader stdout = running.getStdoutReader();
+      for (String line = stdout.readLine(); line != null; line = stdout.readLine()) {
+        lines++;
+        assertThat(line).isEqualTo("line " + lines);
+      }
+      assertThat(running.waitFor().success()).isTrue();
+      assertThat(running.getStderr()).isEqualTo("stderr msg\n");
+    }
+    assertThat(lines).isEqualTo(LINES_SIZE);
+  }
+
+  @Test
+  public void testStartBadExitStatus() throws Exception {
+    Command command = bashCommand(""
+        + "echo stdout msg\n"
+        + ">&2 echo stderr msg\n"
+        + "exit 3\n");
+    try (RunningCommand running = new CommandRunner(command).start()) {
+      assertThat(running.getStdoutReader().readLine()).isEqualTo("stdout msg");
+      BadExitStatusWithOutputException e =
+          assertThrows(BadExitStatusWithOutputException.class, running::waitFor);
+      assertThat(e.getOutput().getTerminationStatus().getExitCode()).isEqualTo(3);
+      assertThat(e.getOutput().getStderr()).isEqualTo("stderr msg\n");
+    }
+  }
+
   private Command bashCommand(String bashScript) throws IOException {
     Path tempFile = Files.createTempFile("test", "file");
     Files.write(tempFile, bashScript.getBytes(UTF_8));
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+import com.google.copybara.exception.ValidationException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LocalParallelizerTest {
+
+  private static final ImmutableList<Integer> ELEMENTS =
+      ContiguousSet.create(Range.closedOpen(0, 1000), DiscreteDomain.integers()).asList();
+
+  @Test
+  public void testAllElementsProcessedOnce() throws Exception {
+    List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+    List<Integer> sizes = new LocalParallelizer(4, 10).run(ELEMENTS, elements -> {
+      int size = 0;
+      for (Integer e : elements) {
+        processed.add(e);
+        size++;
+      }
+      return size;
+    });
+
+    assertThat(processed).containsExactlyElementsIn(ELEMENTS);
+    // Many more batches than threads, so that slow batches don't stall the rest.
+    assertThat(sizes.size()).isGreaterThan(4);
+    assertThat(sizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(ELEMENTS.size());
+  }
+
+  @Test
+  public void testSmallInputRunsInOneBatch() throws Exception {
+    List<Integer> sizes = new LocalParallelizer(4, 2000).run(ELEMENTS, elements -> 1);
+    assertThat(sizes).containsExactly(1);
+  }
+
+  @Test
+  public void testExceptionsArePropagated() {
+    LocalParallelizer parallelizer = new LocalParallelizer(4, 10);
+    assertThrows(IOException.class, () -> parallelizer.run(ELEMENTS, elements -> {
+      throw new IOException("io");
+    }));
+    ValidationException e = assertThrows(ValidationException.class,
+        () -> parallelizer.run(ELEMENTS, elements -> {
+          throw new ValidationException("validation");
+        }));
+    assertThat(e).hasMessageThat().isEqualTo("validation");
+  }
+
+  @Test
+  public void testInterrupted() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch blocked = new CountDownLatch(1);
+    AtomicReference<Throwable> thrown = new AtomicReference<>();
+    AtomicReference<Boolean> interruptedFlag = new AtomicReference<>();
+    Thread thread = new Thread(() -> {
+      try {
+        new LocalParallelizer(2, 10).run(ELEMENTS, elements -> {
+          started.countDown();
+          try {
+            blocked.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return null;
+        });
+      } catch (Exception e) {
+        thrown.set(e);
+      }
+      interruptedFlag.set(Thread.currentThread().isInterrupted());
+    });
+    thread.start();
+    started.await();
+    thread.interrupt();
+    thread.join();
+    blocked.countDown();
+
+    assertThat(thrown.get()).isInstanceOf(InterruptedIOException.class);
+    assertThat(interruptedFlag.get()).isTrue();
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.copybara.exception.CommandLineException;
+import com.google.copybara.testing.OptionsBuilder;
+import com.google.copybara.util.ExitCode;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ServerCmdTest {
+
+  private Path workdir;
+  private Options options;
+  private ByteArrayOutputStream output;
+
+  @Before
+  public void setUp() throws Exception {
+    workdir = Files.createTempDirectory("workdir");
+    options = new OptionsBuilder().setOutputRootToTmpDir().build();
+    output = new ByteArrayOutputStream();
+  }
+
+  @Test
+  public void testRequestsRunConcurrently() throws Exception {
+    CountDownLatch running = new CountDownLatch(2);
+    Map<String, ImmutableList<String>> received = new ConcurrentHashMap<>();
+    ServerCmd server = server("1\tmigrate\tcopy.bara.sky\tdefault\t--force\n"
+        + "2\tinfo\tcopy.bara.sky\n", (id, args, tmpRoot) -> {
+          received.put(id, args);
+          running.countDown();
+          // Doesn't finish until the other request is running
+          return Uninterruptibles.awaitUninterruptibly(running, 1, TimeUnit.MINUTES)
+              ? ExitCode.SUCCESS
+              : ExitCode.INTERRUPTED;
+        });
+
+    assertThat(server.run(commandEnv())).isEqualTo(ExitCode.SUCCESS);
+
+    assertThat(received).containsExactly(
+        "1", ImmutableList.of("migrate", "copy.bara.sky", "default", "--force"),
+        "2", ImmutableList.of("info", "copy.bara.sky"));
+    assertThat(responses()).containsExactly("1\t0\tSUCCESS", "2\t0\tSUCCESS");
+  }
+
+  @Test
+  public void testExitCodesAndInvalidRequests() throws Exception {
+    ServerCmd server = server("1\tvalidate\tcopy.bara.sky\n"
+        + "2\thelp\n"
+        + "3\n"
+        + "4\tmigrate\tcopy.bara.sky\n"
+        + "\n"
+        + "5\tmigrate\tcopy.bara.sky\n", (id, args, tmpRoot) -> {
+          if (id.equals("4")) {
+            throw new IllegalStateException("Boom");
+          }
+          return ExitCode.CONFIGURATION_ERROR;
+        });
+
+    assertThat(server.run(commandEnv())).isEqualTo(ExitCode.SUCCESS);
+
+    // Requests after the empty line are ignored
+    assertThat(responses()).containsExactly(
+        "1\t2\tCONFIGURATION_ERROR",
+        "2\t1\tCOMMAND_LINE_ERROR",
+        "3\t1\tCOMMAND_LINE_ERROR",
+        "4\t31\tINTERNAL_ERROR");
+  }
+
+  @Test
+  public void testRequestTempDirsAreDeleted() throws Exception {
+    Map<String, Path> tmpRoots = new ConcurrentHashMap<>();
+    ServerCmd server = server("1\tmigrate\tcopy.bara.sky\n"
+        + "2\tmigrate\tcopy.bara.sky\n", (id, args, tmpRoot) -> {
+          tmpRoots.put(id, tmpRoot);
+          Files.write(tmpRoot.resolve("file.txt"), id.getBytes(UTF_8));
+          return ExitCode.SUCCESS;
+        });
+
+    assertThat(server.run(commandEnv())).isEqualTo(ExitCode.SUCCESS);
+
+    assertThat(tmpRoots.get("1")).isNotEqualTo(tmpRoots.get("2"));
+    for (Path tmpRoot : tmpRoots.values()) {
+      assertThat(tmpRoot.startsWith(
+          options.get(GeneralOptions.class).getDirFactory().getTmpRoot())).isTrue();
+      assertThat(Files.exists(tmpRoot)).isFalse();
+    }
+  }
+
+  @Test
+  public void testServerDoesNotTakeArguments() {
+    ServerCmd server = server("", (id, args, tmpRoot) -> ExitCode.SUCCESS);
+    assertThrows(CommandLineException.class, () -> server.run(
+        new CommandEnv(workdir, options, ImmutableList.of("copy.bara.sky"))));
+  }
+
+  private ServerCmd server(String input, ServerCmd.RequestRunner runner) {
+    return new ServerCmd(runner, new ByteArrayInputStream(input.getBytes(UTF_8)),
+        new PrintStream(output, /*autoFlush=*/true));
+  }
+
+  private CommandEnv commandEnv() {
+    return new CommandEnv(workdir, options, ImmutableList.of());
+  }
+
+  private List<String> responses() {
+    return Splitter.on('\n').omitEmptyStrings()
+        .splitToList(new String(output.toByteArray(), UTF_8));
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.exception.ValidationException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TransformationCacheTest {
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private String upperCase(byte[] content) {
+    loads.incrementAndGet();
+    return new String(content, UTF_8).toUpperCase();
+  }
+
+  @Test
+  public void testResultsAreReusedForSameContent() throws Exception {
+    TransformationCache cache = TransformationCache.create(1024);
+    Object fingerprint = new Object();
+
+    assertThat(cache.get(fingerprint, "foo".getBytes(UTF_8), this::upperCase)).isEqualTo("FOO");
+    assertThat(cache.get(fingerprint, "foo".getBytes(UTF_8), this::upperCase)).isEqualTo("FOO");
+    assertThat(loads.get()).isEqualTo(1);
+
+    assertThat(cache.get(fingerprint, "bar".getBytes(UTF_8), this::upperCase)).isEqualTo("BAR");
+    assertThat(cache.get(new Object(), "foo".getBytes(UTF_8), this::upperCase)).isEqualTo("FOO");
+    assertThat(loads.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void testResultsAreWeighedInMemory() throws Exception {
+    String big = Strings.repeat("a", 1000);
+    // Strings use two bytes per char
+    assertThat(TransformationCache.weigh(big)).isAtLeast(2000L);
+    assertThat(TransformationCache.weigh(Optional.of(big)))
+        .isGreaterThan(TransformationCache.weigh(big));
+    assertThat(TransformationCache.weigh(ImmutableList.of(big, big)))
+        .isAtLeast(2 * TransformationCache.weigh(big));
+
+    // The input is 1000 bytes, but the result doesn't fit
+    TransformationCache cache = TransformationCache.create(1500);
+    Object fingerprint = new Object();
+    cache.get(fingerprint, big.getBytes(UTF_8), this::upperCase);
+    cache.get(fingerprint, big.getBytes(UTF_8), this::upperCase);
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    TransformationCache cache = TransformationCache.disabled();
+    Object fingerprint = new Object();
+
+    cache.get(fingerprint, "foo".getBytes(UTF_8), this::upperCase);
+    cache.get(fingerprint, "foo".getBytes(UTF_8), this::upperCase);
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testFailuresAreNotCached() throws Exception {
+    TransformationCache cache = TransformationCache.create(1024);
+    Object fingerprint = new Object();
+
+    assertThrows(ValidationException.class, () -> cache.get(fingerprint, "foo".getBytes(UTF_8),
+        content -> {
+          throw new ValidationException("fail");
+        }));
+    assertThat(cache.get(fingerprint, "foo".getBytes(UTF_8), this::upperCase)).isEqualTo("FOO");
+  }
+}
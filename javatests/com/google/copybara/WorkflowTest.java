@@ -94,6 +94,7 @@ import java.time.temporal.TemporalAccessor;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 import javax.annotation.Nullable;
@@ -2854,6 +2855,113 @@ public class WorkflowTest {
     assertThat(secondEffect.getDestinationRef().getId()).isEqualTo("9999");
   }
 
+  @Test
+  public void testDeferredWriteIsReportedWhenWritten() throws Exception {
+    int[] eventsBeforeFlush = {-1};
+    options.testingOptions.destination = deferringDestination(() -> {
+      eventsBeforeFlush[0] = eventMonitor.changeMigrationFinishedEventCount();
+      return true;
+    });
+    origin.singleFileChange(0, "one commit", "foo.txt", "1");
+
+    loadConfig(afterMigrationHookConfig()).getMigration("default").run(workdir,
+        ImmutableList.of());
+
+    // The change is not reported as migrated until the write happens
+    assertThat(eventsBeforeFlush[0]).isEqualTo(0);
+    ChangeMigrationFinishedEvent event =
+        Iterables.getOnlyElement(eventMonitor.changeMigrationFinishedEvents);
+    assertThat(event.getDestinationEffects()).hasSize(2);
+    assertThat(event.getDestinationEffects().get(0).getType()).isEqualTo(Type.CREATED);
+    assertThat(event.getDestinationEffects().get(0).getSummary()).isEqualTo("Change created");
+    assertThat(event.getDestinationEffects().get(1).getSummary()).isEqualTo("New effect");
+  }
+
+  @Test
+  public void testDiscardedDeferredWriteIsReportedAsError() throws Exception {
+    options.testingOptions.destination = deferringDestination(() -> false);
+    origin.singleFileChange(0, "one commit", "foo.txt", "1");
+
+    RepoException e = assertThrows(RepoException.class,
+        () -> loadConfig(afterMigrationHookConfig()).getMigration("default").run(workdir,
+            ImmutableList.of()));
+    assertThat(e).hasMessageThat().contains("Push failed!");
+
+    ChangeMigrationFinishedEvent event =
+        Iterables.getOnlyElement(eventMonitor.changeMigrationFinishedEvents);
+    assertThat(event.getDestinationEffects()).hasSize(2);
+    DestinationEffect effect = event.getDestinationEffects().get(0);
+    assertThat(effect.getType()).isEqualTo(Type.TEMPORARY_ERROR);
+    assertThat(effect.getSummary()).isEqualTo("Errors happened during the migration");
+    assertThat(effect.getErrors()).containsExactly("Push failed!");
+    assertThat(effect.getOriginRefs().get(0).getRef()).isEqualTo("0");
+    // The after_migration actions see the error
+    assertThat(event.getDestinationEffects().get(1).getSummary()).isEqualTo("New effect");
+  }
+
+  /**
+   * A destination whose writes are pending until flush, like batched pushes. The flush writes
+   * them if {@code flushResult} returns true, or discards them and fails otherwise.
+   */
+  private RecordsProcessCallDestination deferringDestination(Supplier<Boolean> flushResult) {
+    return new RecordsProcessCallDestination() {
+      @Override
+      public Writer<Revision> newWriter(WriterContext writerContext) {
+        return new RecordsProcessCallDestination.WriterImpl(false) {
+          private int pending;
+          private int discarded;
+
+          @Override
+          public ImmutableList<DestinationEffect> write(TransformResult transformResult,
+              Glob destinationFiles, Console console)
+              throws ValidationException, RepoException, IOException {
+            ImmutableList<DestinationEffect> effects =
+                super.write(transformResult, destinationFiles, console);
+            pending++;
+            return effects;
+          }
+
+          @Override
+          public void flush(Console console) throws RepoException {
+            int flushed = pending;
+            pending = 0;
+            if (!flushResult.get()) {
+              discarded += flushed;
+              throw new RepoException("Push failed!");
+            }
+          }
+
+          @Override
+          public int getPendingWrites() {
+            return pending;
+          }
+
+          @Override
+          public int getDiscardedWrites() {
+            return discarded;
+          }
+        };
+      }
+    };
+  }
+
+  private String afterMigrationHookConfig() {
+    return ""
+        + "def test(ctx):\n"
+        + "  origin_refs = [ctx.origin.new_origin_ref('1111')]\n"
+        + "  dest_ref = ctx.destination.new_destination_ref(ref = '9999', type = 'some_type')\n"
+        + "  ctx.record_effect('New effect', origin_refs, dest_ref)\n"
+        + "\n"
+        + "core.workflow(\n"
+        + "  name = 'default',\n"
+        + "  origin = testing.origin(),\n"
+        + "  destination = testing.destination(),\n"
+        + "  transformations = [],\n"
+        + "  authoring = " + authoring + ",\n"
+        + "  after_migration = [test]"
+        + ")\n";
+  }
+
   @Test
   public void testOnFinishHookDoesNotReturnResult() throws Exception {
     origin.singleFileChange(0, "one commit", "foo.txt", "1");
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.benchmarks;
+
+import com.google.common.io.ByteStreams;
+import com.google.copybara.TransformWork;
+import com.google.copybara.Transformation;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.testing.OptionsBuilder;
+import com.google.copybara.testing.SkylarkTestExecutor;
+import com.google.copybara.testing.TransformWorks;
+import com.google.copybara.util.console.Console;
+import com.google.copybara.util.console.LogConsole;
+import java.io.PrintStream;
+import java.nio.file.Path;
+
+/**
+ * Helpers shared by the benchmarks for creating transformations from Starlark snippets.
+ */
+final class BenchmarkSupport {
+
+  /** A console that discards everything so that output doesn't skew the measurements. */
+  static final Console NULL_CONSOLE =
+      LogConsole.writeOnlyConsole(new PrintStream(ByteStreams.nullOutputStream()), false);
+
+  private BenchmarkSupport() {}
+
+  static OptionsBuilder options() {
+    return new OptionsBuilder().setConsole(NULL_CONSOLE);
+  }
+
+  /** Evaluates {@code expression} (for example 'core.replace(...)') into a transformation. */
+  static Transformation transformation(OptionsBuilder options, String expression)
+      throws ValidationException {
+    return new SkylarkTestExecutor(options).eval("t", "t = " + expression);
+  }
+
+  /**
+   * Creates a {@link TransformWork} for {@code checkoutDir}. No-op transformations are ignored, as
+   * some of the synthetic files are expected not to match.
+   */
+  static TransformWork work(Path checkoutDir) {
+    return TransformWorks.of(checkoutDir, "benchmark", NULL_CONSOLE, /*ignoreNoop=*/ true);
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.benchmarks;
+
+import static com.google.copybara.benchmarks.BenchmarkSupport.work;
+
+import com.google.copybara.Transformation;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.testing.OptionsBuilder;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks a {@code core.transform} sequence of {@code core.replace} calls over the same glob,
+ * with and without joining of compatible consecutive transformations
+ * ({@code --notransformation-join}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SequenceBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int files;
+
+  @Param({"20"})
+  public int replaces;
+
+  @Param({"true", "false"})
+  public boolean join;
+
+  private Path checkoutDir;
+  private Transformation sequence;
+
+  @Setup(Level.Trial)
+  public void createTransformation() throws ValidationException {
+    OptionsBuilder options = BenchmarkSupport.options();
+    options.workflowOptions.noTransformationJoin = !join;
+    StringBuilder sb = new StringBuilder("core.transform([\n");
+    for (int i = 0; i < replaces; i++) {
+      sb.append(String.format(""
+          + "    core.replace(\n"
+          + "        before = 'Class%d;',\n"
+          + "        after = 'Renamed%d;',\n"
+          + "        paths = glob(['**.java']),\n"
+          + "    ),\n", i, i));
+    }
+    sb.append("])");
+    sequence = BenchmarkSupport.transformation(options, sb.toString());
+  }
+
+  @Setup(Level.Iteration)
+  public void createCheckout() throws IOException {
+    checkoutDir = SyntheticCheckout.create(files, /*linesPerFile=*/ 50);
+  }
+
+  @TearDown(Level.Iteration)
+  public void deleteCheckout() throws IOException {
+    SyntheticCheckout.delete(checkoutDir);
+  }
+
+  @Benchmark
+  public void sequence() throws IOException, ValidationException, RepoException {
+    sequence.transform(work(checkoutDir));
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.benchmarks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.copybara.util.FileUtil;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates deterministic synthetic checkouts for benchmarking transformations.
+ *
+ * <p>Files are spread over a two level directory tree ({@code dirNN/subNN/FileN.java}) so that
+ * globs and tree walks behave like in a real repository. Roughly one in four lines contains
+ * {@code com.example.foo}, one in ten a {@code TODO(user)} and one in five files has no matches
+ * at all, so that transformations exercise both the changed and the unchanged paths.
+ */
+final class SyntheticCheckout {
+
+  private static final long SEED = 42;
+  private static final int FILES_PER_DIR = 50;
+  private static final int SUBDIRS_PER_DIR = 20;
+
+  private SyntheticCheckout() {}
+
+  /**
+   * Creates {@code files} files with {@code linesPerFile} lines each inside a new temporary
+   * directory and returns it.
+   */
+  static Path create(int files, int linesPerFile) throws IOException {
+    Path root = Files.createTempDirectory("copybara-benchmark");
+    Random random = new Random(SEED);
+    for (int i = 0; i < files; i++) {
+      int dir = i / FILES_PER_DIR;
+      Path file = root.resolve(String.format("dir%02d/sub%02d/File%d.java",
+          dir / SUBDIRS_PER_DIR, dir % SUBDIRS_PER_DIR, i));
+      Files.createDirectories(file.getParent());
+      Files.write(file, content(random, i, linesPerFile).getBytes(UTF_8));
+    }
+    return root;
+  }
+
+  static void delete(Path root) throws IOException {
+    FileUtil.deleteRecursively(root);
+  }
+
+  private static String content(Random random, int index, int lines) {
+    boolean noMatches = index % 5 == 0;
+    StringBuilder sb = new StringBuilder(lines * 40);
+    sb.append("package com.example.bench;\n\n");
+    for (int i = 0; i < lines; i++) {
+      int kind = random.nextInt(20);
+      if (!noMatches && kind < 5) {
+        sb.append("import com.example.foo.Class").append(i).append(";\n");
+      } else if (!noMatches && kind < 7) {
+        sb.append("  // TODO(user").append(i % 7).append("): Fix this line ").append(i)
+            .append('\n');
+      } else {
+        sb.append("  int field").append(i).append(" = ").append(random.nextInt()).append(";\n");
+      }
+    }
+    return sb.toString();
+  }
+}
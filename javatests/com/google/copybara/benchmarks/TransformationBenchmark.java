@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.benchmarks;
+
+import static com.google.copybara.benchmarks.BenchmarkSupport.transformation;
+import static com.google.copybara.benchmarks.BenchmarkSupport.work;
+
+import com.google.copybara.Transformation;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.testing.OptionsBuilder;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the single file-based transformations over synthetic checkouts.
+ *
+ * <p>Transformations modify the checkout, so every iteration runs exactly once over a freshly
+ * generated tree ({@link Mode#SingleShotTime}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TransformationBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int files;
+
+  @Param({"50"})
+  public int linesPerFile;
+
+  private Path checkoutDir;
+  private Transformation replace;
+  private Transformation filterReplace;
+  private Transformation verifyMatch;
+  private Transformation todoReplace;
+  private Transformation move;
+
+  @Setup(Level.Trial)
+  public void createTransformations() throws ValidationException {
+    OptionsBuilder options = BenchmarkSupport.options();
+    replace = transformation(options, ""
+        + "core.replace(\n"
+        + "    before = 'com.example.foo.${x}',\n"
+        + "    after = 'com.example.bar.${x}',\n"
+        + "    regex_groups = {'x': '[A-Za-z0-9]+'},\n"
+        + "    paths = glob(['**.java']),\n"
+        + ")");
+    filterReplace = transformation(options, ""
+        + "core.filter_replace(\n"
+        + "    regex = 'com[.]example[.]([a-z]+)',\n"
+        + "    mapping = {'com.example.foo': 'com.example.bar'},\n"
+        + "    paths = glob(['**.java']),\n"
+        + ")");
+    verifyMatch = transformation(options, ""
+        + "core.verify_match(\n"
+        + "    regex = 'package com.example',\n"
+        + "    paths = glob(['**.java']),\n"
+        + ")");
+    todoReplace = transformation(options, ""
+        + "core.todo_replace(\n"
+        + "    mapping = {'user1': 'foo', 'user2': 'bar'},\n"
+        + "    paths = glob(['**.java']),\n"
+        + ")");
+    move = transformation(options, "core.move('dir00', 'moved/dir00')");
+  }
+
+  @Setup(Level.Iteration)
+  public void createCheckout() throws IOException {
+    checkoutDir = SyntheticCheckout.create(files, linesPerFile);
+  }
+
+  @TearDown(Level.Iteration)
+  public void deleteCheckout() throws IOException {
+    SyntheticCheckout.delete(checkoutDir);
+  }
+
+  @Benchmark
+  public void replace() throws IOException, ValidationException, RepoException {
+    replace.transform(work(checkoutDir));
+  }
+
+  @Benchmark
+  public void filterReplace() throws IOException, ValidationException, RepoException {
+    filterReplace.transform(work(checkoutDir));
+  }
+
+  @Benchmark
+  public void verifyMatch() throws IOException, ValidationException, RepoException {
+    verifyMatch.transform(work(checkoutDir));
+  }
+
+  @Benchmark
+  public void todoReplace() throws IOException, ValidationException, RepoException {
+    todoReplace.transform(work(checkoutDir));
+  }
+
+  @Benchmark
+  public void copyOrMove() throws IOException, ValidationException, RepoException {
+    move.transform(work(checkoutDir));
+  }
+}
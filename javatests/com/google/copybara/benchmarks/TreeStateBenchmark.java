@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.treestate.FileSystemTreeState;
+import com.google.copybara.treestate.TreeState.FileState;
+import com.google.copybara.util.Glob;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the first (uncached) {@link FileSystemTreeState#find} over a checkout, that walks
+ * the whole tree and filters it with a glob.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TreeStateBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int files;
+
+  private Path checkoutDir;
+  private PathMatcher matcher;
+
+  @Setup(Level.Trial)
+  public void createCheckout() throws IOException {
+    checkoutDir = SyntheticCheckout.create(files, /*linesPerFile=*/ 1);
+    matcher = Glob.createGlob(ImmutableList.of("dir0*/**.java")).relativeTo(checkoutDir);
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteCheckout() throws IOException {
+    SyntheticCheckout.delete(checkoutDir);
+  }
+
+  @Benchmark
+  public Iterable<FileState> find() throws IOException {
+    return new FileSystemTreeState(checkoutDir).find(matcher);
+  }
+}
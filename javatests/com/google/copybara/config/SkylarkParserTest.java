@@ -346,6 +346,23 @@ public class SkylarkParserTest {
     assertThat(val).isEqualTo("main_foo");
   }
 
+  @Test
+  public void testCompiledConfigFilesAreEvaluatedAgain() throws Exception {
+    parser.addConfigFile("foo", "first");
+    String content = "val = mock_labels_aware_module.read_foo()\n" + NON_IMPORTANT_WORKFLOW;
+    String val = parser.eval("val", content);
+    assertThat(val).isEqualTo("first");
+
+    // A new parser, like the ones created for each request of the 'server' command
+    SkylarkTestExecutor other = new SkylarkTestExecutor(options)
+        .withStaticModules(ImmutableSet.of(Mock.class, MockLabelsAwareModule.class));
+    other.addConfigFile("foo", "second");
+    val = other.eval("val", content);
+    assertThat(val).isEqualTo("second");
+    val = other.eval("val", "val = 'changed'\n" + NON_IMPORTANT_WORKFLOW);
+    assertThat(val).isEqualTo("changed");
+  }
+
   @Test
   public void testParentEnvInmutable() throws Exception {
     parser.addConfigFile("foo.bara.sky", "my_list = [1, 2, 3]\n");
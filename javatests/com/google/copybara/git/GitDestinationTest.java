@@ -31,6 +31,7 @@ import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.truth.Truth;
 import com.google.copybara.Change;
@@ -64,6 +65,7 @@ import com.google.copybara.util.console.testing.TestingConsole;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
@@ -298,6 +300,70 @@ public class GitDestinationTest {
     assertCommitHasOrigin("testPushToRef", "origin_ref");
   }
 
+  @Test
+  public void testBatchedPushes() throws Exception {
+    fetch = "master";
+    push = "master";
+    options.gitDestination.pushBatchSize = 2;
+    Writer<GitRevision> writer = firstCommitWriter();
+
+    Files.write(workdir.resolve("test.txt"), "one".getBytes(UTF_8));
+    process(writer, new DummyRevision("first"));
+    // Only committed locally until there are two changes
+    assertThat(repo().refExists("refs/heads/master")).isFalse();
+
+    Files.write(workdir.resolve("test.txt"), "two".getBytes(UTF_8));
+    process(writer, new DummyRevision("second"));
+    assertCommitCount(2, "master");
+    assertCommitHasOrigin("master", "second");
+
+    Files.write(workdir.resolve("test.txt"), "three".getBytes(UTF_8));
+    process(writer, new DummyRevision("third"));
+    assertCommitCount(2, "master");
+
+    writer.flush(console);
+    assertCommitCount(3, "master");
+    assertCommitHasOrigin("master", "third");
+  }
+
+  @Test
+  public void testBatchedPushFailureRollsBack() throws Exception {
+    fetch = "master";
+    push = "master";
+    options.gitDestination.pushBatchSize = 2;
+    Writer<GitRevision> writer = firstCommitWriter();
+
+    Files.write(workdir.resolve("test.txt"), "one".getBytes(UTF_8));
+    process(writer, new DummyRevision("first"));
+    writer.flush(console);
+    assertCommitCount(1, "master");
+
+    Path hook = repoGitDir.resolve("hooks/pre-receive");
+    Files.createDirectories(hook.getParent());
+    Files.write(hook, "#!/bin/sh\nexit 1\n".getBytes(UTF_8));
+    Files.setPosixFilePermissions(hook, PosixFilePermissions.fromString("rwxr-xr-x"));
+
+    Files.write(workdir.resolve("test.txt"), "two".getBytes(UTF_8));
+    process(writer, new DummyRevision("second"));
+    assertThat(writer.getPendingWrites()).isEqualTo(1);
+    Files.write(workdir.resolve("test.txt"), "three".getBytes(UTF_8));
+    assertThrows(RepoException.class, () -> process(writer, new DummyRevision("third")));
+    assertThat(writer.getPendingWrites()).isEqualTo(0);
+    assertThat(writer.getDiscardedWrites()).isEqualTo(2);
+
+    Files.delete(hook);
+    Files.write(workdir.resolve("test.txt"), "four".getBytes(UTF_8));
+    process(writer, new DummyRevision("fourth"));
+    writer.flush(console);
+
+    // The changes that failed to be pushed were discarded
+    assertCommitCount(2, "master");
+    assertCommitHasOrigin("master", "fourth");
+    assertThatCheckout(repo(), "master")
+        .containsFile("test.txt", "four")
+        .containsNoMoreFiles();
+  }
+
   @Test
   public void testNoSetRevId() throws Exception {
     fetch = "master";
@@ -1088,6 +1154,108 @@ public class GitDestinationTest {
         .isEqualTo("first_commit");
   }
 
+  @Test
+  public void previousImportReference_statusIndex() throws Exception {
+    fetch = "master";
+    push = "master";
+
+    Files.write(workdir.resolve("test.txt"), "some content".getBytes());
+    process(firstCommitWriter(), new DummyRevision("first_commit"));
+    assertThat(newWriter()
+        .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline())
+        .isEqualTo("first_commit");
+
+    Path scratchTree = Files.createTempDirectory("GitDestinationTest-scratchTree");
+    Files.write(scratchTree.resolve("excluded.dat"), new byte[] {1});
+    repo().withWorkTree(scratchTree).add().files("excluded.dat").run();
+    repo().withWorkTree(scratchTree).simpleCommand("commit", "-m", "excluded");
+
+    // Only the new commit is visited and it is not a migration.
+    assertThat(newWriter()
+        .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline())
+        .isEqualTo("first_commit");
+
+    Files.write(workdir.resolve("test.txt"), "other content".getBytes());
+    process(newWriter(), new DummyRevision("second_commit"));
+    assertThat(newWriter()
+        .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline())
+        .isEqualTo("second_commit");
+
+    // History rewrite: the indexed tip is no longer an ancestor of the branch.
+    repo().simpleCommand("update-ref", "refs/heads/master", "HEAD~2");
+    assertThat(newWriter()
+        .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline())
+        .isEqualTo("first_commit");
+
+    options.gitDestination.noStatusIndex = true;
+    assertThat(newWriter()
+        .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline())
+        .isEqualTo("first_commit");
+  }
+
+  @Test
+  public void previousImportReference_statusIndexFirstParent() throws Exception {
+    fetch = "master";
+    push = "master";
+    options.gitDestination.lastRevFirstParent = true;
+
+    Files.write(workdir.resolve("test.txt"), "some content".getBytes());
+    process(firstCommitWriter(), new DummyRevision("first_commit"));
+    repo().simpleCommand("branch", "side", "master");
+    Files.write(workdir.resolve("test.txt"), "other content".getBytes());
+    process(newWriter(), new DummyRevision("second_commit"));
+    assertThat(newWriter()
+        .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline())
+        .isEqualTo("second_commit");
+
+    // The indexed tip is still an ancestor of the branch, but only through the second parent.
+    Path scratchTree = Files.createTempDirectory("GitDestinationTest-scratchTree");
+    GitRepository scratchRepo = repo().withWorkTree(scratchTree);
+    scratchRepo.simpleCommand("checkout", "-f", "side");
+    Files.write(scratchTree.resolve("excluded.dat"), new byte[] {1});
+    scratchRepo.add().files("excluded.dat").run();
+    scratchRepo.simpleCommand("commit", "-m", "excluded");
+    scratchRepo.simpleCommand("merge", "--no-ff", "-m", "merge master", "master");
+    repo().simpleCommand("update-ref", "refs/heads/master", "refs/heads/side");
+
+    assertThat(newWriter()
+        .getDestinationStatus(destinationFiles, DummyOrigin.LABEL_NAME).getBaseline())
+        .isEqualTo("first_commit");
+  }
+
+  @Test
+  public void findChangesWithLabelValues_index() throws Exception {
+    fetch = "master";
+    push = "master";
+    ImmutableList<String> labels = ImmutableList.of(DummyOrigin.LABEL_NAME);
+
+    Files.write(workdir.resolve("test.txt"), "some content".getBytes());
+    process(firstCommitWriter(), new DummyRevision("first_commit"));
+    String firstCommit = repo().parseRef("master");
+    assertThat(newWriter().findChangesWithLabelValues(
+        ImmutableSet.of("first_commit", "missing"), labels, 100))
+        .containsExactly("first_commit", firstCommit);
+
+    Files.write(workdir.resolve("test.txt"), "other content".getBytes());
+    process(newWriter(), new DummyRevision("second_commit"));
+    String secondCommit = repo().parseRef("master");
+    // Only the new commit is visited, since the previous walk reached the first commit.
+    assertThat(newWriter().findChangesWithLabelValues(
+        ImmutableSet.of("first_commit", "second_commit"), labels, 100))
+        .containsExactly("first_commit", firstCommit, "second_commit", secondCommit);
+
+    // History rewrite: the indexed tip is no longer an ancestor of the branch.
+    repo().simpleCommand("update-ref", "refs/heads/master", "HEAD~1");
+    assertThat(newWriter().findChangesWithLabelValues(
+        ImmutableSet.of("first_commit", "second_commit"), labels, 100))
+        .containsExactly("first_commit", firstCommit);
+
+    options.gitDestination.noStatusIndex = true;
+    assertThat(newWriter().findChangesWithLabelValues(
+        ImmutableSet.of("first_commit"), labels, 100))
+        .containsExactly("first_commit", firstCommit);
+  }
+
   @Test
   public void previousImportReferenceIsBeforeACommitWithMultipleParents() throws Exception {
     Truth.assertThat(checkPreviousImportReferenceMultipleParents()).isEqualTo("b2-origin");
@@ -42,6 +42,7 @@ import com.google.api.client.json.gson.GsonFactory;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -309,6 +310,71 @@ public class GitHubPrOriginTest {
         .buildRequest("GET", "https://api.github.com/repos/google/example/issues/125");
   }
 
+  @Test
+  public void testGitResolveWithGraphQl() throws Exception {
+    mockPullRequestAndIssue("open", 125, "foo: yes", "bar: yes");
+    mockGraphQl(
+        graphQlResponse(125, "foo: yes"),
+        graphQlResponse(125, "foo: yes", "bar: yes"));
+    GitHubPROrigin origin = githubPrOrigin(
+        "url = 'https://github.com/google/example'",
+        "required_labels = ['foo: yes', 'bar: yes']",
+        "retryable_labels = ['foo: yes', 'bar: yes']");
+    ImmutableListMultimap<String, String> restLabels = resolveLabels(origin, 125);
+
+    options.githubPrOrigin.useGraphQl = true;
+    // The labels are fetched again while retrying
+    assertThat(origin.resolve("125").associatedLabels()).isEqualTo(restLabels);
+
+    verify(gitUtil.httpTransport(), times(2))
+        .buildRequest("POST", "https://api.github.com/graphql");
+    // Only from the REST resolve
+    verify(gitUtil.httpTransport(), times(1))
+        .buildRequest("GET", "https://api.github.com/repos/google/example/issues/125");
+    verify(gitUtil.httpTransport(), times(1))
+        .buildRequest("GET", "https://api.github.com/repos/google/example/pulls/125");
+  }
+
+  @Test
+  public void testGitResolveWithGraphQlFallsBackToRest() throws Exception {
+    mockPullRequestAndIssue("open", 125, "foo: yes", "bar: yes");
+    mockGraphQl(
+        graphQlResponse(125, "foo: yes"),
+        mockResponse("{\"errors\": [{\"type\": \"INTERNAL\", \"message\": \"Oops\"}]}"));
+    GitHubPROrigin origin = githubPrOrigin(
+        "url = 'https://github.com/google/example'",
+        "required_labels = ['foo: yes', 'bar: yes']",
+        "retryable_labels = ['foo: yes', 'bar: yes']");
+    ImmutableListMultimap<String, String> restLabels = resolveLabels(origin, 125);
+
+    options.githubPrOrigin.useGraphQl = true;
+    // The refetch fails, so the labels and the pull request come from the REST API
+    assertThat(origin.resolve("125").associatedLabels()).isEqualTo(restLabels);
+
+    verify(gitUtil.httpTransport(), times(2))
+        .buildRequest("POST", "https://api.github.com/graphql");
+    verify(gitUtil.httpTransport(), times(2))
+        .buildRequest("GET", "https://api.github.com/repos/google/example/issues/125");
+    verify(gitUtil.httpTransport(), times(2))
+        .buildRequest("GET", "https://api.github.com/repos/google/example/pulls/125");
+  }
+
+  /** Creates the pull request in the remote and returns the labels resolved with the REST API. */
+  private ImmutableListMultimap<String, String> resolveLabels(GitHubPROrigin origin, int prNumber)
+      throws Exception {
+    GitRepository remote = gitUtil.mockRemoteRepo("github.com/google/example");
+    addFiles(remote, "first change", ImmutableMap.of(prNumber + ".txt", ""));
+    remote.simpleCommand("update-ref", GitHubUtil.asHeadRef(prNumber), remote.parseRef("HEAD"));
+
+    ImmutableListMultimap<String, String> labels = origin.resolve("" + prNumber)
+        .associatedLabels();
+    assertThat(labels).containsEntry(GITHUB_PR_NUMBER_LABEL, "" + prNumber);
+    assertThat(labels).containsEntry(GITHUB_PR_TITLE, "test summary");
+    assertThat(labels).containsEntry(GITHUB_PR_USER, "some_user");
+    assertThat(labels).containsEntry(GITHUB_PR_ASSIGNEE, "assignee2");
+    return labels;
+  }
+
   @Test
   public void testGitResolveRequiredLabelsNotRetryable() throws Exception {
     mockPullRequestAndIssue("open", 125);
@@ -980,6 +1046,41 @@ public class GitHubPrOriginTest {
         mockResponse(content));
   }
 
+  private void mockGraphQl(LowLevelHttpRequest first, LowLevelHttpRequest... rest) {
+    gitUtil.mockApi(eq("POST"), eq("https://api.github.com/graphql"), first, rest);
+  }
+
+  /** The GraphQL version of the pull request and issue returned by {@link #mockPullRequest}. */
+  private LowLevelHttpRequest graphQlResponse(int number, String... labels) {
+    StringBuilder labelNodes = new StringBuilder();
+    for (String label : labels) {
+      labelNodes.append(labelNodes.length() == 0 ? "" : ", ")
+          .append("{\"name\": \"").append(label).append("\"}");
+    }
+    return mockResponse("{\"data\": {\"repository\": {\"pullRequest\": {\n"
+        + "  \"number\": " + number + ",\n"
+        + "  \"title\": \"test summary\",\n"
+        + "  \"body\": \"test summary\\n\\nMore text\",\n"
+        + "  \"url\": \"http://some/pr/url/" + number + "\",\n"
+        + "  \"state\": \"OPEN\",\n"
+        + "  \"createdAt\": \"2020-01-01T10:00:00Z\",\n"
+        + "  \"updatedAt\": \"2020-01-02T10:00:00Z\",\n"
+        + "  \"author\": {\"login\": \"some_user\"},\n"
+        + "  \"assignees\": {\"totalCount\": 2,\n"
+        + "    \"nodes\": [{\"login\": \"assignee1\"}, {\"login\": \"assignee2\"}]},\n"
+        + "  \"labels\": {\"totalCount\": " + labels.length + ",\n"
+        + "    \"nodes\": [" + labelNodes + "]},\n"
+        + "  \"reviewRequests\": {\"totalCount\": 0, \"nodes\": []},\n"
+        + "  \"headRefName\": \"example-branch\",\n"
+        + "  \"headRefOid\": \"1111111111111111111111111111111111111111\",\n"
+        + "  \"headRepositoryOwner\": {\"login\": \"googletestuser\"},\n"
+        + "  \"baseRefName\": \"master\",\n"
+        + "  \"baseRefOid\": \"2222222222222222222222222222222222222222\",\n"
+        + "  \"baseRepository\": {\"owner\": {\"login\": \"google\"}},\n"
+        + "  \"reviews\": {\"totalCount\": 0, \"nodes\": []}\n"
+        + "}}}}");
+  }
+
   private void mockIssue(int number, LowLevelHttpRequest first, LowLevelHttpRequest... rest)
       throws IOException {
     gitUtil.mockApi(
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.copybara.testing.OptionsBuilder;
+import com.google.copybara.testing.git.GitTestUtil;
+import com.google.copybara.util.FileUtil;
+import com.google.copybara.util.console.testing.TestingConsole;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GitOptionsTest {
+
+  private OptionsBuilder options;
+
+  @Before
+  public void setup() throws Exception {
+    options = new OptionsBuilder()
+        .setEnvironment(GitTestUtil.getGitEnv().getEnvironment())
+        .setOutputRootToTmpDir()
+        .setConsole(new TestingConsole());
+    options.git.credentialHelperStorePath = Files.createTempFile("credentials", "test").toString();
+  }
+
+  @Test
+  public void testCachedBareRepoIsReused() throws Exception {
+    String url = "https://example.com/cached_" + System.nanoTime();
+    GitRepository repo = options.git.cachedBareRepoForUrl(url);
+
+    assertThat(options.git.cachedBareRepoForUrl(url)).isSameInstanceAs(repo);
+    assertThat(options.git.cachedBareRepoForUrl(url + "/other")).isNotSameInstanceAs(repo);
+    assertThat(repo.simpleCommand("config", "credential.helper").getStdout().trim())
+        .isEqualTo("store --file=" + options.git.credentialHelperStorePath);
+  }
+
+  @Test
+  public void testCachedBareRepoConfigChange() throws Exception {
+    String url = "https://example.com/config_change_" + System.nanoTime();
+    GitRepository repo = options.git.cachedBareRepoForUrl(url);
+
+    options.git.credentialHelperStorePath = Files.createTempFile("other", "test").toString();
+    GitRepository other = options.git.cachedBareRepoForUrl(url);
+    assertThat(other).isNotSameInstanceAs(repo);
+    assertThat(other.simpleCommand("config", "credential.helper").getStdout().trim())
+        .isEqualTo("store --file=" + options.git.credentialHelperStorePath);
+  }
+
+  @Test
+  public void testCachedBareRepoIsInitializedAgainIfDeleted() throws Exception {
+    String url = "https://example.com/deleted_" + System.nanoTime();
+    GitRepository repo = options.git.cachedBareRepoForUrl(url);
+    Path gitDir = repo.getGitDir();
+    FileUtil.deleteRecursively(gitDir);
+
+    // A new GitOptions, as in a new invocation in the same process.
+    OptionsBuilder newOptions = new OptionsBuilder()
+        .setEnvironment(GitTestUtil.getGitEnv().getEnvironment())
+        .setOutputRootToTmpDir()
+        .setConsole(new TestingConsole());
+    newOptions.git.credentialHelperStorePath = options.git.credentialHelperStorePath;
+    GitRepository newRepo = newOptions.git.cachedBareRepoForUrl(url);
+    assertThat(newRepo.getGitDir()).isEqualTo(gitDir);
+    assertThat(Files.isRegularFile(gitDir.resolve("config"))).isTrue();
+  }
+}
@@ -52,10 +52,11 @@ public class GitOriginSubmodulesTest {
       AuthoringMappingMode.PASS_THRU, ImmutableSet.of());
 
   private SkylarkTestExecutor skylark;
+  private OptionsBuilder options;
 
   @Before
   public void setup() throws Exception {
-    OptionsBuilder options = new OptionsBuilder()
+    options = new OptionsBuilder()
         .setConsole(new TestingConsole())
         .setOutputRootToTmpDir();
 
@@ -147,6 +148,38 @@ public class GitOriginSubmodulesTest {
         .containsNoMoreFiles();
   }
 
+  @Test
+  public void testSubmodulesInParallel() throws Exception {
+    options.gitOrigin.submodulesMaxConcurrency = 3;
+    Path base = Files.createTempDirectory("base");
+    GitRepository rootRepo = createRepoWithFoo(base, "rootRepo");
+    for (int i = 0; i < 5; i++) {
+      GitRepository child = createRepoWithFoo(base, "child" + i);
+      commitAdd(child, ImmutableMap.of("foo", "child" + i));
+      rootRepo.simpleCommand("submodule", "add", "-f", "--name", "child" + i,
+          "file://" + child.getWorkTree(), "child" + i);
+    }
+    // Same url, different path. They share the cached repository.
+    rootRepo.simpleCommand("submodule", "add", "-f", "--name", "again",
+        "file://" + base.resolve("child0"), "again");
+    commit(rootRepo, "adding submodules");
+
+    GitOrigin origin = origin("file://" + rootRepo.getGitDir(), "master");
+    GitRevision master = origin.resolve("master");
+    origin.newReader(Glob.ALL_FILES, authoring).checkout(master, checkoutDir);
+
+    FileSubjects.assertThatPath(checkoutDir)
+        .containsFiles(GITMODULES)
+        .containsFile("foo", "1")
+        .containsFile("child0/foo", "child0")
+        .containsFile("child1/foo", "child1")
+        .containsFile("child2/foo", "child2")
+        .containsFile("child3/foo", "child3")
+        .containsFile("child4/foo", "child4")
+        .containsFile("again/foo", "child0")
+        .containsNoMoreFiles();
+  }
+
   private GitRepository createRepoWithFoo(Path base, String name)
       throws IOException, RepoException, ValidationException {
     Files.createDirectories(base.resolve(name));
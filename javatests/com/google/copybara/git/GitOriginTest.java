@@ -30,6 +30,7 @@ import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MoreCollectors;
 import com.google.copybara.Change;
 import com.google.copybara.ChangeVisitable.VisitResult;
 import com.google.copybara.Changes;
@@ -47,12 +48,14 @@ import com.google.copybara.exception.EmptyChangeException;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitCredential.UserPassword;
+import com.google.copybara.git.GitRepository.GitLogEntry;
 import com.google.copybara.testing.OptionsBuilder;
 import com.google.copybara.testing.RecordsProcessCallDestination;
 import com.google.copybara.testing.RecordsProcessCallDestination.ProcessedChange;
 import com.google.copybara.testing.SkylarkTestExecutor;
 import com.google.copybara.testing.TransformWorks;
 import com.google.copybara.testing.git.GitTestUtil;
+import com.google.copybara.util.CommandRunner;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Message.MessageType;
 import com.google.copybara.util.console.testing.TestingConsole;
@@ -65,6 +68,9 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.StreamHandler;
 import java.util.stream.Collectors;
 import org.junit.Before;
 import org.junit.Test;
@@ -325,6 +331,33 @@ public class GitOriginTest {
         .isEmpty();
   }
 
+  @Test
+  public void testCheckoutIncremental() throws Exception {
+    Path pristine = Files.createTempDirectory("pristine").resolve("checkout");
+    GitRevision first = origin.resolve("master");
+    assertThat(newReader().checkoutIncremental(first, pristine)).isTrue();
+    assertThat(new String(Files.readAllBytes(pristine.resolve("test.txt")), UTF_8))
+        .isEqualTo("some content");
+
+    writeFile(remote, "test.txt", "new content");
+    writeFile(remote, "dir/other.txt", "other");
+    repo.add().files("test.txt", "dir/other.txt").run();
+    git("commit", "-m", "second commit");
+    // Another checkout of the same repository shouldn't affect the pristine checkout.
+    newReader().checkout(first, checkoutDir);
+
+    assertThat(newReader().checkoutIncremental(origin.resolve("master"), pristine)).isTrue();
+    assertThat(new String(Files.readAllBytes(pristine.resolve("test.txt")), UTF_8))
+        .isEqualTo("new content");
+    assertThat(new String(Files.readAllBytes(pristine.resolve("dir/other.txt")), UTF_8))
+        .isEqualTo("other");
+
+    assertThat(newReader().checkoutIncremental(first, pristine)).isTrue();
+    assertThat(Files.exists(pristine.resolve("dir"))).isFalse();
+    assertThat(new String(Files.readAllBytes(pristine.resolve("test.txt")), UTF_8))
+        .isEqualTo("some content");
+  }
+
   @Test
   public void testCheckout() throws Exception {
     // Check that we get can checkout a branch
@@ -1092,6 +1125,79 @@ public class GitOriginTest {
         .contains("i hope this is included in the migrated message!");
   }
 
+  @Test
+  public void includeBranchCommitLogsReadsMergedHistoryOnce() throws Exception {
+    for (String branch : ImmutableList.of("first-branch", "second-branch")) {
+      git("checkout", "-b", branch);
+      for (int i = 0; i < 2; i++) {
+        Files.write(remote.resolve(branch + i + ".txt"), new byte[0]);
+        git("add", branch + i + ".txt");
+        git("commit", "-m", branch + " commit " + i);
+      }
+      git("checkout", "master");
+      // Make a commit on mainline so that Git doesn't turn this into a fast-forward.
+      Files.write(remote.resolve(branch + "-mainline.txt"), new byte[0]);
+      git("add", branch + "-mainline.txt");
+      git("commit", "-m", branch + " mainline");
+      git("merge", branch);
+    }
+    String firstMerge = repo.parseRef("HEAD~2");
+    String secondMerge = repo.parseRef("HEAD");
+
+    moreOriginArgs = "include_branch_commit_logs = True";
+    origin = origin();
+
+    List<String> commands = new ArrayList<>();
+    Logger logger = Logger.getLogger(CommandRunner.class.getName());
+    StreamHandler handler = new StreamHandler() {
+      @Override
+      public synchronized void publish(LogRecord record) {
+        commands.add(record.getMessage());
+      }
+    };
+    logger.addHandler(handler);
+    List<Change<GitRevision>> changes;
+    try {
+      changes = newReader().changes(origin.resolve(firstCommitRef), origin.resolve("HEAD"))
+          .getChanges();
+    } finally {
+      logger.removeHandler(handler);
+    }
+    for (String merge : ImmutableList.of(firstMerge, secondMerge)) {
+      String range = repo.parseRef(merge + "^1") + ".." + merge;
+      assertThat(commands.stream().filter(c -> c.contains(range)).collect(Collectors.toList()))
+          .isEmpty();
+    }
+
+    Change<GitRevision> change = changes.stream()
+        .filter(c -> c.getRevision().getSha1().equals(firstMerge))
+        .collect(MoreCollectors.onlyElement());
+    ImmutableList<GitLogEntry> entries = repo.log(firstMerge + "^1.." + firstMerge)
+        .firstParent(false)
+        .run();
+    assertThat(change.getMessage()).isEqualTo(entries.get(0).getBody()
+        + "\n" + ChangeReader.BRANCH_COMMIT_LOG_HEADING + "\n"
+        + entries.subList(1, entries.size()).stream()
+            .map(e -> ""
+                + "commit " + e.getCommit().getSha1() + "\n"
+                + "Author:  " + e.getAuthor() + "\n"
+                + "Date:    " + e.getAuthorDate() + "\n"
+                + "\n"
+                + "    " + e.getBody().replace("\n", "    \n"))
+            .collect(Collectors.joining("\n")));
+    assertThat(change.getMessage()).contains("first-branch commit 0");
+    assertThat(change.getMessage()).contains("first-branch commit 1");
+    assertThat(change.getMessage()).doesNotContain("second-branch");
+
+    // The commits merged before are not part of the branch of the next merge
+    change = changes.stream()
+        .filter(c -> c.getRevision().getSha1().equals(secondMerge))
+        .collect(MoreCollectors.onlyElement());
+    assertThat(change.getMessage()).contains("second-branch commit 0");
+    assertThat(change.getMessage()).contains("second-branch commit 1");
+    assertThat(change.getMessage()).doesNotContain("first-branch");
+  }
+
   @SuppressWarnings("unchecked")
   @Test
   public void branchCommitLogsOnlyCoverIncludedOriginFileRoots() throws Exception {
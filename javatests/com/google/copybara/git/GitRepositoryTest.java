@@ -40,11 +40,14 @@ import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitRepository.GitLogEntry;
 import com.google.copybara.git.GitRepository.GitObjectType;
+import com.google.copybara.git.GitRepository.LogCmd;
+import com.google.copybara.git.GitRepository.LogCmd.LogReader;
 import com.google.copybara.git.GitRepository.PushCmd;
 import com.google.copybara.git.GitRepository.StatusFile;
 import com.google.copybara.git.GitRepository.TreeElement;
 import com.google.copybara.testing.git.GitTestUtil;
 import com.google.copybara.util.CommandOutput;
+import com.google.copybara.util.Glob;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -108,6 +111,40 @@ public class GitRepositoryTest {
     assertThat(ImmutableSet.of(after.values())).hasSize(1);
   }
 
+  @Test
+  public void testLockIsSharedByRepositoriesWithTheSameGitDir() throws Exception {
+    GitRepository other = GitRepository
+        .newBareRepo(gitDir, getGitEnv(), /*verbose=*/true, DEFAULT_TIMEOUT, /*noVerify=*/ false)
+        .withWorkTree(Files.createTempDirectory("other"));
+    GitRepository unrelated = GitRepository.newBareRepo(Files.createTempDirectory("unrelated"),
+        getGitEnv(), /*verbose=*/true, DEFAULT_TIMEOUT, /*noVerify=*/ false);
+
+    assertThat(other.lock()).isSameInstanceAs(repository.lock());
+    assertThat(unrelated.lock()).isNotSameInstanceAs(repository.lock());
+  }
+
+  @Test
+  public void testIsFirstParentAncestor() throws Exception {
+    Files.write(workdir.resolve("foo.txt"), new byte[] {});
+    repository.add().files("foo.txt").run();
+    repository.simpleCommand("commit", "-m", "base");
+    String base = repository.parseRef("HEAD");
+    repository.simpleCommand("checkout", "-b", "side");
+    repository.simpleCommand("commit", "--allow-empty", "-m", "side");
+    String side = repository.parseRef("HEAD");
+    repository.simpleCommand("checkout", "master");
+    repository.simpleCommand("commit", "--allow-empty", "-m", "master");
+    String master = repository.parseRef("HEAD");
+    repository.simpleCommand("merge", "--no-ff", "-m", "merge", "side");
+    String merge = repository.parseRef("HEAD");
+
+    assertThat(repository.isFirstParentAncestor(merge, merge)).isTrue();
+    assertThat(repository.isFirstParentAncestor(master, merge)).isTrue();
+    assertThat(repository.isFirstParentAncestor(base, merge)).isTrue();
+    assertThat(repository.isFirstParentAncestor(side, merge)).isFalse();
+    assertThat(repository.isFirstParentAncestor(merge, master)).isFalse();
+  }
+
   @Test
   public void testShowDiff() throws Exception {
     GitRepository repo = repository.withWorkTree(workdir);
@@ -400,6 +437,37 @@ public class GitRepositoryTest {
     assertThat(result.get(0).getFiles()).containsExactly("feature1.txt", "feature2.txt", "other");
   }
 
+  @Test
+  public void testLogStream() throws Exception {
+    createGraphOfCommits();
+    LogCmd logCmd = repository.log("master")
+        .includeFiles(true)
+        .includeMergeDiff(true)
+        .firstParent(false);
+    List<GitLogEntry> streamed = new ArrayList<>();
+    try (LogReader reader = logCmd.stream()) {
+      for (GitLogEntry e = reader.next(); e != null; e = reader.next()) {
+        streamed.add(e);
+      }
+      assertThat(reader.next()).isNull();
+    }
+    assertThat(streamed.toString()).isEqualTo(logCmd.run().toString());
+
+    // Closing the reader before reading all the entries is fine.
+    try (LogReader reader = logCmd.stream()) {
+      assertThat(reader.next().getCommit()).isEqualTo(streamed.get(0).getCommit());
+    }
+  }
+
+  @Test
+  public void testLogStreamBadReference() throws Exception {
+    createGraphOfCommits();
+    try (LogReader reader = repository.log("not_a_branch").stream()) {
+      RepoException e = assertThrows(RepoException.class, reader::next);
+      assertThat(e).hasMessageThat().contains("not_a_branch");
+    }
+  }
+
   @Test
   public void testPagination() throws Exception {
     createGraphOfCommits();
@@ -533,6 +601,43 @@ public class GitRepositoryTest {
     assertThat(result.getInserted()).isEmpty();
   }
 
+  @Test
+  public void testFetchNarrowedRefspecs() throws Exception {
+    GitRepository dest = GitRepository.newBareRepo(Files.createTempDirectory("destDir"),
+        getGitEnv(), /*verbose=*/true, DEFAULT_TIMEOUT, /*noVerify=*/ false);
+    dest.init();
+
+    Files.write(workdir.resolve("foo.txt"), new byte[]{});
+    repository.add().files("foo.txt").run();
+    repository.simpleCommand("commit", "foo.txt", "-m", "message");
+    repository.simpleCommand("branch", "other");
+    repository.simpleCommand("tag", "-a", "v1", "-m", "v1");
+    String fetchUrl = "file://" + repository.getGitDir();
+
+    FetchResult result = dest.fetch(fetchUrl, /*prune=*/true, /*force=*/true,
+        ImmutableList.of("refs/heads/*:refs/remotes/origin/*"), false);
+    assertThat(result.getInserted().keySet()).containsExactly(
+        "refs/remotes/origin/master",
+        "refs/remotes/origin/other",
+        "refs/tags/v1");
+
+    repository.simpleCommand("branch", "-D", "other");
+    Files.write(workdir.resolve("foo.txt"), new byte[]{42});
+    repository.simpleCommand("commit", "foo.txt", "-m", "message2");
+
+    result = dest.fetch(fetchUrl, /*prune=*/true, /*force=*/true,
+        ImmutableList.of("refs/heads/master:refs/heads/master"), false);
+    assertThat(result.getInserted().keySet()).containsExactly("refs/heads/master");
+    assertThat(result.getDeleted()).isEmpty();
+    assertThat(result.getUpdated()).isEmpty();
+
+    result = dest.fetch(fetchUrl, /*prune=*/true, /*force=*/true,
+        ImmutableList.of("refs/heads/*:refs/remotes/origin/*"), false);
+    assertThat(result.getDeleted().keySet()).containsExactly("refs/remotes/origin/other");
+    assertThat(result.getUpdated().keySet()).containsExactly("refs/remotes/origin/master");
+    assertThat(result.getInserted()).isEmpty();
+  }
+
   @Test
   public void testPartialFetch() throws Exception {
     GitRepository local = GitRepository.newBareRepo(Files.createTempDirectory("localDir"),
@@ -769,6 +874,28 @@ public class GitRepositoryTest {
     assertThat(result.get(0).getType()).isEqualTo(GitObjectType.BLOB);
   }
 
+  @Test
+  public void testCheckoutGlob() throws Exception {
+    byte[] binary = new byte[] {0, (byte) 0xff, '\n', (byte) 0xc3, 0x28, '\n', 0};
+    writeFile(workdir, "foo/bar/binary.bin", "");
+    Files.write(workdir.resolve("foo/bar/binary.bin"), binary);
+    writeFile(workdir, "foo/empty.txt", "");
+    writeFile(workdir, "foo/text.txt", "some\ntext\n");
+    writeFile(workdir, "excluded.txt", "excluded");
+    repository.add().all().run();
+    repository.simpleCommand("commit", "-m", "message");
+    GitRevision rev = repository.resolveReference("HEAD");
+
+    Path dest = Files.createTempDirectory("dest");
+    repository.checkout(Glob.createGlob(ImmutableList.of("foo/**")), dest, rev);
+
+    assertThat(Files.readAllBytes(dest.resolve("foo/bar/binary.bin"))).isEqualTo(binary);
+    assertThat(Files.readAllBytes(dest.resolve("foo/empty.txt"))).isEmpty();
+    assertThat(new String(Files.readAllBytes(dest.resolve("foo/text.txt")), UTF_8))
+        .isEqualTo("some\ntext\n");
+    assertThat(Files.exists(dest.resolve("excluded.txt"))).isFalse();
+  }
+
   @Test
   public void commitWithLargeDescription() throws IOException, RepoException, ValidationException {
     String line = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789\n";
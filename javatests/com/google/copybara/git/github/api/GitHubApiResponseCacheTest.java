@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GitHubApiResponseCacheTest {
+
+  private Path dir;
+  private GitHubApiResponseCache cache;
+
+  @Before
+  public void setup() throws Exception {
+    dir = Files.createTempDirectory("cache");
+    cache = GitHubApiResponseCache.create(dir, 1000);
+  }
+
+  @Test
+  public void testPutAndGet() throws Exception {
+    cache.put("foo", "\"v1\"", "<next>; rel=\"next\"", new byte[] {1, 2, 3});
+
+    GitHubApiResponseCache.CachedResponse response = cache.get("foo");
+    assertThat(response.getETag()).isEqualTo("\"v1\"");
+    assertThat(response.getLink()).isEqualTo("<next>; rel=\"next\"");
+    assertThat(response.getBody().available()).isEqualTo(3);
+    assertThat(cache.get("bar")).isNull();
+  }
+
+  @Test
+  public void testLeastRecentlyUsedResponsesAreRemoved() throws Exception {
+    cache.put("first", "\"v1\"", null, new byte[400]);
+    cache.put("second", "\"v1\"", null, new byte[400]);
+    Files.setLastModifiedTime(dir.resolve("first.response"), FileTime.fromMillis(1000));
+    Files.setLastModifiedTime(dir.resolve("second.response"), FileTime.fromMillis(2000));
+
+    // Replacing a response doesn't count twice
+    cache.put("second", "\"v2\"", null, new byte[400]);
+    assertThat(Files.exists(dir.resolve("first.response"))).isTrue();
+
+    cache.put("third", "\"v1\"", null, new byte[400]);
+    assertThat(Files.exists(dir.resolve("first.response"))).isFalse();
+    assertThat(cache.get("second").getETag()).isEqualTo("\"v2\"");
+    assertThat(cache.get("third")).isNotNull();
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.copybara.git.github.api.testing.FakeGitHubApiTransport;
+import com.google.copybara.profiler.Profiler;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PullRequestMetadataTest {
+
+  private FakeGitHubApiTransport transport;
+  private GitHubApi api;
+
+  @Before
+  public void setUp() {
+    transport = new FakeGitHubApiTransport();
+    api = new GitHubApi(transport, new Profiler(Ticker.systemTicker()));
+  }
+
+  @Test
+  public void testPullRequestMetadata() throws Exception {
+    transport.withPost("graphql", response(/*reviewsTotalCount=*/ 2, /*errors=*/ ""));
+
+    PullRequestMetadata metadata = api.getPullRequestMetadata("google/example", 123);
+
+    PullRequest pr = metadata.getPullRequest();
+    assertThat(pr.getNumber()).isEqualTo(123);
+    assertThat(pr.isOpen()).isTrue();
+    assertThat(pr.getTitle()).isEqualTo("Fix the thing");
+    assertThat(pr.getBody()).isEqualTo("It was broken");
+    assertThat(pr.getHtmlUrl()).isEqualTo("https://github.com/google/example/pull/123");
+    assertThat(pr.getUser().getLogin()).isEqualTo("author");
+    assertThat(Lists.transform(pr.getAssignees(), User::getLogin)).containsExactly("assignee");
+    // Teams don't have a login and are not included, like in the REST API
+    assertThat(Lists.transform(pr.getRequestedReviewers(), User::getLogin))
+        .containsExactly("reviewer");
+    assertThat(pr.getHead().getLabel()).isEqualTo("forker:feature");
+    assertThat(pr.getHead().getRef()).isEqualTo("feature");
+    assertThat(pr.getHead().getSha()).isEqualTo("1111111111111111111111111111111111111111");
+    assertThat(pr.getBase().getLabel()).isEqualTo("google:master");
+    assertThat(pr.getBase().getRef()).isEqualTo("master");
+
+    assertThat(Lists.transform(metadata.getLabels(), Label::getName))
+        .containsExactly("foo", "bar").inOrder();
+
+    assertThat(metadata.getReviews()).hasSize(2);
+    Review approved = metadata.getReviews().get(0);
+    assertThat(approved.getId()).isEqualTo(42);
+    assertThat(approved.getUser().getLogin()).isEqualTo("member");
+    assertThat(approved.isApproved()).isTrue();
+    assertThat(approved.getAuthorAssociation()).isEqualTo(AuthorAssociation.MEMBER);
+    assertThat(approved.getCommitId()).isEqualTo("1111111111111111111111111111111111111111");
+    // Deleted users
+    assertThat(metadata.getReviews().get(1).getUser().getLogin()).isEqualTo("ghost");
+
+    String request = Iterables.getOnlyElement(transport.getRequests());
+    assertThat(request).startsWith("POST graphql ");
+    assertThat(request).contains("\"owner\":\"google\"");
+    assertThat(request).contains("\"name\":\"example\"");
+    assertThat(request).contains("\"number\":123");
+  }
+
+  @Test
+  public void testTooManyReviewsUsesRest() throws Exception {
+    transport.withPost("graphql", response(/*reviewsTotalCount=*/ 150, /*errors=*/ ""));
+
+    assertThat(api.getPullRequestMetadata("google/example", 123)).isNull();
+  }
+
+  @Test
+  public void testErrorsUseRest() throws Exception {
+    transport.withPost("graphql", response(/*reviewsTotalCount=*/ 2,
+        "\"errors\": [{\"type\": \"NOT_FOUND\", \"message\": \"Could not resolve\"}],"));
+
+    assertThat(api.getPullRequestMetadata("google/example", 123)).isNull();
+  }
+
+  @Test
+  public void testFailedQueryUsesRest() throws Exception {
+    // The fake fails with a 404 when the request is not trained
+    assertThat(api.getPullRequestMetadata("google/example", 123)).isNull();
+  }
+
+  private static String response(int reviewsTotalCount, String errors) {
+    return "{" + errors + "\"data\": {\"repository\": {\"pullRequest\": {\n"
+        + "  \"number\": 123,\n"
+        + "  \"title\": \"Fix the thing\",\n"
+        + "  \"body\": \"It was broken\",\n"
+        + "  \"url\": \"https://github.com/google/example/pull/123\",\n"
+        + "  \"state\": \"OPEN\",\n"
+        + "  \"createdAt\": \"2020-01-01T10:00:00Z\",\n"
+        + "  \"updatedAt\": \"2020-01-02T10:00:00Z\",\n"
+        + "  \"author\": {\"login\": \"author\"},\n"
+        + "  \"assignees\": {\"totalCount\": 1, \"nodes\": [{\"login\": \"assignee\"}]},\n"
+        + "  \"labels\": {\"totalCount\": 2,\n"
+        + "    \"nodes\": [{\"name\": \"foo\"}, {\"name\": \"bar\"}]},\n"
+        + "  \"reviewRequests\": {\"totalCount\": 2, \"nodes\": [\n"
+        + "    {\"requestedReviewer\": {\"login\": \"reviewer\"}},\n"
+        + "    {\"requestedReviewer\": {}}]},\n"
+        + "  \"headRefName\": \"feature\",\n"
+        + "  \"headRefOid\": \"1111111111111111111111111111111111111111\",\n"
+        + "  \"headRepositoryOwner\": {\"login\": \"forker\"},\n"
+        + "  \"baseRefName\": \"master\",\n"
+        + "  \"baseRefOid\": \"2222222222222222222222222222222222222222\",\n"
+        + "  \"baseRepository\": {\"owner\": {\"login\": \"google\"}},\n"
+        + "  \"reviews\": {\"totalCount\": " + reviewsTotalCount + ", \"nodes\": [\n"
+        + "    {\"databaseId\": 42, \"body\": \"LGTM\", \"state\": \"APPROVED\",\n"
+        + "     \"authorAssociation\": \"MEMBER\", \"author\": {\"login\": \"member\"},\n"
+        + "     \"commit\": {\"oid\": \"1111111111111111111111111111111111111111\"}},\n"
+        + "    {\"databaseId\": 43, \"body\": \"Hmm\", \"state\": \"COMMENTED\",\n"
+        + "     \"authorAssociation\": \"NONE\", \"author\": null,\n"
+        + "     \"commit\": {\"oid\": \"1111111111111111111111111111111111111111\"}}]}\n"
+        + "}}}}";
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.http;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.common.collect.ImmutableList;
+import com.google.common.testing.FakeTicker;
+import com.google.copybara.profiler.Profiler;
+import com.google.copybara.testing.profiler.RecordingListener;
+import com.google.copybara.testing.profiler.RecordingListener.EventType;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RateLimitSchedulerTest {
+
+  private static final long START_MILLIS = Duration.ofDays(1).toMillis();
+
+  private long nowMillis;
+  private List<Long> sleeps;
+  private Deque<MockLowLevelHttpResponse> responses;
+  private List<Long> requestTimes;
+  private RecordingListener listener;
+  private HttpRequestFactory requestFactory;
+
+  @Before
+  public void setup() {
+    nowMillis = START_MILLIS;
+    sleeps = new ArrayList<>();
+    responses = new ArrayDeque<>();
+    requestTimes = new ArrayList<>();
+    listener = new RecordingListener();
+    Profiler profiler = new Profiler(new FakeTicker());
+    profiler.init(ImmutableList.of(listener));
+
+    RateLimitScheduler scheduler = new RateLimitScheduler(() -> nowMillis,
+        millis -> {
+          sleeps.add(millis);
+          nowMillis += millis;
+        },
+        /*maxRetries=*/ 3, Duration.ofSeconds(1), Duration.ofSeconds(3));
+    MockHttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() {
+            requestTimes.add(nowMillis);
+            return responses.isEmpty() ? ok() : responses.removeFirst();
+          }
+        };
+      }
+    };
+    requestFactory = transport.createRequestFactory(scheduler.requestInitializer(profiler));
+  }
+
+  @Test
+  public void testSecondaryRateLimitIsRetried() throws Exception {
+    responses.add(new MockLowLevelHttpResponse()
+        .setStatusCode(403)
+        .addHeader("Retry-After", "30"));
+
+    assertThat(get().getStatusCode()).isEqualTo(200);
+
+    assertThat(sleeps).containsExactly(30_000L);
+    assertThat(requestTimes).containsExactly(START_MILLIS, START_MILLIS + 30_000).inOrder();
+    listener
+        .assertMatchesNext(EventType.START, "//copybara")
+        .assertMatchesNext(EventType.START, "//copybara/rate_limit_wait")
+        .assertMatchesNext(EventType.END, "//copybara/rate_limit_wait");
+  }
+
+  @Test
+  public void testExhaustedQuotaWaitsForTheReset() throws Exception {
+    long reset = START_MILLIS + 60_000;
+    responses.add(ok()
+        .addHeader("X-RateLimit-Limit", "5000")
+        .addHeader("X-RateLimit-Remaining", "0")
+        .addHeader("X-RateLimit-Reset", Long.toString(reset / 1000)));
+
+    get();
+    get();
+
+    assertThat(requestTimes).containsExactly(START_MILLIS, reset).inOrder();
+  }
+
+  @Test
+  public void testQuotaIsPerCredential() throws Exception {
+    long reset = START_MILLIS + 60_000;
+    responses.add(ok()
+        .addHeader("X-RateLimit-Limit", "5000")
+        .addHeader("X-RateLimit-Remaining", "0")
+        .addHeader("X-RateLimit-Reset", Long.toString(reset / 1000)));
+
+    get("foo");
+    get("bar");
+    get("foo");
+
+    assertThat(requestTimes).containsExactly(START_MILLIS, START_MILLIS, reset).inOrder();
+  }
+
+  @Test
+  public void testQuotaIsPerResource() throws Exception {
+    long reset = START_MILLIS + 60_000;
+    responses.add(ok()
+        .addHeader("X-RateLimit-Limit", "30")
+        .addHeader("X-RateLimit-Remaining", "0")
+        .addHeader("X-RateLimit-Reset", Long.toString(reset / 1000))
+        .addHeader("X-RateLimit-Resource", "search"));
+
+    getPath("/search/issues");
+    getPath("/repos/foo/bar/pulls");
+    getPath("/search/code");
+
+    assertThat(requestTimes).containsExactly(START_MILLIS, START_MILLIS, reset).inOrder();
+  }
+
+  @Test
+  public void testExhaustedResourceIsRetriedAfterTheReset() throws Exception {
+    long reset = START_MILLIS + 60_000;
+    responses.add(new MockLowLevelHttpResponse()
+        .setStatusCode(403)
+        .addHeader("X-RateLimit-Limit", "5000")
+        .addHeader("X-RateLimit-Remaining", "0")
+        .addHeader("X-RateLimit-Reset", Long.toString(reset / 1000))
+        .addHeader("X-RateLimit-Resource", "graphql"));
+
+    assertThat(getPath("/api/graphql").getStatusCode()).isEqualTo(200);
+
+    assertThat(requestTimes).containsExactly(START_MILLIS, reset).inOrder();
+  }
+
+  @Test
+  public void testLowQuotaIsSpreadUntilTheReset() throws Exception {
+    long reset = START_MILLIS + 60_000;
+    responses.add(ok()
+        .addHeader("X-RateLimit-Limit", "100")
+        .addHeader("X-RateLimit-Remaining", "3")
+        .addHeader("X-RateLimit-Reset", Long.toString(reset / 1000)));
+
+    get();
+    get();
+    get();
+    get();
+
+    assertThat(requestTimes)
+        .containsExactly(START_MILLIS, START_MILLIS, START_MILLIS + 20_000, START_MILLIS + 40_000)
+        .inOrder();
+  }
+
+  @Test
+  public void testBackoffUntilMaxRetries() {
+    for (int i = 0; i < 4; i++) {
+      responses.add(new MockLowLevelHttpResponse().setStatusCode(429));
+    }
+
+    HttpResponseException e = assertThrows(HttpResponseException.class, this::get);
+
+    assertThat(e.getStatusCode()).isEqualTo(429);
+    assertThat(sleeps).containsExactly(1_000L, 2_000L, 3_000L).inOrder();
+  }
+
+  @Test
+  public void testPermissionErrorsAreNotRetried() {
+    responses.add(new MockLowLevelHttpResponse().setStatusCode(403));
+
+    HttpResponseException e = assertThrows(HttpResponseException.class, this::get);
+
+    assertThat(e.getStatusCode()).isEqualTo(403);
+    assertThat(requestTimes).hasSize(1);
+    assertThat(sleeps).isEmpty();
+  }
+
+  private HttpResponse get() throws Exception {
+    return requestFactory.buildGetRequest(new GenericUrl("https://api.github.com/foo")).execute();
+  }
+
+  private HttpResponse getPath(String path) throws Exception {
+    return requestFactory.buildGetRequest(new GenericUrl("https://api.github.com" + path))
+        .execute();
+  }
+
+  private HttpResponse get(String user) throws Exception {
+    HttpRequest request =
+        requestFactory.buildGetRequest(new GenericUrl("https://api.github.com/foo"));
+    request.getHeaders().setBasicAuthentication(user, "SECRET");
+    return request.execute();
+  }
+
+  private static MockLowLevelHttpResponse ok() {
+    return new MockLowLevelHttpResponse().setContent("{}");
+  }
+}
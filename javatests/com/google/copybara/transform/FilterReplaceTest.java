@@ -300,6 +300,72 @@ public class FilterReplaceTest {
         .containsNoMoreFiles();
   }
 
+  @Test
+  public void testCompiledMapping() throws Exception {
+    String original = ""
+        + "import com.a.One;\n"
+        + "import com.b.Two;\n"
+        + "import com.a.b.Three;\n"
+        + "import other.Four;\n"
+        + "import com.c.Five;\n"
+        + "import xx.Seven;\n";
+    write("file.txt", original);
+
+    Transformation t = filterReplace(""
+        + "regex = 'import (.*);',"
+        + "group = 1,"
+        + "mapping = core.replace_mapper(["
+        + "  core.replace(before = 'com.a', after = 'org.a'),"
+        + "  core.replace(before = 'com.b', after = 'org.b'),"
+        // Never used, 'com.a' is applied first
+        + "  core.replace(before = 'com.a.b', after = 'org.ab'),"
+        + "  core.replace(before = 'com.c', after = 'org.c'),"
+        + "  core.replace("
+        + "      before = '${word}',"
+        + "      after = 'y${word}',"
+        + "      regex_groups = {'word': 'x+'},"
+        + "  ),"
+        + "]),"
+    );
+    transform(t);
+
+    assertThatPath(checkoutDir)
+        .containsFile("file.txt", ""
+            + "import org.a.One;\n"
+            + "import org.b.Two;\n"
+            + "import org.a.b.Three;\n"
+            + "import other.Four;\n"
+            + "import org.c.Five;\n"
+            + "import yxx.Seven;\n")
+        .containsNoMoreFiles();
+
+    transform(t.reverse());
+    assertThatPath(checkoutDir)
+        .containsFile("file.txt", original)
+        .containsNoMoreFiles();
+  }
+
+  @Test
+  public void testCompiledMappingAll() throws Exception {
+    write("file.txt", "v=a\n");
+
+    Transformation t = filterReplace(""
+        + "regex = 'v=.*',"
+        + "mapping = core.replace_mapper(["
+        + "  core.replace(before = 'a', after = 'b'),"
+        + "  core.replace(before = 'b', after = 'c'),"
+        + "  core.replace(before = 'c', after = 'd'),"
+        + "  core.replace(before = 'd', after = 'e'),"
+        + "], all = True),"
+    );
+    transform(t);
+
+    // Each replace sees the result of the previous ones
+    assertThatPath(checkoutDir)
+        .containsFile("file.txt", "v=e\n")
+        .containsNoMoreFiles();
+  }
+
   /**
    * Equivalent to core.todo_replace
    */
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.util.BitSet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LiteralSetMatcherTest {
+
+  private final LiteralSetMatcher matcher =
+      new LiteralSetMatcher(ImmutableList.of("he", "she", "his", "hers", "x", "she"));
+
+  @Test
+  public void testOverlappingLiterals() {
+    assertThat(matcher.find("ushers")).isEqualTo(bits(0, 1, 3, 5));
+  }
+
+  @Test
+  public void testFailureTransitions() {
+    assertThat(matcher.find("hhisx")).isEqualTo(bits(2, 4));
+  }
+
+  @Test
+  public void testNoMatches() {
+    assertThat(matcher.find("")).isEqualTo(bits());
+    assertThat(matcher.find("hs eh")).isEqualTo(bits());
+  }
+
+  private static BitSet bits(int... indexes) {
+    BitSet bits = new BitSet();
+    for (int i : indexes) {
+      bits.set(i);
+    }
+    return bits;
+  }
+}
@@ -112,6 +112,33 @@ public final class ReplaceTest {
     assertThat(before.lastModifiedTime()).isEqualTo(after.lastModifiedTime());
   }
 
+  @Test
+  public void testOnlyLinesWithLiteralAreReplaced() throws Exception {
+    Replace transformation = eval("core.replace(\n"
+        + "  before = 'foo${x}',\n"
+        + "  after = '${x}oof',\n"
+        + "  regex_groups = {\n"
+        + "       'x' : '[a-z]*',"
+        + "  },\n"
+        + ")");
+
+    StringBuilder content = new StringBuilder();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      content.append(i % 100 == 0 ? "a foobar foobaz\n" : "some line " + i + "\n");
+      expected.append(i % 100 == 0 ? "a baroof bazoof\n" : "some line " + i + "\n");
+    }
+    writeFile(checkoutDir.resolve("file1.txt"), content.toString());
+    writeFile(checkoutDir.resolve("file2.txt"), "fo\nfoo");
+    writeFile(checkoutDir.resolve("file3.txt"), "fo\no");
+    transform(transformation);
+
+    assertThatPath(checkoutDir)
+        .containsFile("file1.txt", expected.toString())
+        .containsFile("file2.txt", "fo\noof")
+        .containsFile("file3.txt", "fo\no");
+  }
+
   @Test
   public void testAppendFile() throws Exception {
     Transformation transformation =
@@ -525,6 +552,69 @@ public final class ReplaceTest {
             ".*BEFORE.*lulz.*was a no-op because it didn't match any file");
   }
 
+  @Test
+  public void joinedReplaces() throws Exception {
+    Replace first = eval("core.replace(before = 'foo', after = 'bar')");
+    Replace second = eval("core.replace(before = 'bar', after = 'baz')");
+    Replace otherPaths = eval("core.replace(before = 'baz', after = 'qux',"
+        + " paths = glob(['other/**']))");
+    assertThat(first.canJoin(second)).isTrue();
+    assertThat(first.canJoin(otherPaths)).isFalse();
+
+    Transformation joined = first.join(second);
+    assertThat(joined.canJoin(otherPaths)).isFalse();
+    joined = joined.join(eval("core.replace(before = 'baz', after = 'qux')"));
+
+    writeFile(checkoutDir.resolve("file1.txt"), "foo\nbar\nother");
+    writeFile(checkoutDir.resolve("file2.txt"), "other");
+    transform(joined);
+
+    assertThatPath(checkoutDir)
+        .containsFile("file1.txt", "qux\nqux\nother")
+        .containsFile("file2.txt", "other")
+        .containsNoMoreFiles();
+  }
+
+  @Test
+  public void joinedReplacesFailOnNoop() throws Exception {
+    Transformation joined = this.<Replace>eval("core.replace(before = 'foo', after = 'bar')")
+        .join(eval("core.replace(before = 'not found', after = 'lulz')"))
+        .join(eval("core.replace(before = 'bar', after = 'baz')"));
+
+    writeFile(checkoutDir.resolve("file1.txt"), "foo");
+    VoidOperationException thrown =
+        assertThrows(VoidOperationException.class, () -> transform(joined));
+    assertThat(thrown).hasMessageThat().contains("not found");
+    // Same result as running them one by one: only the replaces before the no-op are applied.
+    assertThatPath(checkoutDir)
+        .containsFile("file1.txt", "bar")
+        .containsNoMoreFiles();
+  }
+
+  @Test
+  public void joinedReplacesWithTransformationCache() throws Exception {
+    options.workflowOptions.experimentTransformationCache = true;
+    Transformation joined = this.<Replace>eval("core.replace(before = 'foo', after = 'bar')")
+        .join(eval("core.replace(before = 'bar', after = 'foo')"));
+
+    writeFile(checkoutDir.resolve("file1.txt"), "foo");
+    writeFile(checkoutDir.resolve("file2.txt"), "other");
+    transform(joined);
+    assertThatPath(checkoutDir)
+        .containsFile("file1.txt", "foo")
+        .containsFile("file2.txt", "other")
+        .containsNoMoreFiles();
+
+    // Same content as before for file1, so the cached result is used, including which
+    // replaces changed the file. Otherwise the first replace would be a no-op.
+    writeFile(checkoutDir.resolve("file2.txt"), "bar");
+    transform(joined);
+    assertThatPath(checkoutDir)
+        .containsFile("file1.txt", "foo")
+        .containsFile("file2.txt", "foo")
+        .containsNoMoreFiles();
+  }
+
   @Test
   public void useDollarSignInAfter() throws Exception {
     Replace replace = eval("core.replace(\n"
@@ -54,7 +54,7 @@ import org.junit.runners.JUnit4;
 public class RevisionMigratorTest {
 
   private DummyOrigin origin;
-  private ChangeVisitable<?> destinationReader;
+  private MockReader destinationReader;
   private ReferenceMigrator referenceMigrator;
   private SkylarkTestExecutor skylark;
   private TestingConsole console;
@@ -130,6 +130,24 @@ public class RevisionMigratorTest {
             + "http://externalreviews.com/view?e and stuff.");
   }
 
+  @Test
+  public void testMultipleReferencesAreFoundInOneVisit() throws Exception {
+    String desc = "Fixes http://internalReviews.com/53, http://internalReviews.com/14, "
+        + "http://internalReviews.com/123 and http://internalReviews.com/53 again.";
+    TransformWork work = getTransformWork(desc);
+    referenceMigrator.transform(work);
+    assertThat(work.getMessage())
+        .isEqualTo("Fixes http://externalreviews.com/view?35, http://externalreviews.com/view?e, "
+            + "http://externalreviews.com/view?7b and http://externalreviews.com/view?35 again.");
+    assertThat(destinationReader.visits).isEqualTo(1);
+
+    // Already known references don't need a new visit
+    work = getTransformWork("Reverts http://internalReviews.com/14");
+    referenceMigrator.transform(work);
+    assertThat(work.getMessage()).isEqualTo("Reverts http://externalreviews.com/view?e");
+    assertThat(destinationReader.visits).isEqualTo(1);
+  }
+
   @Test
   public void testLegacyLabel() throws Exception {
     referenceMigrator = ReferenceMigrator.create(
@@ -286,9 +304,12 @@ public class RevisionMigratorTest {
 
   class MockReader implements ChangeVisitable<DummyRevision> {
 
+    private int visits;
+
     @Override
     public void visitChanges(DummyRevision start, ChangesVisitor visitor)
         throws RepoException {
+      visits++;
       int changeNumber = 0;
       Change<DummyRevision> change;
       do {
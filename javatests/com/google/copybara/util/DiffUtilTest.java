@@ -22,6 +22,8 @@ import static org.junit.Assert.assertThrows;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.copybara.util.DiffUtil.DiffFile;
 import com.google.copybara.util.DiffUtil.DiffFile.Operation;
@@ -29,6 +31,8 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -69,7 +73,7 @@ public class DiffUtilTest {
     IllegalArgumentException e =
         assertThrows(
             IllegalArgumentException.class,
-            () -> DiffUtil.diffFiles(left, foo, VERBOSE, System.getenv()));
+            () -> DiffUtil.diffFiles(left, foo));
     assertThat(e).hasMessageThat().contains("Paths 'one' and 'other' must be sibling directories");
   }
 
@@ -84,7 +88,7 @@ public class DiffUtilTest {
 
     assertThat(diffContents).isEmpty();
 
-    assertThat(DiffUtil.diffFiles(left, right, VERBOSE, System.getenv())).isEmpty();
+    assertThat(DiffUtil.diffFiles(left, right)).isEmpty();
   }
 
   @Test
@@ -126,7 +130,7 @@ public class DiffUtilTest {
     writeFile(right, "modified.txt", "foo");
     writeFile(right, "added.txt", "");
 
-    ImmutableList<DiffFile> result = DiffUtil.diffFiles(left, right, VERBOSE, System.getenv());
+    ImmutableList<DiffFile> result = DiffUtil.diffFiles(left, right);
     ImmutableMap<String, DiffFile> byName = Maps.uniqueIndex(result, DiffFile::getName);
 
     assertThat(byName.get("deleted.txt").getOperation()).isEqualTo(Operation.DELETE);
@@ -138,6 +142,35 @@ public class DiffUtilTest {
     assertThat(byName.get("moved_new_name.txt").getOperation()).isEqualTo(Operation.ADD);
     assertThat(byName.get("added.txt").getOperation()).isEqualTo(Operation.ADD);
   }
+
+  @Test
+  public void testDiffFilesSymlinksAndModes() throws Exception {
+    writeFile(left, "target.txt", "");
+    writeFile(left, "other.txt", "");
+    writeFile(left, "script.sh", "echo");
+    writeFile(left, "same_size.txt", "foo");
+    Files.createSymbolicLink(left.resolve("link"), Paths.get("target.txt"));
+    Files.createSymbolicLink(left.resolve("same_link"), Paths.get("target.txt"));
+    Files.createDirectories(left.resolve("empty_dir"));
+    writeFile(right, "target.txt", "");
+    writeFile(right, "other.txt", "");
+    writeFile(right, "script.sh", "echo");
+    writeFile(right, "same_size.txt", "bar");
+    Files.createSymbolicLink(right.resolve("link"), Paths.get("other.txt"));
+    Files.createSymbolicLink(right.resolve("same_link"), Paths.get("target.txt"));
+    FileUtil.addPermissions(right.resolve("script.sh"),
+        ImmutableSet.of(PosixFilePermission.OWNER_EXECUTE));
+
+    ImmutableList<DiffFile> result = DiffUtil.diffFiles(left, right);
+
+    assertThat(Lists.transform(result, DiffFile::getName))
+        .containsExactly("link", "same_size.txt", "script.sh")
+        .inOrder();
+    for (DiffFile diffFile : result) {
+      assertThat(diffFile.getOperation()).isEqualTo(Operation.MODIFIED);
+    }
+  }
+
   /**
    * Don't treat origin/destination folders as flags or other special argument. This means that
    * we run 'git options -- origin dest' instead of 'git options origin dest' that is
@@ -236,6 +236,38 @@ public class FileUtilTest {
       assertThat(expected.toString()).contains("absolute/absolute");
   }
 
+  @Test
+  public void testSnapshot() throws Exception {
+    Path one = Files.createDirectory(temp.resolve("one"));
+    Path two = Files.createDirectory(temp.resolve("two"));
+    touch(one.resolve("folder/file.txt"));
+    Files.createSymbolicLink(one.resolve("folder/link"), Paths.get("file.txt"));
+
+    FileUtil.snapshotFilesRecursively(one, two, System.getenv());
+
+    assertThatPath(two)
+        .containsFile("folder/file.txt", "abc")
+        .containsSymlink("folder/link", "folder/file.txt")
+        .containsNoMoreFiles();
+    // Changes in the snapshot don't affect the original
+    Files.write(two.resolve("folder/file.txt"), "modified".getBytes(UTF_8));
+    assertThatPath(one).containsFile("folder/file.txt", "abc");
+  }
+
+  @Test
+  public void testSnapshotFailAbsoluteSymlinks() throws Exception {
+    Path one = Files.createDirectory(temp.resolve("one"));
+    Path two = Files.createDirectory(temp.resolve("two"));
+    Path absolute = touch(Files.createDirectory(temp.resolve("absolute")).resolve("absolute"));
+    Files.createSymbolicLink(one.resolve("absolute"), absolute);
+
+    AbsoluteSymlinksNotAllowed expected =
+        assertThrows(
+            AbsoluteSymlinksNotAllowed.class,
+            () -> FileUtil.snapshotFilesRecursively(one, two, System.getenv()));
+    assertThat(expected.toString()).contains("is absolute or escaped the root:");
+  }
+
   private Path touch(Path path) throws IOException {
     Files.createDirectories(path.getParent());
     Files.write(path, "abc".getBytes(UTF_8));